@@ -1,17 +1,31 @@
 package dev.cernavskis.moose;
 
-import dev.cernavskis.moose.compiler.Bytecoder;
+import dev.cernavskis.moose.bytecode.Assembler;
+import dev.cernavskis.moose.bytecode.Program;
+import dev.cernavskis.moose.bytecode.ProgramFile;
+import dev.cernavskis.moose.bytecode.TextWriter;
+import dev.cernavskis.moose.compiler.CompilationCache;
+import dev.cernavskis.moose.compiler.CompilerOptions;
+import dev.cernavskis.moose.compiler.IncrementalCompiler;
+import dev.cernavskis.moose.compiler.ModuleCompiler;
+import dev.cernavskis.moose.compiler.Passes;
+import dev.cernavskis.moose.compiler.optimizer.InstructionList;
+import dev.cernavskis.moose.compiler.optimizer.OptimizationLevel;
+import dev.cernavskis.moose.compiler.optimizer.PassManager;
 import dev.cernavskis.moose.interpreter.BytecodeInterpreter;
 import dev.cernavskis.moose.interpreter.types.RuntimeFunction;
-import dev.cernavskis.moose.lexer.Token;
-import dev.cernavskis.moose.parser.statement.BlockStatement;
-import dev.cernavskis.moose.parser.Parser;
-import dev.cernavskis.moose.lexer.Lexer;
 
 import java.io.*;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 
 public class Main {
+  private static final long DEFAULT_CACHE_SIZE = 64L * 1024 * 1024;
+  // How often --watch checks whether the file changed, in milliseconds.
+  private static final long WATCH_INTERVAL = 100;
+
   private static void tryWrite(String filename, String content) {
     try {
       File file = new File(filename);
@@ -27,18 +41,120 @@ public class Main {
     }
   }
 
+  // Usage: [-O0 | -O1 | -O2] [--disable-pass <name>] [--time-passes] [--pipeline-lexer] [--flat-tree] [--unroll-factor <n>] [--unroll-budget <n>] [--cache-dir <dir>] [--cache-size <bytes>] [--no-cache] [--watch] <file.mse | file.msec>
   public static void main(String[] args) {
     try {
-      String compiled = compile(args[0]);
-      tryWrite("out.mses", compiled);
-      exec(compiled);
+      String input = null;
+      String cacheDirectory = System.getenv("MOOSE_CACHE_DIR");
+      if (cacheDirectory == null) {
+        cacheDirectory = Path.of(System.getProperty("user.home"), ".cache", "mooselang").toString();
+      }
+      long cacheSize = DEFAULT_CACHE_SIZE;
+      boolean watch = false;
+      CompilerOptions options = new CompilerOptions();
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "-O0", "-O1", "-O2" -> options.setLevel(OptimizationLevel.fromFlag(args[i]));
+          case "--disable-pass" -> {
+            String pass = args[++i];
+            if (!Passes.exists(pass)) {
+              throw new IllegalArgumentException("Unknown pass: " + pass);
+            }
+            options.disablePass(pass);
+          }
+          case "--time-passes" -> options.setTimePasses(true);
+          case "--pipeline-lexer" -> options.setPipelineLexer(true);
+          case "--flat-tree" -> options.setFlatTree(true);
+          case "--unroll-factor" -> options.setUnrollFactor(Integer.parseInt(args[++i]));
+          case "--unroll-budget" -> options.setUnrollBudget(Integer.parseInt(args[++i]));
+          case "--cache-dir" -> cacheDirectory = args[++i];
+          case "--cache-size" -> cacheSize = Long.parseLong(args[++i]);
+          case "--no-cache" -> cacheDirectory = null;
+          case "--watch" -> watch = true;
+          default -> input = args[i];
+        }
+      }
+
+      if (watch) {
+        watch(input, options);
+        return;
+      }
+
+      Program program;
+      long start = System.nanoTime();
+      if (input.endsWith(".msec")) {
+        program = ProgramFile.read(Path.of(input));
+        System.out.println("Loaded in " + ((float)(System.nanoTime() - start)) / 1000000 + "ms");
+        System.out.println("");
+      } else {
+        CompilationCache cache = cacheDirectory == null ? null : new CompilationCache(Path.of(cacheDirectory), cacheSize);
+        ModuleCompiler.Result result = new ModuleCompiler(options, cache).compile(input);
+        program = result.program();
+        if (result.compiled().isEmpty()) {
+          System.out.println("Loaded from cache in " + ((float)(System.nanoTime() - start)) / 1000000 + "ms");
+          System.out.println("");
+        } else {
+          for (ModuleCompiler.Report report : result.compiled()) {
+            if (result.files() > 1) {
+              System.out.println(report.file() + ":");
+            }
+            printReport(report, options);
+            if (report.file().equals(input)) {
+              StringBuilder text = new StringBuilder();
+              report.code().replay(new TextWriter(text));
+              tryWrite("out.mses", text.toString());
+            }
+          }
+          if (result.files() > 1) {
+            System.out.println("Compiled " + result.compiled().size() + " of " + result.files() + " files in " + ((float)(System.nanoTime() - start)) / 1000000 + "ms");
+            System.out.println("");
+          }
+          ProgramFile.write(program, Path.of("out.msec"));
+        }
+      }
+      exec(program);
     } catch (Throwable e) {
       e.printStackTrace();
     }
   }
 
+  /**
+   * Compiles and runs the file again every time it changes, until the process is stopped.
+   * Only the top-level statements that changed are compiled again, see {@link IncrementalCompiler}.
+   */
+  private static void watch(String input, CompilerOptions options) throws InterruptedException, IOException {
+    Path path = Path.of(input);
+    IncrementalCompiler compiler = new IncrementalCompiler(input, options);
+    FileTime lastModified = null;
+    while (true) {
+      FileTime modified = Files.getLastModifiedTime(path);
+      if (!modified.equals(lastModified)) {
+        lastModified = modified;
+        try {
+          long start = System.nanoTime();
+          InstructionList compiled = compiler.compile(new String(Files.readAllBytes(path), StandardCharsets.ISO_8859_1));
+          Assembler assembler = new Assembler();
+          compiled.replay(assembler);
+          Program program = assembler.build();
+          ProgramFile.write(program, Path.of("out.msec"));
+          System.out.println("Compiled " + compiler.recompiled() + " of " + compiler.statements() + " statements in " + ((float)(System.nanoTime() - start)) / 1000000 + "ms");
+          System.out.println("");
+          exec(program);
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+        System.out.println("");
+      }
+      Thread.sleep(WATCH_INTERVAL);
+    }
+  }
+
   public static void exec(String bytecode) throws Exception {
-    BytecodeInterpreter interpreter = new BytecodeInterpreter(bytecode);
+    exec(Assembler.assemble(bytecode));
+  }
+
+  public static void exec(Program program) throws Exception {
+    BytecodeInterpreter interpreter = new BytecodeInterpreter(program);
     interpreter.setVariable("print", new RuntimeFunction((args) -> {
       for (int i = 0; i < args.length; i++) {
         System.out.print(args[i].toString());
@@ -57,42 +173,16 @@ public class Main {
     System.out.println("Execution took " + ((float)(end - start)) / 1000000 + "ms");
   }
 
-  public static String compile(String inFilename) throws Exception {
-    StringBuilder content = new StringBuilder();
-
-    File inFile = new File(inFilename);
-    try (InputStream inStream = inFile.toURI().toURL().openStream()) {
-      int c;
-      while ((c = inStream.read()) != -1) {
-        content.append((char) c);
+  private static void printReport(ModuleCompiler.Report report, CompilerOptions options) {
+    System.out.println("Lexed and parsed in " + ((float)report.parseTime()) / 1000000 + "ms");
+    System.out.println("Compiled in " + ((float)report.compileTime()) / 1000000 + "ms");
+    System.out.println("Optimized in " + ((float)report.optimizeTime()) / 1000000 + "ms (" + options.level() + ", " + report.instructionsBefore() + " -> " + report.code().instructionCount() + " instructions)");
+    if (options.timePasses()) {
+      for (PassManager.Timing timing : report.timings()) {
+        System.out.println("  " + timing);
       }
     }
-
-    long start;
-    long lexTime;
-    long parseTime;
-    long compileTime;
-
-    start = System.nanoTime();
-    Lexer lexer = new Lexer(content.toString(), inFilename);
-    List<Token> tokens = lexer.getAllTokens();
-    lexTime = System.nanoTime() - start;
-
-    start = System.nanoTime();
-    Parser parser = new Parser(tokens);
-    BlockStatement statement = parser.parse();
-    parseTime = System.nanoTime() - start;
-
-    start = System.nanoTime();
-    String bytecode = Bytecoder.compile(statement);
-    compileTime = System.nanoTime() - start;
-
-    System.out.println("Lexed in " + ((float)lexTime) / 1000000 + "ms");
-    System.out.println("Parsed in " + ((float)parseTime) / 1000000 + "ms");
-    System.out.println("Compiled in " + ((float)compileTime) / 1000000 + "ms");
-    System.out.println("Everything took " + ((float)(lexTime + parseTime + compileTime)) / 1000000 + "ms");
+    System.out.println("Everything took " + ((float)(report.parseTime() + report.compileTime() + report.optimizeTime())) / 1000000 + "ms");
     System.out.println("");
-
-    return bytecode;
   }
 }
\ No newline at end of file
@@ -0,0 +1,126 @@
+package dev.cernavskis.moose.bytecode;
+
+import dev.cernavskis.moose.interpreter.types.RuntimeType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns instructions into a {@link Program}: interns symbols and constants, resolves labels and collects the line table.
+ */
+public class Assembler implements InstructionSink {
+  private int[] code = new int[256];
+  private int size = 0;
+  private int[] lines = new int[64];
+  private int lineSize = 0;
+
+  private final List<String> symbols = new ArrayList<>();
+  private final Map<String, Integer> symbolIndexes = new HashMap<>();
+  private final List<Program.Constant> constants = new ArrayList<>();
+  private final Map<String, Integer> constantIndexes = new HashMap<>();
+  private final Map<String, Integer> labels = new HashMap<>();
+  // Code positions of jump targets that still have to be resolved, and the labels they point to.
+  private final List<Integer> fixups = new ArrayList<>();
+  private final List<String> fixupLabels = new ArrayList<>();
+
+  public static Program assemble(String bytecode) {
+    Assembler assembler = new Assembler();
+    assembler.texts(bytecode);
+    return assembler.build();
+  }
+
+  @Override
+  public void line(int line, int column, String file) {
+    if (lineSize > 0 && lines[lineSize - 4] == size) {
+      // Nothing was emitted for the previous position, overwrite it.
+      lineSize -= 4;
+    }
+    if (lineSize + 4 > lines.length) {
+      lines = Arrays.copyOf(lines, lines.length * 2);
+    }
+    lines[lineSize++] = size;
+    lines[lineSize++] = line;
+    lines[lineSize++] = column;
+    lines[lineSize++] = symbol(file);
+  }
+
+  @Override
+  public void label(String name) {
+    if (labels.put(name, size) != null) {
+      throw new IllegalArgumentException("Duplicate label: " + name);
+    }
+  }
+
+  @Override
+  public void instruction(Opcode opcode, String... operands) {
+    Opcode.OperandKind[] kinds = opcode.operands();
+    int expected = opcode == Opcode.SETB ? 2 : kinds.length;
+    if (operands.length != expected) {
+      throw new IllegalArgumentException("Expected " + expected + " operands for " + opcode.mnemonic() + " but got " + operands.length);
+    }
+    ensureCapacity(opcode.size());
+    code[size++] = opcode.ordinal();
+    for (int i = 0; i < kinds.length; i++) {
+      switch (kinds[i]) {
+        case SYMBOL -> code[size++] = symbol(operands[i]);
+        case CONSTANT -> code[size++] = constant(operands[0], operands[1]);
+        case INT -> code[size++] = Integer.parseInt(operands[i]);
+        case LABEL -> {
+          fixups.add(size);
+          fixupLabels.add(operands[i]);
+          code[size++] = -1;
+        }
+      }
+    }
+  }
+
+  public Program build() {
+    for (int i = 0; i < fixups.size(); i++) {
+      Integer target = labels.get(fixupLabels.get(i));
+      if (target == null) {
+        throw new IllegalArgumentException("Label does not exist: " + fixupLabels.get(i));
+      }
+      code[fixups.get(i)] = target;
+    }
+    fixups.clear();
+    fixupLabels.clear();
+    return new Program(
+      Arrays.copyOf(code, size),
+      symbols.toArray(new String[0]),
+      constants.toArray(new Program.Constant[0]),
+      Arrays.copyOf(lines, lineSize)
+    );
+  }
+
+  private int symbol(String name) {
+    Integer index = symbolIndexes.get(name);
+    if (index == null) {
+      index = symbols.size();
+      symbols.add(name);
+      symbolIndexes.put(name, index);
+    }
+    return index;
+  }
+
+  private int constant(String type, String text) {
+    String key = type + " " + text;
+    Integer index = constantIndexes.get(key);
+    if (index == null) {
+      // The binary format refers to the type through the symbol table.
+      symbol(type);
+      index = constants.size();
+      constants.add(new Program.Constant(type, text, RuntimeType.getStringConverter(type).apply(text)));
+      constantIndexes.put(key, index);
+    }
+    return index;
+  }
+
+  private void ensureCapacity(int extra) {
+    if (size + extra > code.length) {
+      code = Arrays.copyOf(code, Math.max(code.length * 2, size + extra));
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package dev.cernavskis.moose.bytecode;
+
+/**
+ * Receives bytecode as it is generated, so it can be written out or assembled without building intermediate strings.
+ */
+public interface InstructionSink {
+  /**
+   * Marks the source position of the instructions that follow.
+   */
+  void line(int line, int column, String file);
+
+  void label(String name);
+
+  /**
+   * Appends an instruction. Operands are given in their text form, setb takes the type and the value as two operands.
+   */
+  void instruction(Opcode opcode, String... operands);
+
+  /**
+   * Parses a single line of text bytecode: an instruction, a label, a debug info line or a comment.
+   */
+  default void text(String line) {
+    line = line.stripLeading();
+    if (line.isBlank() || line.startsWith(";")) {
+      return;
+    }
+    if (line.startsWith("@")) {
+      String[] debugInfo = line.split(",", 3);
+      if (debugInfo.length != 3) {
+        throw new IllegalArgumentException("Invalid debug info: " + line);
+      }
+      line(Integer.parseInt(debugInfo[0].substring(1)), Integer.parseInt(debugInfo[1]), debugInfo[2]);
+      return;
+    }
+
+    String[] lineParts = line.split(" ", 2);
+    if (lineParts[0].equals("label")) {
+      if (lineParts.length != 2 || lineParts[1].contains(" ")) {
+        throw new IllegalArgumentException("Invalid label instruction: " + line);
+      }
+      label(lineParts[1]);
+      return;
+    }
+
+    Opcode opcode = Opcode.fromMnemonic(lineParts[0]);
+    int operandCount = opcode.operands().length;
+    String[] operands;
+    if (operandCount == 0) {
+      operands = new String[0];
+    } else if (lineParts.length < 2) {
+      throw new IllegalArgumentException("Missing operands: " + line);
+    } else if (opcode == Opcode.SETB) {
+      // The value may contain spaces, so only the type is split off.
+      String[] typeAndValue = lineParts[1].split(" ", 2);
+      operands = new String[]{typeAndValue[0], typeAndValue.length > 1 ? typeAndValue[1] : ""};
+    } else {
+      operands = lineParts[1].split(" ", operandCount);
+    }
+    instruction(opcode, operands);
+  }
+
+  /**
+   * Parses text bytecode, one instruction per line.
+   */
+  default void texts(String bytecode) {
+    int start = 0;
+    while (start < bytecode.length()) {
+      int end = bytecode.indexOf('\n', start);
+      if (end == -1) {
+        end = bytecode.length();
+      }
+      text(bytecode.substring(start, end));
+      start = end + 1;
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package dev.cernavskis.moose.bytecode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Puts programs that were assembled on their own together into one that runs them one after another.
+ * Every program keeps its own labels, its jumps are moved past the code of the programs before it, and a jump to its
+ * end now continues with the next one. Symbols are merged by name, which is how the programs share variables.
+ * Constants are appended, each program refers to its own.
+ */
+public final class Linker {
+  private Linker() {}
+
+  public static Program link(List<Program> programs) {
+    if (programs.size() == 1) {
+      return programs.get(0);
+    }
+    int codeLength = 0;
+    int linesLength = 0;
+    for (Program program : programs) {
+      codeLength += program.code().length;
+      linesLength += program.lines().length;
+    }
+    int[] code = new int[codeLength];
+    int[] lines = new int[linesLength];
+    List<String> symbols = new ArrayList<>();
+    Map<String, Integer> symbolIndexes = new HashMap<>();
+    List<Program.Constant> constants = new ArrayList<>();
+
+    int codeOffset = 0;
+    int linesOffset = 0;
+    for (Program program : programs) {
+      String[] ownSymbols = program.symbols();
+      int[] symbolMap = new int[ownSymbols.length];
+      for (int i = 0; i < ownSymbols.length; i++) {
+        symbolMap[i] = symbolIndexes.computeIfAbsent(ownSymbols[i], symbol -> {
+          symbols.add(symbol);
+          return symbols.size() - 1;
+        });
+      }
+      int constantOffset = constants.size();
+      constants.addAll(List.of(program.constants()));
+
+      int[] ownCode = program.code();
+      for (int i = 0; i < ownCode.length; ) {
+        Opcode opcode = Opcode.of(ownCode[i]);
+        code[codeOffset + i] = ownCode[i];
+        Opcode.OperandKind[] kinds = opcode.operands();
+        for (int j = 0; j < kinds.length; j++) {
+          int operand = ownCode[i + 1 + j];
+          code[codeOffset + i + 1 + j] = switch (kinds[j]) {
+            case SYMBOL -> symbolMap[operand];
+            case CONSTANT -> constantOffset + operand;
+            case INT -> operand;
+            case LABEL -> codeOffset + operand;
+          };
+        }
+        i += opcode.size();
+      }
+
+      int[] ownLines = program.lines();
+      for (int i = 0; i < ownLines.length; i += 4) {
+        lines[linesOffset + i] = codeOffset + ownLines[i];
+        lines[linesOffset + i + 1] = ownLines[i + 1];
+        lines[linesOffset + i + 2] = ownLines[i + 2];
+        lines[linesOffset + i + 3] = symbolMap[ownLines[i + 3]];
+      }
+      codeOffset += ownCode.length;
+      linesOffset += ownLines.length;
+    }
+    return new Program(code, symbols.toArray(new String[0]), constants.toArray(new Program.Constant[0]), lines);
+  }
+}
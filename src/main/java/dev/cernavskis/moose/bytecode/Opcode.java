@@ -0,0 +1,93 @@
+package dev.cernavskis.moose.bytecode;
+
+// See Bytecoder for what each of these instructions does.
+public enum Opcode {
+  SETB("setb", OperandKind.CONSTANT),
+  GETP("getp", OperandKind.SYMBOL),
+  SETP1("setp1"),
+  SETP2("setp2"),
+  SETR1("setr1"),
+  SETR2("setr2"),
+  GETR1("getr1"),
+  GETR2("getr2"),
+  CLEARR1("clearr1"),
+  CLEARR2("clearr2"),
+  CLEARB("clearb"),
+  CLEARBE("clearbe"),
+  CREATEV("createv", OperandKind.SYMBOL, OperandKind.SYMBOL),
+  SETV("setv", OperandKind.SYMBOL),
+  SETI("seti"),
+  SETPR("setpr", OperandKind.SYMBOL),
+  CRSETV("crsetv", OperandKind.SYMBOL),
+  SETC("setc"),
+  LOADV("loadv", OperandKind.SYMBOL),
+  CLEARV("clearv", OperandKind.SYMBOL),
+  PUSHM("pushm"),
+  POPM("popm"),
+  MOVM("movm"),
+  OP("op", OperandKind.SYMBOL),
+  OPM("opm", OperandKind.SYMBOL),
+  OPU("opu", OperandKind.SYMBOL),
+  CALL("call", OperandKind.SYMBOL, OperandKind.INT),
+  CALLB("callb", OperandKind.INT),
+  JMP("jmp", OperandKind.LABEL),
+  JMPZ("jmpz", OperandKind.LABEL),
+  JPNZ("jpnz", OperandKind.LABEL),
+  APUSH("apush", OperandKind.INT),
+  FORI("fori", OperandKind.SYMBOL, OperandKind.SYMBOL, OperandKind.INT, OperandKind.LABEL),
+  FORV("forv", OperandKind.SYMBOL, OperandKind.SYMBOL, OperandKind.SYMBOL, OperandKind.LABEL),
+  NEXTI("nexti", OperandKind.SYMBOL, OperandKind.INT, OperandKind.SYMBOL, OperandKind.INT, OperandKind.LABEL),
+  NEXTV("nextv", OperandKind.SYMBOL, OperandKind.INT, OperandKind.SYMBOL, OperandKind.SYMBOL, OperandKind.LABEL),
+  AGETV("agetv", OperandKind.SYMBOL, OperandKind.SYMBOL),
+  OPI("opi", OperandKind.SYMBOL),
+  OPF("opf", OperandKind.SYMBOL),
+  JMPF("jmpf", OperandKind.LABEL),
+  JMPT("jmpt", OperandKind.LABEL),
+  SETVU("setvu", OperandKind.SYMBOL),
+  JCMPF("jcmpf", OperandKind.SYMBOL, OperandKind.LABEL),
+  JCMPT("jcmpt", OperandKind.SYMBOL, OperandKind.LABEL),
+  ADDVI("addvi", OperandKind.SYMBOL, OperandKind.INT);
+
+  public enum OperandKind {
+    SYMBOL, // index into the symbol table
+    CONSTANT, // index into the constant pool
+    INT, // immediate value
+    LABEL, // code offset of the jump target
+  }
+
+  private static final Opcode[] VALUES = values();
+
+  private final String mnemonic;
+  private final OperandKind[] operands;
+
+  Opcode(String mnemonic, OperandKind... operands) {
+    this.mnemonic = mnemonic;
+    this.operands = operands;
+  }
+
+  public String mnemonic() {
+    return mnemonic;
+  }
+
+  public OperandKind[] operands() {
+    return operands;
+  }
+
+  // Size of the instruction in the code array, including the opcode itself.
+  public int size() {
+    return operands.length + 1;
+  }
+
+  public static Opcode of(int ordinal) {
+    return VALUES[ordinal];
+  }
+
+  public static Opcode fromMnemonic(String mnemonic) {
+    for (Opcode opcode : VALUES) {
+      if (opcode.mnemonic.equals(mnemonic)) {
+        return opcode;
+      }
+    }
+    throw new IllegalArgumentException("Unknown instruction: " + mnemonic);
+  }
+}
@@ -0,0 +1,72 @@
+package dev.cernavskis.moose.bytecode;
+
+/**
+ * Assembled bytecode, ready to be executed or written to disk.
+ * Instructions are stored as an opcode followed by its operands, jumps already point at code offsets.
+ */
+public final class Program {
+  /**
+   * A value for setb. The text is kept so that types without a binary encoding can be converted again on load.
+   */
+  public record Constant(String type, String text, Object value) {}
+
+  private final int[] code;
+  private final String[] symbols;
+  private final Constant[] constants;
+  // Entries of four: code offset, line, column, file symbol. Sorted by code offset.
+  private final int[] lines;
+
+  public Program(int[] code, String[] symbols, Constant[] constants, int[] lines) {
+    this.code = code;
+    this.symbols = symbols;
+    this.constants = constants;
+    this.lines = lines;
+  }
+
+  public int[] code() {
+    return code;
+  }
+
+  public String[] symbols() {
+    return symbols;
+  }
+
+  public Constant[] constants() {
+    return constants;
+  }
+
+  public int[] lines() {
+    return lines;
+  }
+
+  /**
+   * Returns the index of the line table entry covering the given code offset, or -1 if there is none.
+   */
+  public int lineEntryAt(int offset) {
+    int low = 0;
+    int high = lines.length / 4 - 1;
+    int result = -1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (lines[middle * 4] <= offset) {
+        result = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return result;
+  }
+
+  public int lineOf(int entry) {
+    return lines[entry * 4 + 1];
+  }
+
+  public int columnOf(int entry) {
+    return lines[entry * 4 + 2];
+  }
+
+  public String fileOf(int entry) {
+    return symbols[lines[entry * 4 + 3]];
+  }
+}
@@ -0,0 +1,142 @@
+package dev.cernavskis.moose.bytecode;
+
+import dev.cernavskis.moose.interpreter.types.RuntimeType;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+// Binary layout, all values big-endian:
+// int magic ("MSEC"), int version
+// int symbol count, then for each symbol: int byte length, UTF-8 bytes
+// int constant count, then for each constant: int type symbol, and the value encoded by type:
+//   int - int, float - float, bool - byte, anything else - int byte length, UTF-8 bytes of the text form
+// int code length, then the code as ints
+// int line table length, then the line table as ints
+public final class ProgramFile {
+  public static final int MAGIC = 0x4D534543;
+  public static final int VERSION = 6;
+
+  private ProgramFile() {}
+
+  public static void write(Program program, Path path) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+      write(program, out);
+    }
+  }
+
+  public static void write(Program program, DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+
+    String[] symbols = program.symbols();
+    Map<String, Integer> symbolIndexes = new HashMap<>();
+    out.writeInt(symbols.length);
+    for (int i = 0; i < symbols.length; i++) {
+      writeString(out, symbols[i]);
+      symbolIndexes.put(symbols[i], i);
+    }
+
+    Program.Constant[] constants = program.constants();
+    out.writeInt(constants.length);
+    for (Program.Constant constant : constants) {
+      Integer type = symbolIndexes.get(constant.type());
+      if (type == null) {
+        throw new IllegalArgumentException("Symbol not in table: " + constant.type());
+      }
+      out.writeInt(type);
+      switch (constant.type()) {
+        case "int" -> out.writeInt((Integer) constant.value());
+        case "float" -> out.writeFloat((Float) constant.value());
+        case "bool" -> out.writeByte((Boolean) constant.value() ? 1 : 0);
+        default -> writeString(out, constant.text());
+      }
+    }
+
+    writeInts(out, program.code());
+    writeInts(out, program.lines());
+  }
+
+  public static Program read(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return read(buffer);
+    }
+  }
+
+  public static Program read(ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+      throw new IOException("Not a compiled Moose program");
+    }
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported compiled program version " + version + ", expected " + VERSION);
+    }
+
+    String[] symbols = new String[buffer.getInt()];
+    for (int i = 0; i < symbols.length; i++) {
+      symbols[i] = readString(buffer);
+    }
+
+    Program.Constant[] constants = new Program.Constant[buffer.getInt()];
+    for (int i = 0; i < constants.length; i++) {
+      String type = symbols[buffer.getInt()];
+      constants[i] = switch (type) {
+        case "int" -> {
+          int value = buffer.getInt();
+          yield new Program.Constant(type, String.valueOf(value), value);
+        }
+        case "float" -> {
+          float value = buffer.getFloat();
+          yield new Program.Constant(type, String.valueOf(value), value);
+        }
+        case "bool" -> {
+          boolean value = buffer.get() != 0;
+          yield new Program.Constant(type, String.valueOf(value), value);
+        }
+        default -> {
+          String text = readString(buffer);
+          yield new Program.Constant(type, text, RuntimeType.getStringConverter(type).apply(text));
+        }
+      };
+    }
+
+    int[] code = readInts(buffer);
+    int[] lines = readInts(buffer);
+    return new Program(code, symbols, constants, lines);
+  }
+
+  // Strings are their UTF-8 byte length followed by the bytes, files that embed a program write theirs the same way.
+  public static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  public static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+    out.writeInt(values.length);
+    for (int value : values) {
+      out.writeInt(value);
+    }
+  }
+
+  private static int[] readInts(ByteBuffer buffer) {
+    int[] values = new int[buffer.getInt()];
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + values.length * 4);
+    return values;
+  }
+}
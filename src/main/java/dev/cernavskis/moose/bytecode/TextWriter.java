@@ -0,0 +1,46 @@
+package dev.cernavskis.moose.bytecode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes bytecode in its text form, one instruction per line.
+ */
+public class TextWriter implements InstructionSink {
+  private final Appendable out;
+
+  public TextWriter(Appendable out) {
+    this.out = out;
+  }
+
+  @Override
+  public void line(int line, int column, String file) {
+    try {
+      out.append('@').append(String.valueOf(line)).append(',').append(String.valueOf(column)).append(',').append(file).append('\n');
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void label(String name) {
+    try {
+      out.append("label ").append(name).append('\n');
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void instruction(Opcode opcode, String... operands) {
+    try {
+      out.append(opcode.mnemonic());
+      for (String operand : operands) {
+        out.append(' ').append(operand);
+      }
+      out.append('\n');
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
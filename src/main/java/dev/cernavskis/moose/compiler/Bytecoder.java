@@ -1,14 +1,24 @@
 package dev.cernavskis.moose.compiler;
 
+import dev.cernavskis.moose.bytecode.InstructionSink;
+import dev.cernavskis.moose.bytecode.Opcode;
+import dev.cernavskis.moose.bytecode.TextWriter;
+import dev.cernavskis.moose.compiler.optimizer.InstructionList;
 import dev.cernavskis.moose.lexer.TokenType;
+import dev.cernavskis.moose.parser.FlatTree;
 import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementTransformer;
+import dev.cernavskis.moose.parser.StatementVisitor;
 import dev.cernavskis.moose.parser.statement.*;
 import dev.cernavskis.moose.util.Nullable;
+import dev.cernavskis.moose.util.SourcePosition;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 // setb [type] [value] - sets a constant value to the buffer, type is needed to parse it correctly from bytecode
 // getp [name] - gets pointer to a property of the current buffer value
@@ -23,524 +33,888 @@ import java.util.Set;
 // clearb - clears the buffer
 // createv [type] [name] - creates a variable with the given name and type
 // setv [name] - sets variable to the buffer value
+// seti - pops an index and then an array from memory, sets the array element at that index to the buffer value
+// setpr [name] - pops a value from memory, sets its property with the given name to the buffer value
 // crsetv [name] - creates a variable with the given name, its type is inferred from the buffer value
 // setc - sets buffer value to be constant, variable cannot be changed again
 // loadv [name] - sets buffer from the variable value
 // clearv [name] - destroys a variable
 // pushm - pushes a value from the buffer to memory
-// popm - discards the last value from the memory
+// popm - pops the last value from the memory to the buffer
+// movm - pushes a value from the buffer to memory and clears the buffer
 // op [operator] - performs an operation on the register 1 and register 2 values, sets the result to the buffer. if operator is unary, only register 1 is used
+// opm [operator] - performs a binary operation on a value popped from memory and the buffer value, sets the result to the buffer
+// opu [operator] - performs a unary operation on the buffer value, sets the result to the buffer
 // call [name] [arg_amount] - calls a function
+// callb [arg_amount] - calls the function in the buffer, arguments are popped from memory, sets the result to the buffer
 // jmp [label] - jumps to the label
 // jmpz [label] - jumps to the label if the buffer is zero
 // jpnz [label] - jumps to the label if the buffer is not zero
 // label [name] - defines a label
-public class Bytecoder {
+// fori [name] [comparison] [int] [label] - jumps to the label unless the int variable compares true with the number
+// forv [name] [comparison] [bound] [label] - jumps to the label unless the int variable compares true with the bound variable
+// nexti [name] [step] [comparison] [int] [label] - adds the step to the int variable, jumps to the label if it then compares true with the number
+// nextv [name] [step] [comparison] [bound] [label] - adds the step to the int variable, jumps to the label if it then compares true with the bound variable
+// agetv [array] [index] - sets buffer to the element of the array variable at the index variable, without checking the bounds
+// opi [operator] - like opm, when both values are known to be ints
+// opf [operator] - like opm, when both values are known to be floats
+// jmpf [label] - clears the buffer, which has to be a boolean, and jumps to the label if it was false
+// jmpt [label] - clears the buffer, which has to be a boolean, and jumps to the label if it was true
+// addvi [name] [int] - adds the number to the int variable
+// jcmpf [operator] [label] - compares a value popped from memory with the buffer value and clears the buffer, jumps to the label if the comparison is false
+// jcmpt [operator] [label] - compares a value popped from memory with the buffer value and clears the buffer, jumps to the label if the comparison is true
+// setvu [name] - like setv, when the buffer is known to have the type of the variable
+public class Bytecoder implements StatementVisitor<Boolean> {
+  private static final Set<String> COMPARISONS = Set.of("<", "<=", ">", ">=", "==", "!=");
+  // Programs with at least this many top-level statements are compiled in chunks of CHUNK_SIZE statements.
+  private static final int PARALLEL_THRESHOLD = 512;
+  private static final int CHUNK_SIZE = 256;
+
   public static class State {
-    private final Set<Integer> usedVariables = new HashSet<>();
     private int lastLabel = 0;
 
     @Nullable
     public String lastContinueLabel = null;
     @Nullable
     public String lastBreakLabel = null;
+    // The variables declared so far in each block being compiled, the innermost one last.
+    private final List<List<String>> blocks = new ArrayList<>();
+    // The blocks from this one on are inside the innermost loop, break and continue clear their variables.
+    private int loopBlocks = 0;
 
     public int getLabel() {
       return this.lastLabel++;
     }
+  }
 
-    public int getTempVariable() {
-      int i = 0;
-      while (usedVariables.contains(i)) {
-        i++;
-      }
-      usedVariables.add(i);
-      return i;
+  private final InstructionSink out;
+  private final State state;
+  private final Map<Statement, String> types;
+
+  public Bytecoder(InstructionSink out, State state) {
+    this(out, state, Map.of());
+  }
+
+  public Bytecoder(InstructionSink out, State state, Map<Statement, String> types) {
+    this.out = out;
+    this.state = state;
+    this.types = types;
+  }
+
+  public static String compile(Statement statement) {
+    StringBuilder result = new StringBuilder();
+    compile(statement, new TextWriter(result));
+    return result.toString();
+  }
+
+  public static void compile(Statement statement, InstructionSink out) {
+    compile(statement, out, Map.of());
+  }
+
+  /**
+   * Compiles a program kept as a flat tree, without expression types. Its top-level statements are made into records
+   * one at a time as they are compiled, so the program is never a whole tree of records, and the code is the same as
+   * compiling the tree it was built from.
+   */
+  public static void compile(FlatTree tree, InstructionSink out) {
+    long position = tree.position(tree.root());
+    List<Statement> statements = tree.statements(tree.root());
+    if (statements.size() >= PARALLEL_THRESHOLD && !tree.hasAsm()) {
+      compileChunks(position, statements, out, Map.of());
+    } else {
+      line(out, position);
+      new Bytecoder(out, new State(), Map.of()).compileBlock(statements);
     }
+  }
 
-    public void freeVariable(int i) {
-      usedVariables.remove(i);
+  /**
+   * Compiles with the expression types from {@link TypeChecker#infer(Statement)}.
+   */
+  public static void compile(Statement statement, InstructionSink out, Map<Statement, String> types) {
+    if (statement instanceof BlockStatement block && block.statements().size() >= PARALLEL_THRESHOLD && !hasAsm(block)) {
+      compileChunks(block.position(), block.statements(), out, types);
+    } else {
+      new Bytecoder(out, new State(), types).compileStatement(statement);
     }
   }
 
-  public static String compile(Statement statement) {
-    return compileStatement(statement, new State()).toString();
+  record Chunk(int labels, List<String> cleanup) {}
+
+  /**
+   * Compiles the statements of a block in chunks on the common fork-join pool. Each chunk numbers its labels from zero,
+   * they are shifted past the labels of the chunks before it when the chunks are written out in order, so the result is
+   * exactly what compiling the block at once gives. Temporary variables are named by the optimizer before this, so
+   * labels are the only names chunks could clash on. The first chunk with an error reports it.
+   */
+  private static void compileChunks(long position, List<Statement> statements, InstructionSink out, Map<Statement, String> types) {
+    record Compiled(InstructionList code, Chunk chunk) {}
+
+    List<ForkJoinTask<Compiled>> tasks = new ArrayList<>();
+    for (int start = 0; start < statements.size(); start += CHUNK_SIZE) {
+      List<Statement> part = statements.subList(start, Math.min(start + CHUNK_SIZE, statements.size()));
+      tasks.add(ForkJoinPool.commonPool().submit(() -> {
+        InstructionList code = new InstructionList();
+        return new Compiled(code, compileChunk(part, types, code));
+      }));
+    }
+
+    line(out, position);
+    List<String> cleanup = new ArrayList<>();
+    int offset = 0;
+    for (ForkJoinTask<Compiled> task : tasks) {
+      Compiled compiled = task.join();
+      Chunk chunk = compiled.chunk();
+      int shift = offset;
+      compiled.code().replay(new Relocator(out, label -> label(Integer.parseInt(label.substring(1)) + shift), 0));
+      offset += chunk.labels();
+      cleanup.addAll(chunk.cleanup());
+    }
+    for (String name : cleanup) {
+      out.instruction(Opcode.CLEARV, name);
+    }
   }
 
-  private static StatementBytecode compileStatement(Statement statement, State state) {
-    StringBuilder result = new StringBuilder();
-    result.append("@")
-      .append(statement.debugInfo().line()).append(",")
-      .append(statement.debugInfo().column()).append(",")
-      .append(statement.debugInfo().file()).append("\n");
-    boolean bufferFilled = false;
-
-    if (statement instanceof BlockStatement block) {
-      List<String> cleanup = new ArrayList<>();
-      for (Statement child : block.statements()) {
-        StatementBytecode childResult = compileStatement(child, state);
-        result.append(childResult.code());
-        if (childResult.shouldClearBuffer()) {
-          result.append("clearb\n");
-        }
+  /**
+   * Compiles statements of a block on their own, with labels numbered from zero. The variables they declare are not
+   * cleared, they are returned for whoever puts the chunks together to clear at the end of the block.
+   */
+  static Chunk compileChunk(List<Statement> statements, Map<Statement, String> types, InstructionSink out) {
+    State state = new State();
+    List<String> cleanup = new ArrayList<>();
+    new Bytecoder(out, state, types).compileStatements(statements, cleanup);
+    return new Chunk(state.lastLabel, cleanup);
+  }
 
-        if (child instanceof DeclarationStatement declaration) {
-          cleanup.add(declaration.name());
-        }
-      }
-      for (String name : cleanup) {
-        result.append("clearv ").append(name).append("\n");
-      }
-    } else if (statement instanceof DeclarationStatement declaration) {
-      result.append("createv ").append(declaration.type()).append(" ").append(declaration.name()).append("\n");
-
-      Statement value = declaration.value();
-      if (value != null) {
-        String valueResult = compileStatement(value, state).code();
-        result.append(valueResult);
-        if (declaration.isConst()) {
-          result.append("setc\n");
-        }
-        result.append("setv ").append(declaration.name()).append("\n");
-        result.append("clearb\n");
+  // Inline bytecode may use the labels of the compiler, which cannot be told apart from its own.
+  private static boolean hasAsm(Statement statement) {
+    boolean[] hasAsm = {false};
+    new StatementTransformer() {
+      @Override
+      public Statement visitLiterallyDontCare(LiterallyDontCareStatement asm) {
+        hasAsm[0] = true;
+        return asm;
       }
-    } else if (statement instanceof FunctionCallStatement functionCall) {
-      List<Integer> args = new ArrayList<>(functionCall.arguments().size());
+    }.transform(statement);
+    return hasAsm[0];
+  }
 
-      for (Statement argument : functionCall.arguments()) {
-        String argumentResult = compileStatement(argument, state).code();
+  // Returns whether the statement left a value in the buffer, every visit method does.
+  private boolean compileStatement(Statement statement) {
+    line(statement);
+    return statement.accept(this);
+  }
 
-        result.append(argumentResult);
-        int tempVariable = state.getTempVariable();
-        args.add(tempVariable);
-        result.append("crsetv $" + tempVariable + "\n");
-        result.append("clearb\n");
-      }
+  // Marks the following instructions as belonging to the statement, for runtime errors.
+  private void line(Statement statement) {
+    line(out, statement.position());
+  }
 
-      String callableResult = compileStatement(functionCall.callable(), state).code();
-      result.append(callableResult);
-      int tempCallable = state.getTempVariable();
-      result.append("crsetv $").append(tempCallable).append("\n");
-      result.append("clearb\n");
-
-      for (int tempArgument : args) {
-        result.append("loadv $").append(tempArgument).append("\n");
-        result.append("clearv $").append(tempArgument).append("\n");
-        state.freeVariable(tempArgument);
-        result.append("pushm\n");
-        result.append("clearb\n");
-      }
+  private static void line(InstructionSink out, long position) {
+    out.line(SourcePosition.line(position), SourcePosition.column(position), SourcePosition.fileName(position));
+  }
 
-      result.append("call $").append(tempCallable).append(" ").append(functionCall.arguments().size()).append("\n");
-      result.append("clearv $").append(tempCallable).append("\n");
-      state.freeVariable(tempCallable);
-      bufferFilled = true;
-    } else if (statement instanceof StringStatement string) {
-      StringBuilder value = new StringBuilder();
-      for (char c : string.value().toCharArray()) {
-        value.append(switch (c) {
-          case '\n' -> "\\n";
-          case '\t' -> "\\t";
-          case '\"' -> "\\\"";
-          case '\\' -> "\\\\";
-          default -> c;
-        });
-      }
-      result.append("setb string ").append(value).append("\n");
-      bufferFilled = true;
-    } else if (statement instanceof NumberStatement number) {
-      boolean isFloat = number.value().contains(".");
-      String value;
-      result.append("setb ");
-      if (isFloat) {
-        value = String.valueOf(Float.parseFloat(number.value()));
-        result.append("float ");
+  private void emit(Opcode opcode, String... operands) {
+    out.instruction(opcode, operands);
+  }
+
+  // Whether the statement is known to have the type, so instructions that skip the runtime type checks can be used.
+  private boolean hasType(@Nullable Statement statement, @Nullable String type) {
+    return statement != null && type != null && type.equals(types.get(statement));
+  }
+
+  /**
+   * Compiles a condition that jumps to the target when it evaluates to jumpIf, and falls through otherwise.
+   * The buffer is empty on both paths. Comparisons are done by the jump itself, && and || jump past their right side.
+   */
+  private void branch(Statement condition, boolean jumpIf, String target) {
+    line(condition);
+    if (condition instanceof BinaryExpression binary && (binary.operator().equals("&&") || binary.operator().equals("||"))) {
+      boolean and = binary.operator().equals("&&");
+      if (and != jumpIf) {
+        // false && b jumps for false, true || b jumps for true, without looking at b.
+        branch(binary.left(), jumpIf, target);
+        branch(binary.right(), jumpIf, target);
       } else {
-        value = number.value();
-        int radix = 10;
-        if (value.startsWith("0x")) {
-          radix = 16;
-          value = value.substring(2);
-        } else if (value.startsWith("0b")) {
-          radix = 2;
-          value = value.substring(2);
-        }
-        value = String.valueOf(Integer.parseInt(value, radix));
-        result.append("int ");
+        String skip = label(state.getLabel());
+        branch(binary.left(), !jumpIf, skip);
+        branch(binary.right(), jumpIf, target);
+        out.label(skip);
       }
-      result.append(value).append("\n");
-      bufferFilled = true;
-    } else if (statement instanceof VariableStatement variable) {
-      result.append("loadv ").append(variable.value()).append("\n");
-      bufferFilled = true;
-    } else if (statement instanceof AssignmentStatement assignment) {
-      int tempVariable = state.getTempVariable();
-      String assignableResult = compileStatement(assignment.qualifiedName(), state).code();
-      String valueResult = compileStatement(assignment.value(), state).code();
-      result.append(assignableResult);
-      result.append("getp @\n");
-      result.append("crsetv $").append(tempVariable).append("\n");
-      result.append("clearb\n");
-      result.append(valueResult);
-      result.append("setr1\n");
-      result.append("clearb\n");
-      result.append("loadv $").append(tempVariable).append("\n");
-      result.append("setp1\n");
-      result.append("clearv $").append(tempVariable).append("\n");
-      result.append("clearr1\n");
-      state.freeVariable(tempVariable);
-      bufferFilled = true;
-    } else if (statement instanceof BinaryExpression binaryExpression) {
-      result.append(compileStatement(binaryExpression.left(), state));
-      int r1 = state.getTempVariable();
-      result.append("crsetv $").append(r1).append("\n");
-      result.append("clearb\n");
-      result.append(compileStatement(binaryExpression.right(), state));
-      result.append("setr2\nclearb\n");
-      result.append("loadv $").append(r1).append("\n");
-      result.append("setr1\nclearb\n");
-      result.append("op ").append(binaryExpression.operator()).append("\n");
-      result.append("clearr1\nclearr2\n");
-      result.append("clearv $").append(r1).append("\n");
-      state.freeVariable(r1);
-      bufferFilled = true;
-    } else if (statement instanceof UnaryExpression unaryExpression) {
-      int temp = state.getTempVariable();
-      switch (unaryExpression.operator()) {
-//        case PREINCREMENT:
-//          result.append(compileStatement(
-//            new BinaryExpression(
-//              unaryExpression.debugInfo(),
-//              unaryExpression.value(),
-//              "+",
-//              new NumberStatement(unaryExpression.debugInfo(), "1")
-//            ), state
-//          ));
-//
-//          result.append("crsetv $").append(temp).append("\n");
-//          result.append("clearb\n");
-//
-//          result.append(compileStatement(
-//            new AssignmentStatement(
-//              unaryExpression.debugInfo(),
-//              unaryExpression.value(),
-//              new VariableStatement(unaryExpression.debugInfo(), "$" + temp)
-//            ), state
-//          ));
-//          result.append("clearb\n");
-//
-//          result.append("loadv $").append(temp).append("\n");
-//          result.append("clearv $").append(temp).append("\n");
-//          break;
-//        case PREDECREMENT:
-//          result.append(compileStatement(
-//            new BinaryExpression(
-//              unaryExpression.debugInfo(),
-//              unaryExpression.value(),
-//              "-",
-//              new NumberStatement(unaryExpression.debugInfo(), "1")
-//            ), state
-//          ));
-//
-//          result.append("crsetv $").append(temp).append("\n");
-//          result.append("clearb\n");
-//
-//          result.append(compileStatement(
-//            new AssignmentStatement(
-//              unaryExpression.debugInfo(),
-//              unaryExpression.value(),
-//              new VariableStatement(unaryExpression.debugInfo(), "$" + temp)
-//            ), state
-//          ));
-//          result.append("clearb\n");
-//
-//          result.append("loadv $").append(temp).append("\n");
-//          result.append("clearv $").append(temp).append("\n");
-//          break;
-//        case POSTINCREMENT:
-//          result.append(compileStatement(unaryExpression.value(), state));
-//          result.append("crsetv $").append(temp).append("\n");
-//          result.append("clearb\n");
-//          result.append(compileStatement(
-//            new BinaryExpression(
-//              unaryExpression.debugInfo(),
-//              unaryExpression.value(),
-//              "+",
-//              new NumberStatement(unaryExpression.debugInfo(), "1")
-//            ), state
-//          ));
-//          result.append("clearb\n");
-//
-//          result.append(compileStatement(
-//            new AssignmentStatement(
-//              unaryExpression.debugInfo(),
-//              unaryExpression.value(),
-//              new VariableStatement(unaryExpression.debugInfo(), "$" + temp)
-//            ), state
-//          ));
-//          result.append("clearb\n");
-//
-//          result.append("loadv $").append(temp).append("\n");
-//          result.append("clearv $").append(temp).append("\n");
-//          break;
-//        case POSTDECREMENT:
-//          result.append(compileStatement(unaryExpression.value(), state));
-//          result.append("crsetv $").append(temp).append("\n");
-//          result.append("clearb\n");
-//          result.append(compileStatement(
-//            new BinaryExpression(
-//              unaryExpression.debugInfo(),
-//              unaryExpression.value(),
-//              "-",
-//              new NumberStatement(unaryExpression.debugInfo(), "1")
-//            ), state
-//          ));
-//          result.append("clearb\n");
-//
-//          result.append(compileStatement(
-//            new AssignmentStatement(
-//              unaryExpression.debugInfo(),
-//              unaryExpression.value(),
-//              new VariableStatement(unaryExpression.debugInfo(), "$" + temp)
-//            ), state
-//          ));
-//          result.append("clearb\n");
-//
-//          result.append("loadv $").append(temp).append("\n");
-//          result.append("clearv $").append(temp).append("\n");
-//          break;
-        case PREINCREMENT:
-        case PREDECREMENT:
-        case POSTDECREMENT:
-        case POSTINCREMENT:
-          throw new UnsupportedOperationException(unaryExpression.operator() + " iz not wowking yet 3: *sad uwu*");
-        case LOGICAL_NOT:
-        case BIT_NOT:
-          char operator;
-          if (unaryExpression.operator() == TokenType.BIT_NOT) {
-            operator = '~';
-          } else {
-            operator = '!';
-          }
-          result.append(compileStatement(unaryExpression.value(), state));
-          result.append("setr1\n");
-          result.append("clearb\n");
-          result.append("op ").append(operator).append("\n");
-          result.append("clearr1\n");
-          break;
-        default:
-          throw new RuntimeException("Unknown unary operator: " + unaryExpression.operator());
+    } else if (condition instanceof UnaryExpression unary && unary.operator() == TokenType.LOGICAL_NOT) {
+      branch(unary.value(), !jumpIf, target);
+    } else if (condition instanceof BinaryExpression binary && COMPARISONS.contains(binary.operator())) {
+      compileStatement(binary.left());
+      emit(Opcode.MOVM);
+      compileStatement(binary.right());
+      emit(jumpIf ? Opcode.JCMPT : Opcode.JCMPF, binary.operator(), target);
+    } else {
+      compileStatement(condition);
+      emit(jumpIf ? Opcode.JMPT : Opcode.JMPF, target);
+    }
+  }
+
+  private static boolean isLogical(Statement statement) {
+    return statement instanceof BinaryExpression binary && (binary.operator().equals("&&") || binary.operator().equals("||"));
+  }
+
+  private void store(String name, @Nullable String type, Statement value) {
+    emit(hasType(value, type) ? Opcode.SETVU : Opcode.SETV, name);
+  }
+
+  private static String label(int label) {
+    return "$" + label;
+  }
+
+  @Override
+  public Boolean visitBlock(BlockStatement block) {
+    compileBlock(block.statements());
+    return false;
+  }
+
+  private void compileBlock(List<Statement> statements) {
+    List<String> cleanup = new ArrayList<>();
+    state.blocks.add(cleanup);
+    compileStatements(statements, cleanup);
+    state.blocks.remove(state.blocks.size() - 1);
+    for (String name : cleanup) {
+      emit(Opcode.CLEARV, name);
+    }
+  }
+
+  // Compiles the statements of a block, adding the variables they declare to the cleanup list.
+  private void compileStatements(List<Statement> statements, List<String> cleanup) {
+    for (Statement child : statements) {
+      if (compileStatement(child)) {
+        emit(Opcode.CLEARB);
       }
-      state.freeVariable(temp);
-      bufferFilled = true;
-    } else if (statement instanceof TernaryExpression ternary) {
-      int labelFalse = state.getLabel();
-      int labelEnd = state.getLabel();
-      result.append(compileStatement(ternary.condition(), state));
-      result.append("jmpz $").append(labelFalse).append("\n");
-
-      result.append("clearb\n");
-      result.append(compileStatement(ternary.trueValue(), state));
-      result.append("jmp $").append(labelEnd).append("\n");
-
-      result.append("label $").append(labelFalse).append("\n");
-      result.append("clearb\n");
-      result.append(compileStatement(ternary.falseValue(), state));
-      result.append("label $").append(labelEnd).append("\n");
-      bufferFilled = true;
-    } else if (statement instanceof LiterallyDontCareStatement asm) {
-      result.append(asm.code()).append("\n");
-    } else if (statement instanceof PropertyAccessStatement propAccess) {
-      result.append(compileStatement(propAccess.parent(), state));
-      result.append("getp ").append(propAccess.property()).append("\n");
-      bufferFilled = true;
-    } else if (statement instanceof ArrayAccessStatement arrayAccess) {
-      result.append(compileStatement(arrayAccess.parent(), state));
-      int parent = state.getTempVariable();
-      result.append("crsetv $").append(parent).append("\n");
-      result.append("clearb\n");
-      result.append(compileStatement(arrayAccess.index(), state));
-      result.append("setr2\n");
-      result.append("clearb\n");
-      result.append("loadv $").append(parent).append("\n");
-      result.append("clearv $").append(parent).append("\n");
-      result.append("setr1\n");
-      result.append("clearb\n");
-      state.freeVariable(parent);
-      result.append("op [\n");
-      result.append("clearr1\n");
-    } else if (statement instanceof ArrayStatement array) {
-      for (Statement value : array.elements()) {
-        result.append(compileStatement(value, state));
-        result.append("pushm\n");
-        result.append("clearb\n");
+
+      if (child instanceof DeclarationStatement declaration) {
+        cleanup.add(declaration.name());
       }
-      result.append("setb array ").append(array.elements().size()).append("\n");
-      result.append("apush ").append(array.elements().size()).append("\n");
-    } else if (statement instanceof IfStatement ifStatement) {
-      boolean hasElse = ifStatement.elseBranch() != null;
-      int elseLabel = -1;
-      if (hasElse) {
-        elseLabel = state.getLabel();
+    }
+  }
+
+  @Override
+  public Boolean visitDeclaration(DeclarationStatement declaration) {
+    if (declaration.type() == null) {
+      // Without a declared type the variable holds the value itself, these come from the optimizer.
+      compileStatement(declaration.value());
+      emit(Opcode.CRSETV, declaration.name());
+      emit(Opcode.CLEARB);
+      return false;
+    }
+    emit(Opcode.CREATEV, declaration.type(), declaration.name());
+
+    Statement value = declaration.value();
+    if (value != null) {
+      compileStatement(value);
+      if (declaration.isConst()) {
+        emit(Opcode.SETC);
       }
-      int endLabel = state.getLabel();
+      store(declaration.name(), declaration.type(), value);
+      emit(Opcode.CLEARB);
+    }
+    return false;
+  }
 
-      result.append(compileStatement(ifStatement.condition(), state));
-      if (hasElse) {
-        result.append("jmpz $").append(elseLabel).append("\n");
-      } else {
-        result.append("jmpz $").append(endLabel).append("\n");
+  @Override
+  public Boolean visitFunctionCall(FunctionCallStatement functionCall) {
+    for (Statement argument : functionCall.arguments()) {
+      compileStatement(argument);
+      emit(Opcode.MOVM);
+    }
+
+    compileStatement(functionCall.callable());
+    emit(Opcode.CALLB, String.valueOf(functionCall.arguments().size()));
+    return true;
+  }
+
+  @Override
+  public Boolean visitString(StringStatement string) {
+    StringBuilder value = new StringBuilder();
+    for (char c : string.value().toCharArray()) {
+      value.append(switch (c) {
+        case '\n' -> "\\n";
+        case '\t' -> "\\t";
+        case '\"' -> "\\\"";
+        case '\\' -> "\\\\";
+        default -> c;
+      });
+    }
+    emit(Opcode.SETB, "string", value.toString());
+    return true;
+  }
+
+  @Override
+  public Boolean visitNumber(NumberStatement number) {
+    Object value = ConstantFolder.numberValue(number);
+    emit(Opcode.SETB, value instanceof Float ? "float" : "int", String.valueOf(value));
+    return true;
+  }
+
+  @Override
+  public Boolean visitBoolean(BooleanStatement bool) {
+    emit(Opcode.SETB, "bool", String.valueOf(bool.value()));
+    return true;
+  }
+
+  @Override
+  public Boolean visitVariable(VariableStatement variable) {
+    emit(Opcode.LOADV, variable.value());
+    return true;
+  }
+
+  @Override
+  public Boolean visitAssignment(AssignmentStatement assignment) {
+    if (assignment.qualifiedName() instanceof VariableStatement variable) {
+      compileStatement(assignment.value());
+      store(variable.value(), types.get(variable), assignment.value());
+    } else if (assignment.qualifiedName() instanceof ArrayAccessStatement arrayAccess) {
+      compileStatement(arrayAccess.parent());
+      emit(Opcode.MOVM);
+      compileStatement(arrayAccess.index());
+      emit(Opcode.MOVM);
+      compileStatement(assignment.value());
+      emit(Opcode.SETI);
+    } else if (assignment.qualifiedName() instanceof PropertyAccessStatement propAccess) {
+      compileStatement(propAccess.parent());
+      emit(Opcode.MOVM);
+      compileStatement(assignment.value());
+      emit(Opcode.SETPR, propAccess.property());
+    } else {
+      compileStatement(assignment.qualifiedName());
+      emit(Opcode.GETP, "@");
+      emit(Opcode.MOVM);
+      compileStatement(assignment.value());
+      emit(Opcode.SETR1);
+      emit(Opcode.CLEARB);
+      emit(Opcode.POPM);
+      emit(Opcode.SETP1);
+      emit(Opcode.CLEARR1);
+    }
+    return true;
+  }
+
+  @Override
+  public Boolean visitBinary(BinaryExpression binaryExpression) {
+    if (isLogical(binaryExpression)) {
+      int falseLabel = state.getLabel();
+      int endLabel = state.getLabel();
+      branch(binaryExpression, false, label(falseLabel));
+      emit(Opcode.SETB, "bool", "true");
+      emit(Opcode.JMP, label(endLabel));
+      out.label(label(falseLabel));
+      emit(Opcode.SETB, "bool", "false");
+      out.label(label(endLabel));
+      return true;
+    }
+    // Chains like a + b + c + ... nest to the left as deep as they are long, so the left operands are walked down in a
+    // loop and compiled from the innermost one out, instead of by recursion.
+    List<BinaryExpression> chain = new ArrayList<>();
+    Statement left = binaryExpression;
+    while (left instanceof BinaryExpression binary && !isLogical(binary)) {
+      if (binary != binaryExpression) {
+        line(binary);
       }
-      result.append("clearb\n");
-      result.append(compileStatement(ifStatement.thenBranch(), state));
-      result.append("jmp $").append(endLabel).append("\n");
-      if (hasElse) {
-        result.append("label $").append(elseLabel).append("\n");
-        result.append("clearb\n");
-        result.append(compileStatement(ifStatement.elseBranch(), state));
+      chain.add(binary);
+      left = binary.left();
+    }
+    compileStatement(left);
+    for (int i = chain.size() - 1; i >= 0; i--) {
+      BinaryExpression binary = chain.get(i);
+      emit(Opcode.MOVM);
+      compileStatement(binary.right());
+      Opcode opcode = Opcode.OPM;
+      // A known result means the operator is valid for the operand types.
+      if (types.containsKey(binary) && hasType(binary.left(), "int") && hasType(binary.right(), "int")) {
+        opcode = Opcode.OPI;
+      } else if (types.containsKey(binary) && hasType(binary.left(), "float") && hasType(binary.right(), "float")) {
+        opcode = Opcode.OPF;
       }
-      result.append("label $").append(endLabel).append("\n");
-      result.append("clearbe\n");
-    } else if (statement instanceof ForStatement forStatement) {
-      int startLabel = state.getLabel();
-      int continueLabel = state.getLabel();
-      int endLabel = state.getLabel();
-
-      StringBuilder cleanup = new StringBuilder();
+      emit(opcode, binary.operator());
+    }
+    return true;
+  }
 
-      if (forStatement.initializer() != null) {
-        StatementBytecode initializer = compileStatement(forStatement.initializer(), state);
-        if (forStatement.initializer() instanceof DeclarationStatement declarationStatement) {
-          cleanup.append("clearv ").append(declarationStatement.name()).append("\n");
-        }
-        result.append(initializer);
-        if (initializer.shouldClearBuffer()) {
-          result.append("clearb\n");
+  @Override
+  public Boolean visitUnary(UnaryExpression unaryExpression) {
+    switch (unaryExpression.operator()) {
+//          case PREINCREMENT:
+//            result.append(compileStatement(
+//              new BinaryExpression(
+//                unaryExpression.debugInfo(),
+//                unaryExpression.value(),
+//                "+",
+//                new NumberStatement(unaryExpression.debugInfo(), "1")
+//              ), state
+//            ));
+//  
+//            result.append("crsetv $").append(temp).append("\n");
+//            result.append("clearb\n");
+//  
+//            result.append(compileStatement(
+//              new AssignmentStatement(
+//                unaryExpression.debugInfo(),
+//                unaryExpression.value(),
+//                new VariableStatement(unaryExpression.debugInfo(), "$" + temp)
+//              ), state
+//            ));
+//            result.append("clearb\n");
+//  
+//            result.append("loadv $").append(temp).append("\n");
+//            result.append("clearv $").append(temp).append("\n");
+//            break;
+//          case PREDECREMENT:
+//            result.append(compileStatement(
+//              new BinaryExpression(
+//                unaryExpression.debugInfo(),
+//                unaryExpression.value(),
+//                "-",
+//                new NumberStatement(unaryExpression.debugInfo(), "1")
+//              ), state
+//            ));
+//  
+//            result.append("crsetv $").append(temp).append("\n");
+//            result.append("clearb\n");
+//  
+//            result.append(compileStatement(
+//              new AssignmentStatement(
+//                unaryExpression.debugInfo(),
+//                unaryExpression.value(),
+//                new VariableStatement(unaryExpression.debugInfo(), "$" + temp)
+//              ), state
+//            ));
+//            result.append("clearb\n");
+//  
+//            result.append("loadv $").append(temp).append("\n");
+//            result.append("clearv $").append(temp).append("\n");
+//            break;
+//          case POSTINCREMENT:
+//            result.append(compileStatement(unaryExpression.value(), state));
+//            result.append("crsetv $").append(temp).append("\n");
+//            result.append("clearb\n");
+//            result.append(compileStatement(
+//              new BinaryExpression(
+//                unaryExpression.debugInfo(),
+//                unaryExpression.value(),
+//                "+",
+//                new NumberStatement(unaryExpression.debugInfo(), "1")
+//              ), state
+//            ));
+//            result.append("clearb\n");
+//  
+//            result.append(compileStatement(
+//              new AssignmentStatement(
+//                unaryExpression.debugInfo(),
+//                unaryExpression.value(),
+//                new VariableStatement(unaryExpression.debugInfo(), "$" + temp)
+//              ), state
+//            ));
+//            result.append("clearb\n");
+//  
+//            result.append("loadv $").append(temp).append("\n");
+//            result.append("clearv $").append(temp).append("\n");
+//            break;
+//          case POSTDECREMENT:
+//            result.append(compileStatement(unaryExpression.value(), state));
+//            result.append("crsetv $").append(temp).append("\n");
+//            result.append("clearb\n");
+//            result.append(compileStatement(
+//              new BinaryExpression(
+//                unaryExpression.debugInfo(),
+//                unaryExpression.value(),
+//                "-",
+//                new NumberStatement(unaryExpression.debugInfo(), "1")
+//              ), state
+//            ));
+//            result.append("clearb\n");
+//  
+//            result.append(compileStatement(
+//              new AssignmentStatement(
+//                unaryExpression.debugInfo(),
+//                unaryExpression.value(),
+//                new VariableStatement(unaryExpression.debugInfo(), "$" + temp)
+//              ), state
+//            ));
+//            result.append("clearb\n");
+//  
+//            result.append("loadv $").append(temp).append("\n");
+//            result.append("clearv $").append(temp).append("\n");
+//            break;
+      case PREINCREMENT:
+      case PREDECREMENT:
+      case POSTDECREMENT:
+      case POSTINCREMENT:
+        throw new UnsupportedOperationException(unaryExpression.operator() + " iz not wowking yet 3: *sad uwu*");
+      case LOGICAL_NOT:
+      case BIT_NOT:
+        char operator;
+        if (unaryExpression.operator() == TokenType.BIT_NOT) {
+          operator = '~';
+        } else {
+          operator = '!';
         }
+        compileStatement(unaryExpression.value());
+        emit(Opcode.OPU, String.valueOf(operator));
+        break;
+      default:
+        throw new RuntimeException("Unknown unary operator: " + unaryExpression.operator());
+    }
+    return true;
+  }
+
+  @Override
+  public Boolean visitTernary(TernaryExpression ternary) {
+    int labelFalse = state.getLabel();
+    int labelEnd = state.getLabel();
+    branch(ternary.condition(), false, label(labelFalse));
+
+    compileStatement(ternary.trueValue());
+    emit(Opcode.JMP, label(labelEnd));
+
+    out.label(label(labelFalse));
+    compileStatement(ternary.falseValue());
+    out.label(label(labelEnd));
+    return true;
+  }
+
+  @Override
+  public Boolean visitLiterallyDontCare(LiterallyDontCareStatement asm) {
+    out.texts(asm.code());
+    return false;
+  }
+
+  @Override
+  public Boolean visitPropertyAccess(PropertyAccessStatement propAccess) {
+    compileStatement(propAccess.parent());
+    emit(Opcode.GETP, propAccess.property());
+    return true;
+  }
+
+  @Override
+  public Boolean visitArrayAccess(ArrayAccessStatement arrayAccess) {
+    compileStatement(arrayAccess.parent());
+    emit(Opcode.MOVM);
+    compileStatement(arrayAccess.index());
+    emit(Opcode.OPM, "[");
+    return true;
+  }
+
+  @Override
+  public Boolean visitUncheckedArrayAccess(UncheckedArrayAccessStatement arrayAccess) {
+    emit(Opcode.AGETV, arrayAccess.array(), arrayAccess.index());
+    return true;
+  }
+
+  @Override
+  public Boolean visitArray(ArrayStatement array) {
+    for (Statement value : array.elements()) {
+      compileStatement(value);
+      emit(Opcode.MOVM);
+    }
+    emit(Opcode.SETB, "array", String.valueOf(array.elements().size()));
+    emit(Opcode.APUSH, String.valueOf(array.elements().size()));
+    return true;
+  }
+
+  @Override
+  public Boolean visitExport(ExportStatement exportStatement) {
+    // Declared like any other variable, it is only left out of the cleanup of the block.
+    return exportStatement.declaration().accept(this);
+  }
+
+  @Override
+  public Boolean visitImport(ImportStatement importStatement) {
+    // Imported files are compiled on their own and linked to run before this one, see ModuleCompiler.
+    return false;
+  }
+
+  @Override
+  public Boolean visitIf(IfStatement ifStatement) {
+    boolean hasElse = ifStatement.elseBranch() != null;
+    int elseLabel = -1;
+    if (hasElse) {
+      elseLabel = state.getLabel();
+    }
+    int endLabel = state.getLabel();
+
+    branch(ifStatement.condition(), false, label(hasElse ? elseLabel : endLabel));
+    if (compileStatement(ifStatement.thenBranch())) {
+      emit(Opcode.CLEARB);
+    }
+    emit(Opcode.JMP, label(endLabel));
+    if (hasElse) {
+      out.label(label(elseLabel));
+      if (compileStatement(ifStatement.elseBranch())) {
+        emit(Opcode.CLEARB);
       }
+    }
+    out.label(label(endLabel));
+    return false;
+  }
 
-      String previousContinue = state.lastContinueLabel;
-      String previousEnd = state.lastBreakLabel;
+  @Override
+  public Boolean visitFor(ForStatement forStatement) {
+    int startLabel = state.getLabel();
+    int continueLabel = state.getLabel();
+    int endLabel = state.getLabel();
 
-      state.lastContinueLabel = "$" + continueLabel;
-      state.lastBreakLabel = "$" + endLabel;
+    List<String> cleanup = new ArrayList<>();
 
-      result.append("label $").append(startLabel).append("\n");
-      result.append(compileStatement(forStatement.condition(), state));
-      result.append("jmpz $").append(endLabel).append("\n");
-      result.append("clearb\n");
-      result.append(compileStatement(forStatement.body(), state));
-      if (forStatement.body() instanceof DeclarationStatement declarationStatement) {
-        cleanup.append("clearv ").append(declarationStatement.name()).append("\n");
+    if (forStatement.initializer() != null) {
+      if (compileStatement(forStatement.initializer())) {
+        emit(Opcode.CLEARB);
       }
-      result.append("label $").append(continueLabel).append("\n");
-      if (forStatement.increment() != null) {
-        StatementBytecode increment = compileStatement(forStatement.increment(), state);
-        result.append(increment);
-        if (increment.shouldClearBuffer()) {
-          result.append("clearb\n");
-        }
+      if (forStatement.initializer() instanceof DeclarationStatement declarationStatement) {
+        cleanup.add(declarationStatement.name());
       }
-      result.append("jmp $").append(startLabel).append("\n");
-      result.append("label $").append(endLabel).append("\n");
-      result.append(cleanup);
-
-      state.lastContinueLabel = previousContinue;
-      state.lastBreakLabel = previousEnd;
-    } else if (statement instanceof WhileStatement whileStatement) {
-      int startLabel = state.getLabel();
-      int endLabel = state.getLabel();
+    }
 
-      String previousContinue = state.lastContinueLabel;
-      String previousEnd = state.lastBreakLabel;
+    String previousContinue = state.lastContinueLabel;
+    String previousEnd = state.lastBreakLabel;
+    int previousBlocks = state.loopBlocks;
+    state.loopBlocks = state.blocks.size();
 
-      state.lastContinueLabel = "$" + startLabel;
-      state.lastBreakLabel = "$" + endLabel;
+    state.lastContinueLabel = label(continueLabel);
+    state.lastBreakLabel = label(endLabel);
 
-      result.append("label $").append(startLabel).append("\n");
-      result.append(compileStatement(whileStatement.condition(), state));
-      result.append("jmpz $").append(endLabel).append("\n");
-      result.append("clearb\n");
-      result.append(compileStatement(whileStatement.body(), state));
-      if (whileStatement.body() instanceof DeclarationStatement declarationStatement) {
-        result.append("clearv ").append(declarationStatement.name()).append("\n");
+    out.label(label(startLabel));
+    if (forStatement.condition() != null) {
+      branch(forStatement.condition(), false, label(endLabel));
+    }
+    if (compileStatement(forStatement.body())) {
+      emit(Opcode.CLEARB);
+    }
+    if (forStatement.body() instanceof DeclarationStatement declarationStatement) {
+      cleanup.add(declarationStatement.name());
+    }
+    out.label(label(continueLabel));
+    if (forStatement.increment() != null) {
+      if (compileStatement(forStatement.increment())) {
+        emit(Opcode.CLEARB);
       }
-      result.append("jmp $").append(startLabel).append("\n");
-      result.append("label $").append(endLabel).append("\n");
-
-      state.lastContinueLabel = previousContinue;
-      state.lastBreakLabel = previousEnd;
-    } else if (statement instanceof DoWhileStatement doWhileStatement) {
-      int startLabel = state.getLabel();
-      int noCheckStartLabel = state.getLabel();
-      int endLabel = state.getLabel();
+    }
+    emit(Opcode.JMP, label(startLabel));
+    out.label(label(endLabel));
+    for (String name : cleanup) {
+      emit(Opcode.CLEARV, name);
+    }
 
-      String previousContinue = state.lastContinueLabel;
-      String previousEnd = state.lastBreakLabel;
-
-      state.lastContinueLabel = "$" + startLabel;
-      state.lastBreakLabel = "$" + endLabel;
-      
-      result.append("jmp $").append(noCheckStartLabel).append("\n");
-      result.append("label $").append(startLabel).append("\n");
-      result.append("clearb\n");
-      result.append("label $").append(noCheckStartLabel).append("\n");
-      result.append(compileStatement(doWhileStatement.body(), state));
-      if (doWhileStatement.body() instanceof DeclarationStatement declarationStatement) {
-        result.append("clearv ").append(declarationStatement.name()).append("\n");
-      }
-      result.append(compileStatement(doWhileStatement.condition(), state));
-      result.append("jpnz $").append(startLabel).append("\n");
-      result.append("label $").append(endLabel).append("\n");
-
-      state.lastContinueLabel = previousContinue;
-      state.lastBreakLabel = previousEnd;
-    } else if (statement instanceof LoopStatement loopStatement) {
-      int startLabel = state.getLabel();
-      int endLabel = state.getLabel();
+    state.lastContinueLabel = previousContinue;
+    state.lastBreakLabel = previousEnd;
+    state.loopBlocks = previousBlocks;
+    return false;
+  }
 
-      String previousContinue = state.lastContinueLabel;
-      String previousEnd = state.lastBreakLabel;
+  @Override
+  public Boolean visitCountedFor(CountedForStatement countedFor) {
+    int bodyLabel = state.getLabel();
+    int continueLabel = state.getLabel();
+    int endLabel = state.getLabel();
+
+    DeclarationStatement counter = countedFor.initializer();
+    compileStatement(counter);
+    boolean immediate = countedFor.bound() instanceof NumberStatement;
+    String bound = immediate
+      ? String.valueOf(ConstantFolder.numberValue((NumberStatement) countedFor.bound()))
+      : ((VariableStatement) countedFor.bound()).value();
+
+    String previousContinue = state.lastContinueLabel;
+    String previousEnd = state.lastBreakLabel;
+    int previousBlocks = state.loopBlocks;
+    state.loopBlocks = state.blocks.size();
+
+    state.lastContinueLabel = label(continueLabel);
+    state.lastBreakLabel = label(endLabel);
+
+    line(countedFor.bound());
+    emit(immediate ? Opcode.FORI : Opcode.FORV, counter.name(), countedFor.comparison(), bound, label(endLabel));
+    out.label(label(bodyLabel));
+    if (compileStatement(countedFor.body())) {
+      emit(Opcode.CLEARB);
+    }
+    out.label(label(continueLabel));
+    line(countedFor.bound());
+    emit(immediate ? Opcode.NEXTI : Opcode.NEXTV, counter.name(), String.valueOf(countedFor.step()), countedFor.comparison(), bound, label(bodyLabel));
+    out.label(label(endLabel));
+    emit(Opcode.CLEARV, counter.name());
+    if (countedFor.body() instanceof DeclarationStatement declarationStatement) {
+      emit(Opcode.CLEARV, declarationStatement.name());
+    }
 
-      state.lastContinueLabel = "$" + startLabel;
-      state.lastBreakLabel = "$" + endLabel;
+    state.lastContinueLabel = previousContinue;
+    state.lastBreakLabel = previousEnd;
+    state.loopBlocks = previousBlocks;
+    return false;
+  }
 
-      result.append("label $").append(startLabel).append("\n");
-      result.append(compileStatement(loopStatement.body(), state));
-      if (loopStatement.body() instanceof DeclarationStatement declarationStatement) {
-        result.append("clearv ").append(declarationStatement.name()).append("\n");
-      }
-      result.append("jmp $").append(startLabel).append("\n");
-      result.append("label $").append(endLabel).append("\n");
-
-      state.lastContinueLabel = previousContinue;
-      state.lastBreakLabel = previousEnd;
-    } else if (statement instanceof BreakStatement breakStatement) {
-      if (state.lastBreakLabel == null) {
-        throw new CompilerException("Break statement outside of loop", breakStatement.debugInfo());
-      }
+  @Override
+  public Boolean visitUnrolledLoop(UnrolledLoopStatement unrolled) {
+    int endLabel = state.getLabel();
 
-      if (breakStatement.label() != null) {
-        throw new CompilerException("Break statement labels are not supported yet", breakStatement.debugInfo());
-        // result.append("jmp ").append(breakStatement.label()).append("\n");
-      } else {
-        result.append("jmp ").append(state.lastBreakLabel).append("\n");
+    String previousContinue = state.lastContinueLabel;
+    String previousEnd = state.lastBreakLabel;
+    int previousBlocks = state.loopBlocks;
+    state.loopBlocks = state.blocks.size();
+
+    boolean nested = unrolled.counter() != null;
+    if (!nested) {
+      state.lastBreakLabel = label(endLabel);
+    }
+    List<Statement> iterations = unrolled.iterations();
+    for (int i = 0; i < iterations.size(); i++) {
+      int nextLabel = state.getLabel();
+      state.lastContinueLabel = label(nextLabel);
+      Statement iteration = iterations.get(i);
+      if (compileStatement(iteration)) {
+        emit(Opcode.CLEARB);
       }
-    } else if (statement instanceof ContinueStatement continueStatement) {
-      if (state.lastContinueLabel == null) {
-        throw new CompilerException("Continue statement outside of loop", continueStatement.debugInfo());
+      if (iteration instanceof DeclarationStatement declarationStatement) {
+        emit(Opcode.CLEARV, declarationStatement.name());
       }
-
-      if (continueStatement.label() != null) {
-        throw new CompilerException("Continue statement labels are not supported yet", continueStatement.debugInfo());
-        // result.append("jmp ").append(continueStatement.label()).append("\n");
-      } else {
-        result.append("jmp ").append(state.lastContinueLabel).append("\n");
+      out.label(label(nextLabel));
+      if (nested && i < iterations.size() - 1) {
+        emit(Opcode.ADDVI, unrolled.counter(), String.valueOf(unrolled.step()));
       }
+    }
+    if (!nested) {
+      out.label(label(endLabel));
+    }
+
+    state.lastContinueLabel = previousContinue;
+    state.lastBreakLabel = previousEnd;
+    state.loopBlocks = previousBlocks;
+    return false;
+  }
+
+  @Override
+  public Boolean visitWhile(WhileStatement whileStatement) {
+    int startLabel = state.getLabel();
+    int endLabel = state.getLabel();
+
+    String previousContinue = state.lastContinueLabel;
+    String previousEnd = state.lastBreakLabel;
+    int previousBlocks = state.loopBlocks;
+    state.loopBlocks = state.blocks.size();
+
+    state.lastContinueLabel = label(startLabel);
+    state.lastBreakLabel = label(endLabel);
+
+    out.label(label(startLabel));
+    branch(whileStatement.condition(), false, label(endLabel));
+    if (compileStatement(whileStatement.body())) {
+      emit(Opcode.CLEARB);
+    }
+    if (whileStatement.body() instanceof DeclarationStatement declarationStatement) {
+      emit(Opcode.CLEARV, declarationStatement.name());
+    }
+    emit(Opcode.JMP, label(startLabel));
+    out.label(label(endLabel));
+
+    state.lastContinueLabel = previousContinue;
+    state.lastBreakLabel = previousEnd;
+    state.loopBlocks = previousBlocks;
+    return false;
+  }
+
+  @Override
+  public Boolean visitDoWhile(DoWhileStatement doWhileStatement) {
+    int startLabel = state.getLabel();
+    int continueLabel = state.getLabel();
+    int endLabel = state.getLabel();
+
+    String previousContinue = state.lastContinueLabel;
+    String previousEnd = state.lastBreakLabel;
+    int previousBlocks = state.loopBlocks;
+    state.loopBlocks = state.blocks.size();
+
+    state.lastContinueLabel = label(continueLabel);
+    state.lastBreakLabel = label(endLabel);
+
+    out.label(label(startLabel));
+    if (compileStatement(doWhileStatement.body())) {
+      emit(Opcode.CLEARB);
+    }
+    if (doWhileStatement.body() instanceof DeclarationStatement declarationStatement) {
+      emit(Opcode.CLEARV, declarationStatement.name());
+    }
+    out.label(label(continueLabel));
+    branch(doWhileStatement.condition(), true, label(startLabel));
+    out.label(label(endLabel));
+
+    state.lastContinueLabel = previousContinue;
+    state.lastBreakLabel = previousEnd;
+    state.loopBlocks = previousBlocks;
+    return false;
+  }
+
+  @Override
+  public Boolean visitLoop(LoopStatement loopStatement) {
+    int startLabel = state.getLabel();
+    int endLabel = state.getLabel();
+
+    String previousContinue = state.lastContinueLabel;
+    String previousEnd = state.lastBreakLabel;
+    int previousBlocks = state.loopBlocks;
+    state.loopBlocks = state.blocks.size();
+
+    state.lastContinueLabel = label(startLabel);
+    state.lastBreakLabel = label(endLabel);
+
+    out.label(label(startLabel));
+    if (compileStatement(loopStatement.body())) {
+      emit(Opcode.CLEARB);
+    }
+    if (loopStatement.body() instanceof DeclarationStatement declarationStatement) {
+      emit(Opcode.CLEARV, declarationStatement.name());
+    }
+    emit(Opcode.JMP, label(startLabel));
+    out.label(label(endLabel));
+
+    state.lastContinueLabel = previousContinue;
+    state.lastBreakLabel = previousEnd;
+    state.loopBlocks = previousBlocks;
+    return false;
+  }
+
+  @Override
+  public Boolean visitBreak(BreakStatement breakStatement) {
+    if (state.lastBreakLabel == null) {
+      throw new CompilerException("Break statement outside of loop", breakStatement.debugInfo());
+    }
+
+    if (breakStatement.label() != null) {
+      throw new CompilerException("Break statement labels are not supported yet", breakStatement.debugInfo());
+      // emit(Opcode.JMP, breakStatement.label());
     } else {
-      throw new RuntimeException("Unknown statement type: " + statement.getClass().getName());
+      clearLoopBlocks();
+      emit(Opcode.JMP, state.lastBreakLabel);
+    }
+    return false;
+  }
+
+  @Override
+  public Boolean visitContinue(ContinueStatement continueStatement) {
+    if (state.lastContinueLabel == null) {
+      throw new CompilerException("Continue statement outside of loop", continueStatement.debugInfo());
     }
 
-    return new StatementBytecode(result.toString(), bufferFilled);
+    if (continueStatement.label() != null) {
+      throw new CompilerException("Continue statement labels are not supported yet", continueStatement.debugInfo());
+      // emit(Opcode.JMP, continueStatement.label());
+    } else {
+      clearLoopBlocks();
+      emit(Opcode.JMP, state.lastContinueLabel);
+    }
+    return false;
+  }
+
+  // Clears the variables declared in the blocks a break or continue jumps out of, the end of those blocks is skipped.
+  private void clearLoopBlocks() {
+    for (int i = state.blocks.size() - 1; i >= state.loopBlocks; i--) {
+      for (String name : state.blocks.get(i)) {
+        emit(Opcode.CLEARV, name);
+      }
+    }
   }
 }
@@ -0,0 +1,472 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.lexer.TokenType;
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementTransformer;
+import dev.cernavskis.moose.parser.statement.*;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes expressions that a run of statements in a block evaluates more than once only the first time, into $cse
+ * variables declared right before the statement that first needs them. Expressions are compared by what they compute,
+ * ignoring where they are in the source.
+ * <p>
+ * A run only contains declarations, assignments and expressions without calls or increments, so nothing but the
+ * statements themselves can change a variable in it. An assignment or declaration forgets the expressions that read
+ * the variable, and assigning an element or property, or a variable that escapes, forgets every expression that reads
+ * an element or property, as they may be shared. Any other statement ends the run.
+ * <p>
+ * An expression is only computed early when the statement evaluates it unconditionally, outside of the branches of a
+ * ternary and the right side of && or ||. Nothing with side effects runs before it in that statement, so at most a
+ * different error is reported first.
+ */
+public class CommonSubexpressions extends StatementTransformer {
+  // Every subexpression gets a key, so longer ones are not built, or long chains like a + b + c + ... take quadratic time.
+  private static final int MAX_KEY_LENGTH = 256;
+
+  public record Result(Statement statement, int eliminated) {}
+
+  private record Available(String name, Set<String> reads, boolean readsElements) {}
+
+  private final Set<String> escaped;
+  private final Map<String, Available> available = new HashMap<>();
+  private int lastName = 0;
+  private int eliminated = 0;
+
+  private CommonSubexpressions(Set<String> escaped) {
+    this.escaped = escaped;
+  }
+
+  /**
+   * Returns the program without its common subexpressions, and how many evaluations of expressions that saves.
+   */
+  public static Result eliminate(Statement statement) {
+    Set<String> escaped = LoopInvariantMotion.escapedVariables(statement);
+    if (escaped == null) {
+      // Inline bytecode can modify any variable.
+      return new Result(statement, 0);
+    }
+    CommonSubexpressions cse = new CommonSubexpressions(escaped);
+    Statement result = cse.transform(statement);
+    return new Result(result, cse.eliminated);
+  }
+
+  @Override
+  public Statement visitBlock(BlockStatement block) {
+    // Nested blocks are runs of their own.
+    BlockStatement transformed = (BlockStatement) super.visitBlock(block);
+    available.clear();
+    List<Statement> statements = transformed.statements();
+    // What the statements evaluate as they were written, null for the ones that end a run.
+    List<Occurrences> scans = new ArrayList<>();
+    for (Statement statement : statements) {
+      scans.add(isStraight(statement) ? Occurrences.of(statement) : null);
+    }
+    List<Statement> result = new ArrayList<>();
+    boolean changed = false;
+    for (int i = 0; i < statements.size(); i++) {
+      Statement statement = statements.get(i);
+      if (scans.get(i) == null) {
+        available.clear();
+        result.add(statement);
+        continue;
+      }
+      Statement replaced = replace(statement);
+      while (true) {
+        Statement candidate = candidate(replaced, statements, scans, i + 1);
+        if (candidate == null) {
+          break;
+        }
+        String name = "$cse" + lastName++;
+        result.add(new DeclarationStatement(name, candidate, null, false, candidate.position()));
+        Occurrences reads = Occurrences.of(candidate);
+        available.put(key(candidate), new Available(name, reads.variables, reads.elements));
+        // The first occurrence is still evaluated, in the declaration.
+        eliminated--;
+        replaced = replace(replaced);
+      }
+      changed |= replaced != statement;
+      result.add(replaced);
+      forget(replaced);
+    }
+    available.clear();
+    return changed ? new BlockStatement(transformed.position(), result) : transformed;
+  }
+
+  // The largest expression that the statement evaluates unconditionally and that is evaluated again before it is
+  // forgotten, or null if there is none.
+  @Nullable
+  private Statement candidate(Statement statement, List<Statement> statements, List<Occurrences> scans, int next) {
+    Occurrences occurrences = Occurrences.of(statement);
+    Statement best = null;
+    int bestSize = 0;
+    for (Map.Entry<String, Statement> entry : occurrences.unconditional.entrySet()) {
+      String key = entry.getKey();
+      int size = size(entry.getValue());
+      if (size <= bestSize || available.containsKey(key)) {
+        continue;
+      }
+      if (occurrences.counts.get(key) > 1 || usedLater(key, entry.getValue(), statements, scans, next)) {
+        best = entry.getValue();
+        bestSize = size;
+      }
+    }
+    return best;
+  }
+
+  private boolean usedLater(String key, Statement expression, List<Statement> statements, List<Occurrences> scans, int next) {
+    Occurrences reads = Occurrences.of(expression);
+    for (int i = next; i < statements.size() && scans.get(i) != null; i++) {
+      if (scans.get(i).counts.containsKey(key)) {
+        return true;
+      }
+      String modified = modified(statements.get(i));
+      if (modified != null && (reads.variables.contains(modified) || reads.elements && sharesElements(statements.get(i), modified))) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private void forget(Statement statement) {
+    String modified = modified(statement);
+    if (modified == null) {
+      return;
+    }
+    boolean elements = sharesElements(statement, modified);
+    available.values().removeIf(value -> value.reads.contains(modified) || elements && value.readsElements);
+  }
+
+  // The variable the statement declares or assigns, or null if it does neither.
+  @Nullable
+  private static String modified(Statement statement) {
+    if (statement instanceof DeclarationStatement declaration) {
+      return declaration.name();
+    } else if (statement instanceof ExportStatement export) {
+      return modified(export.declaration());
+    } else if (statement instanceof AssignmentStatement assignment) {
+      return LoopInvariantMotion.rootName(assignment.qualifiedName());
+    }
+    return null;
+  }
+
+  // Whether the statement may change an element or property that some other variable can read.
+  private boolean sharesElements(Statement statement, String modified) {
+    return statement instanceof AssignmentStatement assignment
+      && (!(assignment.qualifiedName() instanceof VariableStatement) || escaped.contains(modified));
+  }
+
+  private Statement replace(Statement statement) {
+    if (available.isEmpty()) {
+      return statement;
+    }
+    Map<String, String> names = new HashMap<>();
+    for (Map.Entry<String, Available> entry : available.entrySet()) {
+      names.put(entry.getKey(), entry.getValue().name);
+    }
+    Replacer replacer = new Replacer(names);
+    Statement result = replacer.transform(statement);
+    eliminated += replacer.replaced;
+    return result;
+  }
+
+  // Declarations, assignments and expressions that only change the variable they declare or assign.
+  private static boolean isStraight(Statement statement) {
+    if (statement instanceof BlockStatement || statement instanceof IfStatement || statement instanceof ForStatement
+      || statement instanceof WhileStatement || statement instanceof DoWhileStatement || statement instanceof LoopStatement
+      || statement instanceof CountedForStatement || statement instanceof UnrolledLoopStatement
+      || statement instanceof BreakStatement || statement instanceof ContinueStatement
+      || statement instanceof LiterallyDontCareStatement) {
+      return false;
+    }
+    boolean[] straight = {true};
+    new StatementTransformer() {
+      @Override
+      public Statement visitFunctionCall(FunctionCallStatement call) {
+        straight[0] = false;
+        return call;
+      }
+
+      @Override
+      public Statement visitAssignment(AssignmentStatement assignment) {
+        straight[0] &= assignment == statement;
+        return super.visitAssignment(assignment);
+      }
+
+      @Override
+      public Statement visitUnary(UnaryExpression unary) {
+        straight[0] &= unary.operator() == TokenType.LOGICAL_NOT || unary.operator() == TokenType.BIT_NOT;
+        return super.visitUnary(unary);
+      }
+    }.transform(statement);
+    return straight[0];
+  }
+
+  /**
+   * Returns a string that is the same for expressions that compute the same value, or null if the statement is not an
+   * expression without side effects, or too long to be worth keeping.
+   */
+  @Nullable
+  static String key(Statement statement) {
+    StringBuilder key = new StringBuilder();
+    return appendKey(statement, key) && key.length() <= MAX_KEY_LENGTH ? key.toString() : null;
+  }
+
+  private static boolean appendKey(Statement statement, StringBuilder key) {
+    if (key.length() > MAX_KEY_LENGTH) {
+      return false;
+    }
+    if (statement instanceof VariableStatement variable) {
+      key.append(variable.value());
+    } else if (statement instanceof NumberStatement number) {
+      key.append('#').append(number.value());
+    } else if (statement instanceof StringStatement string) {
+      key.append('"').append(string.value().replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+    } else if (statement instanceof BooleanStatement bool) {
+      key.append('#').append(bool.value());
+    } else if (statement instanceof BinaryExpression binary) {
+      // A chain like a + b + c + ... nests as deep as it is long, its left operands are walked down in a loop.
+      List<BinaryExpression> chain = new ArrayList<>();
+      Statement left = binary;
+      while (left instanceof BinaryExpression inner) {
+        if (key.length() > MAX_KEY_LENGTH) {
+          return false;
+        }
+        key.append('(').append(inner.operator()).append(' ');
+        chain.add(inner);
+        left = inner.left();
+      }
+      if (!appendKey(left, key)) {
+        return false;
+      }
+      for (int i = chain.size() - 1; i >= 0; i--) {
+        key.append(' ');
+        if (!appendKey(chain.get(i).right(), key)) {
+          return false;
+        }
+        key.append(')');
+      }
+    } else if (statement instanceof UnaryExpression unary
+      && (unary.operator() == TokenType.LOGICAL_NOT || unary.operator() == TokenType.BIT_NOT)) {
+      key.append('(').append(unary.operator()).append(' ');
+      if (!appendKey(unary.value(), key)) {
+        return false;
+      }
+      key.append(')');
+    } else if (statement instanceof ArrayAccessStatement arrayAccess) {
+      key.append("([ ");
+      if (!appendKey(arrayAccess.parent(), key)) {
+        return false;
+      }
+      key.append(' ');
+      if (!appendKey(arrayAccess.index(), key)) {
+        return false;
+      }
+      key.append(')');
+    } else if (statement instanceof UncheckedArrayAccessStatement arrayAccess) {
+      key.append("([ ").append(arrayAccess.array()).append(' ').append(arrayAccess.index()).append(')');
+    } else if (statement instanceof PropertyAccessStatement propertyAccess) {
+      key.append("(. ");
+      if (!appendKey(propertyAccess.parent(), key)) {
+        return false;
+      }
+      key.append(' ').append(propertyAccess.property()).append(')');
+    } else if (statement instanceof TernaryExpression ternary) {
+      key.append("(? ");
+      if (!appendKey(ternary.condition(), key)) {
+        return false;
+      }
+      key.append(' ');
+      if (!appendKey(ternary.trueValue(), key)) {
+        return false;
+      }
+      key.append(' ');
+      if (!appendKey(ternary.falseValue(), key)) {
+        return false;
+      }
+      key.append(')');
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  // Expressions worth keeping in a variable: more than a variable, literal, or a single instruction.
+  private static boolean isCandidate(Statement statement) {
+    return !(statement instanceof VariableStatement || statement instanceof NumberStatement
+      || statement instanceof StringStatement || statement instanceof BooleanStatement
+      || statement instanceof UncheckedArrayAccessStatement) && key(statement) != null;
+  }
+
+  private static int size(Statement statement) {
+    int[] size = {0};
+    new StatementTransformer() {
+      @Override
+      public Statement transform(@Nullable Statement statement) {
+        if (statement != null) {
+          size[0]++;
+        }
+        return super.transform(statement);
+      }
+    }.transform(statement);
+    return size[0];
+  }
+
+  /**
+   * The candidate expressions in a statement, with how often each of them is evaluated, and the variables it reads.
+   * Assignment targets are stored to rather than evaluated, and array literal elements are stored as they are, so a
+   * shared value could be seen through them.
+   */
+  private static final class Occurrences extends StatementTransformer {
+    final Map<String, Integer> counts = new HashMap<>();
+    final Map<String, Statement> unconditional = new HashMap<>();
+    final Set<String> variables = new HashSet<>();
+    boolean elements = false;
+    private int conditional = 0;
+
+    static Occurrences of(Statement statement) {
+      Occurrences occurrences = new Occurrences();
+      occurrences.transform(statement);
+      return occurrences;
+    }
+
+    @Override
+    public Statement transform(@Nullable Statement statement) {
+      if (statement != null && isCandidate(statement)) {
+        String key = key(statement);
+        counts.merge(key, 1, Integer::sum);
+        if (conditional == 0) {
+          unconditional.putIfAbsent(key, statement);
+        }
+      }
+      return super.transform(statement);
+    }
+
+    @Override
+    public Statement visitVariable(VariableStatement statement) {
+      variables.add(statement.value());
+      return statement;
+    }
+
+    @Override
+    public Statement visitArrayAccess(ArrayAccessStatement statement) {
+      elements = true;
+      return super.visitArrayAccess(statement);
+    }
+
+    @Override
+    public Statement visitUncheckedArrayAccess(UncheckedArrayAccessStatement statement) {
+      elements = true;
+      variables.add(statement.array());
+      variables.add(statement.index());
+      return statement;
+    }
+
+    @Override
+    public Statement visitPropertyAccess(PropertyAccessStatement statement) {
+      elements = true;
+      return super.visitPropertyAccess(statement);
+    }
+
+    @Override
+    public Statement visitArray(ArrayStatement statement) {
+      return statement;
+    }
+
+    @Override
+    public Statement visitAssignment(AssignmentStatement statement) {
+      if (statement.qualifiedName() instanceof ArrayAccessStatement arrayAccess) {
+        super.transform(arrayAccess.parent());
+        transform(arrayAccess.index());
+      } else if (statement.qualifiedName() instanceof PropertyAccessStatement propertyAccess) {
+        super.transform(propertyAccess.parent());
+      }
+      transform(statement.value());
+      return statement;
+    }
+
+    @Override
+    public Statement visitBinary(BinaryExpression expression) {
+      if (!expression.operator().equals("&&") && !expression.operator().equals("||")) {
+        return super.visitBinary(expression);
+      }
+      transform(expression.left());
+      conditional++;
+      transform(expression.right());
+      conditional--;
+      return expression;
+    }
+
+    @Override
+    public Statement visitTernary(TernaryExpression expression) {
+      transform(expression.condition());
+      conditional++;
+      transform(expression.trueValue());
+      transform(expression.falseValue());
+      conditional--;
+      return expression;
+    }
+  }
+
+  private static final class Replacer extends StatementTransformer {
+    private final Map<String, String> names;
+    int replaced = 0;
+
+    Replacer(Map<String, String> names) {
+      this.names = names;
+    }
+
+    @Override
+    protected boolean transformsChains() {
+      // A left operand that is replaced as a whole would have its own operands replaced and counted first.
+      return false;
+    }
+
+    @Override
+    public Statement transform(@Nullable Statement statement) {
+      if (statement != null && isCandidate(statement)) {
+        String name = names.get(key(statement));
+        if (name != null) {
+          replaced++;
+          return new VariableStatement(statement.position(), name);
+        }
+      }
+      return super.transform(statement);
+    }
+
+    @Override
+    public Statement visitArray(ArrayStatement statement) {
+      return statement;
+    }
+
+    @Override
+    public Statement visitAssignment(AssignmentStatement statement) {
+      // The target itself is stored to, only the expressions that locate it are evaluated.
+      Statement target = statement.qualifiedName();
+      if (target instanceof ArrayAccessStatement arrayAccess) {
+        Statement parent = super.transform(arrayAccess.parent());
+        Statement index = transform(arrayAccess.index());
+        if (parent != arrayAccess.parent() || index != arrayAccess.index()) {
+          target = new ArrayAccessStatement(arrayAccess.position(), parent, index);
+        }
+      } else if (target instanceof PropertyAccessStatement propertyAccess) {
+        Statement parent = super.transform(propertyAccess.parent());
+        if (parent != propertyAccess.parent()) {
+          target = new PropertyAccessStatement(propertyAccess.position(), parent, propertyAccess.property());
+        }
+      }
+      Statement value = transform(statement.value());
+      if (target == statement.qualifiedName() && value == statement.value()) {
+        return statement;
+      }
+      return new AssignmentStatement(statement.position(), target, value);
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.bytecode.ProgramFile;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Stores compiled files on disk, keyed by a hash of the source and of the compiler's own classes.
+ * Entries are written to a temporary file and moved into place, so several processes can share one directory.
+ * The last modified time of an entry is its last use, the least recently used entries are evicted first.
+ */
+// Entry layout, all values big-endian, strings as in ProgramFile:
+// int magic ("MSEM")
+// int import count, then for each import: string path, int line, int column
+// int export count, then for each export: string name, string type
+// int imported variable count, then for each: string name, string type
+// the program, see ProgramFile
+public class CompilationCache {
+  private static final String EXTENSION = ".msec";
+  private static final int MAGIC = 0x4D53454D;
+  // A hash of the compiler itself, null when it could not be read. Without it nothing is cached.
+  @Nullable
+  private static final String COMPILER_VERSION = compilerVersion();
+
+  private final Path directory;
+  private final long maxSize;
+
+  public CompilationCache(Path directory, long maxSize) {
+    this.directory = directory;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns the cache key for the given source, anything else that changes the compiled output goes in parts.
+   */
+  public static String key(byte[] source, String... parts) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    digest.update(String.valueOf(COMPILER_VERSION).getBytes());
+    for (String part : parts) {
+      digest.update((byte) 0);
+      digest.update(part.getBytes());
+    }
+    digest.update((byte) 0);
+    digest.update(source);
+
+    StringBuilder key = new StringBuilder();
+    for (byte b : digest.digest()) {
+      key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return key.toString();
+  }
+
+  // Hashes the jar the compiler runs from, or its class files when it runs from a directory. A version number would
+  // stay the same across local builds, and serve programs compiled by older code.
+  @Nullable
+  private static String compilerVersion() {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      Path location = Path.of(CompilationCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+      if (Files.isRegularFile(location)) {
+        digest.update(Files.readAllBytes(location));
+      } else {
+        List<Path> classes;
+        try (Stream<Path> files = Files.walk(location)) {
+          classes = files.filter(path -> path.toString().endsWith(".class")).sorted().toList();
+        }
+        for (Path path : classes) {
+          digest.update(location.relativize(path).toString().getBytes());
+          digest.update(Files.readAllBytes(path));
+        }
+      }
+      StringBuilder version = new StringBuilder(ProgramFile.VERSION + "/");
+      for (byte b : digest.digest()) {
+        version.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return version.toString();
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  @Nullable
+  public CompiledModule get(String key) {
+    if (COMPILER_VERSION == null) {
+      return null;
+    }
+    Path entry = directory.resolve(key + EXTENSION);
+    if (!Files.isRegularFile(entry)) {
+      return null;
+    }
+    try {
+      CompiledModule module = read(entry);
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+      return module;
+    } catch (IOException | RuntimeException e) {
+      // Either evicted by another process while reading, or not a valid program. Both are a miss.
+      try {
+        Files.deleteIfExists(entry);
+      } catch (IOException ignored) {
+      }
+      return null;
+    }
+  }
+
+  public void put(String key, CompiledModule module) throws IOException {
+    if (COMPILER_VERSION == null) {
+      return;
+    }
+    Files.createDirectories(directory);
+    Path temp = Files.createTempFile(directory, key + ".", ".tmp");
+    try {
+      write(module, temp);
+      try {
+        Files.move(temp, directory.resolve(key + EXTENSION), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, directory.resolve(key + EXTENSION), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    evict();
+  }
+
+  private static void write(CompiledModule module, Path path) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(module.imports().size());
+      for (CompiledModule.Import dependency : module.imports()) {
+        ProgramFile.writeString(out, dependency.path());
+        out.writeInt(dependency.line());
+        out.writeInt(dependency.column());
+      }
+      writeTypes(out, module.exports());
+      writeTypes(out, module.imported());
+      ProgramFile.write(module.program(), out);
+    }
+  }
+
+  private static void writeTypes(DataOutputStream out, Map<String, String> types) throws IOException {
+    out.writeInt(types.size());
+    for (Map.Entry<String, String> entry : types.entrySet()) {
+      ProgramFile.writeString(out, entry.getKey());
+      ProgramFile.writeString(out, entry.getValue());
+    }
+  }
+
+  private static CompiledModule read(Path path) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.remaining() < 4 || buffer.getInt() != MAGIC) {
+      throw new IOException("Not a compiled Moose module");
+    }
+    List<CompiledModule.Import> imports = new ArrayList<>();
+    for (int i = buffer.getInt(); i > 0; i--) {
+      imports.add(new CompiledModule.Import(ProgramFile.readString(buffer), buffer.getInt(), buffer.getInt()));
+    }
+    Map<String, String> exports = readTypes(buffer);
+    Map<String, String> imported = readTypes(buffer);
+    return new CompiledModule(imports, exports, imported, ProgramFile.read(buffer));
+  }
+
+  private static Map<String, String> readTypes(ByteBuffer buffer) {
+    Map<String, String> types = new LinkedHashMap<>();
+    for (int i = buffer.getInt(); i > 0; i--) {
+      types.put(ProgramFile.readString(buffer), ProgramFile.readString(buffer));
+    }
+    return types;
+  }
+
+  private void evict() throws IOException {
+    record Entry(Path path, long size, long lastUsed) {}
+
+    List<Entry> entries = new ArrayList<>();
+    long total = 0;
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path path : (Iterable<Path>) files::iterator) {
+        if (!path.getFileName().toString().endsWith(EXTENSION)) {
+          continue;
+        }
+        try {
+          long size = Files.size(path);
+          entries.add(new Entry(path, size, Files.getLastModifiedTime(path).toMillis()));
+          total += size;
+        } catch (NoSuchFileException ignored) {
+          // Evicted by another process.
+        }
+      }
+    }
+    if (total <= maxSize) {
+      return;
+    }
+
+    entries.sort(Comparator.comparingLong(Entry::lastUsed));
+    for (Entry entry : entries) {
+      if (total <= maxSize) {
+        break;
+      }
+      Files.deleteIfExists(entry.path());
+      total -= entry.size();
+    }
+  }
+}
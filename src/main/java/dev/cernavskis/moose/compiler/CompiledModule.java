@@ -0,0 +1,15 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.bytecode.Program;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A file of a program compiled on its own, with what is needed to link it without parsing it again: the files it
+ * imports, the variables it exports with their types, and the types of the imported variables it was compiled with.
+ */
+public record CompiledModule(List<Import> imports, Map<String, String> exports, Map<String, String> imported, Program program) {
+  // An import as it is written in the file, and where, for errors about it.
+  public record Import(String path, int line, int column) {}
+}
@@ -0,0 +1,96 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.compiler.optimizer.OptimizationLevel;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Settings for one compilation. Everything that changes the compiled program is part of {@link #cacheKey()}.
+ */
+public class CompilerOptions {
+  private OptimizationLevel level = OptimizationLevel.O2;
+  private final Set<String> disabledPasses = new TreeSet<>();
+  private boolean timePasses = false;
+  private boolean pipelineLexer = false;
+  private boolean flatTree = false;
+  private int unrollFactor = 1;
+  private int unrollBudget = 256;
+
+  public OptimizationLevel level() {
+    return level;
+  }
+
+  public CompilerOptions setLevel(OptimizationLevel level) {
+    this.level = level;
+    return this;
+  }
+
+  public boolean isDisabled(String pass) {
+    return disabledPasses.contains(pass);
+  }
+
+  public CompilerOptions disablePass(String pass) {
+    disabledPasses.add(pass);
+    return this;
+  }
+
+  public Set<String> disabledPasses() {
+    return disabledPasses;
+  }
+
+  public boolean timePasses() {
+    return timePasses;
+  }
+
+  public CompilerOptions setTimePasses(boolean timePasses) {
+    this.timePasses = timePasses;
+    return this;
+  }
+
+  // Whether the lexer runs on a thread of its own while the parser reads its tokens. The tokens are the same either way.
+  public boolean pipelineLexer() {
+    return pipelineLexer;
+  }
+
+  public CompilerOptions setPipelineLexer(boolean pipelineLexer) {
+    this.pipelineLexer = pipelineLexer;
+    return this;
+  }
+
+  // Whether a program that needs no tree, see Passes.needsTree, is kept as a FlatTree between parsing and compiling.
+  // The program is the same either way.
+  public boolean flatTree() {
+    return flatTree;
+  }
+
+  public CompilerOptions setFlatTree(boolean flatTree) {
+    this.flatTree = flatTree;
+    return this;
+  }
+
+  // How many copies of a loop body one iteration of a partially unrolled loop runs at most. Moving the counter between
+  // the copies costs as much as the fused loop instruction it saves, so loops are only unrolled fully by default.
+  public int unrollFactor() {
+    return unrollFactor;
+  }
+
+  public CompilerOptions setUnrollFactor(int unrollFactor) {
+    this.unrollFactor = unrollFactor;
+    return this;
+  }
+
+  // How many statements unrolling may add to the program.
+  public int unrollBudget() {
+    return unrollBudget;
+  }
+
+  public CompilerOptions setUnrollBudget(int unrollBudget) {
+    this.unrollBudget = unrollBudget;
+    return this;
+  }
+
+  public String cacheKey() {
+    return level + " " + String.join(",", disabledPasses) + " " + unrollFactor + " " + unrollBudget;
+  }
+}
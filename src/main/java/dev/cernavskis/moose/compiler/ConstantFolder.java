@@ -0,0 +1,253 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.interpreter.types.RuntimeBoolean;
+import dev.cernavskis.moose.interpreter.types.RuntimeFloat;
+import dev.cernavskis.moose.interpreter.types.RuntimeInteger;
+import dev.cernavskis.moose.interpreter.types.RuntimeString;
+import dev.cernavskis.moose.interpreter.types.RuntimeType;
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementTransformer;
+import dev.cernavskis.moose.parser.statement.*;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates expressions on literals at compile time and replaces uses of constants with their value.
+ * Operations are performed with the runtime types themselves, so the results (integer overflow, float formatting,
+ * string concatenation) are exactly what the interpreter would produce. Anything that throws, like an integer division
+ * by zero, is left for the interpreter to report.
+ */
+public class ConstantFolder extends StatementTransformer {
+  // Names visible in each scope, mapped to their literal value, or to null if the name is not a usable constant.
+  private final Deque<Map<String, Statement>> scopes = new ArrayDeque<>();
+  private final Set<String> assigned;
+  private final boolean propagate;
+
+  private ConstantFolder(Set<String> assigned, boolean propagate) {
+    this.assigned = assigned;
+    this.propagate = propagate;
+  }
+
+  public static Statement fold(Statement statement) {
+    Set<String> assigned = new HashSet<>();
+    boolean[] hasAsm = {false};
+    new StatementTransformer() {
+      @Override
+      public Statement visitAssignment(AssignmentStatement assignment) {
+        Statement target = assignment.qualifiedName();
+        while (!(target instanceof VariableStatement)) {
+          if (target instanceof ArrayAccessStatement arrayAccess) {
+            target = arrayAccess.parent();
+          } else if (target instanceof PropertyAccessStatement propertyAccess) {
+            target = propertyAccess.parent();
+          } else {
+            break;
+          }
+        }
+        if (target instanceof VariableStatement variable) {
+          assigned.add(variable.value());
+        }
+        return super.visitAssignment(assignment);
+      }
+
+      @Override
+      public Statement visitLiterallyDontCare(LiterallyDontCareStatement asm) {
+        hasAsm[0] = true;
+        return asm;
+      }
+    }.transform(statement);
+
+    // Inline bytecode can modify any variable, so constants are only propagated without it.
+    ConstantFolder folder = new ConstantFolder(assigned, !hasAsm[0]);
+    folder.scopes.push(new HashMap<>());
+    return folder.transform(statement);
+  }
+
+  /**
+   * Returns the value of a number literal, either an Integer or a Float.
+   */
+  public static Object numberValue(NumberStatement number) {
+    String value = number.value();
+    if (value.contains(".")) {
+      return Float.parseFloat(value);
+    }
+    int radix = 10;
+    if (value.startsWith("0x")) {
+      radix = 16;
+      value = value.substring(2);
+    } else if (value.startsWith("0b")) {
+      radix = 2;
+      value = value.substring(2);
+    }
+    return Integer.parseInt(value, radix);
+  }
+
+  /**
+   * Returns the runtime value of a literal, or null if the statement is not one.
+   */
+  @Nullable
+  public static RuntimeType<?> valueOf(Statement statement) {
+    if (statement instanceof NumberStatement number) {
+      Object value = numberValue(number);
+      return value instanceof Float ? new RuntimeFloat((Float) value) : new RuntimeInteger((Integer) value);
+    } else if (statement instanceof StringStatement string) {
+      return new RuntimeString(string.value());
+    } else if (statement instanceof BooleanStatement bool) {
+      return new RuntimeBoolean(bool.value());
+    }
+    return null;
+  }
+
+  /**
+   * Returns a literal with the given value, or null if the value cannot be written as one.
+   */
+  @Nullable
+  public static Statement literalOf(RuntimeType<?> value, long position) {
+    if (value instanceof RuntimeInteger integer) {
+      return new NumberStatement(position, String.valueOf(integer.getValue()));
+    } else if (value instanceof RuntimeFloat number && Float.isFinite(number.getValue())) {
+      return new NumberStatement(position, String.valueOf(number.getValue()));
+    } else if (value instanceof RuntimeString string) {
+      return new StringStatement(position, string.getValue());
+    } else if (value instanceof RuntimeBoolean bool) {
+      return new BooleanStatement(position, bool.getValue());
+    }
+    return null;
+  }
+
+  @Nullable
+  private Statement lookup(String name) {
+    for (Map<String, Statement> scope : scopes) {
+      if (scope.containsKey(name)) {
+        return scope.get(name);
+      }
+    }
+    return null;
+  }
+
+  private Statement scoped(Supplier<Statement> visit) {
+    scopes.push(new HashMap<>());
+    try {
+      return visit.get();
+    } finally {
+      scopes.pop();
+    }
+  }
+
+  @Override
+  public Statement visitBlock(BlockStatement block) {
+    return scoped(() -> super.visitBlock(block));
+  }
+
+  @Override
+  public Statement visitFor(ForStatement forStatement) {
+    return scoped(() -> super.visitFor(forStatement));
+  }
+
+  // Declarations directly in a branch or loop body are not cleared, but they only exist if the body ran.
+  @Override
+  public Statement visitIf(IfStatement ifStatement) {
+    return scoped(() -> super.visitIf(ifStatement));
+  }
+
+  @Override
+  public Statement visitWhile(WhileStatement whileStatement) {
+    return scoped(() -> super.visitWhile(whileStatement));
+  }
+
+  @Override
+  public Statement visitDoWhile(DoWhileStatement doWhileStatement) {
+    return scoped(() -> super.visitDoWhile(doWhileStatement));
+  }
+
+  @Override
+  public Statement visitLoop(LoopStatement loopStatement) {
+    return scoped(() -> super.visitLoop(loopStatement));
+  }
+
+  @Override
+  public Statement visitDeclaration(DeclarationStatement declaration) {
+    Statement result = super.visitDeclaration(declaration);
+    Statement value = ((DeclarationStatement) result).value();
+    Statement constant = null;
+    if (propagate && declaration.isConst() && !assigned.contains(declaration.name()) && value != null) {
+      RuntimeType<?> runtimeValue = valueOf(value);
+      // A mismatched type fails at runtime, so the variable is left alone to keep the error.
+      if (runtimeValue != null && runtimeValue.getTypeName().equals(declaration.type())) {
+        constant = value;
+      }
+    }
+    scopes.peek().put(declaration.name(), constant);
+    return result;
+  }
+
+  @Override
+  public Statement visitVariable(VariableStatement variable) {
+    Statement constant = lookup(variable.value());
+    if (constant == null) {
+      return variable;
+    }
+    return literalOf(valueOf(constant), variable.position());
+  }
+
+  @Override
+  public Statement visitBinary(BinaryExpression expression) {
+    Statement result = super.visitBinary(expression);
+    if (!(result instanceof BinaryExpression binary)) {
+      return result;
+    }
+    RuntimeType<?> left = valueOf(binary.left());
+    RuntimeType<?> right = valueOf(binary.right());
+    if (left == null || right == null) {
+      return binary;
+    }
+    try {
+      Statement literal = literalOf(left.performBinaryOperation(binary.operator(), right), binary.position());
+      return literal == null ? binary : literal;
+    } catch (RuntimeException e) {
+      return binary;
+    }
+  }
+
+  @Override
+  public Statement visitUnary(UnaryExpression expression) {
+    Statement result = super.visitUnary(expression);
+    if (!(result instanceof UnaryExpression unary)) {
+      return result;
+    }
+    RuntimeType<?> value = valueOf(unary.value());
+    if (value == null) {
+      return unary;
+    }
+    String operator = switch (unary.operator()) {
+      case LOGICAL_NOT -> "!";
+      case BIT_NOT -> "~";
+      default -> null;
+    };
+    if (operator == null) {
+      return unary;
+    }
+    try {
+      Statement literal = literalOf(value.performUnaryOperation(operator), unary.position());
+      return literal == null ? unary : literal;
+    } catch (RuntimeException e) {
+      return unary;
+    }
+  }
+
+  @Override
+  public Statement visitTernary(TernaryExpression expression) {
+    Statement result = super.visitTernary(expression);
+    if (result instanceof TernaryExpression ternary && ternary.condition() instanceof BooleanStatement condition) {
+      return condition.value() ? ternary.trueValue() : ternary.falseValue();
+    }
+    return result;
+  }
+}
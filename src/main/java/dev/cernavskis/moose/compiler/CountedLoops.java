@@ -0,0 +1,166 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.interpreter.types.RuntimeInteger;
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementTransformer;
+import dev.cernavskis.moose.parser.statement.*;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns for loops that count an int variable towards a bound into {@link CountedForStatement}s, which compile to one
+ * compare-and-branch instruction before the loop and one increment-compare-and-branch instruction after every iteration.
+ * <p>
+ * A counted loop looks like {@code for (let i: int = A; i < B; i = i + C)}, with any comparison, a number or variable
+ * as the bound and a number as the step. The counter and the bound are still read on every iteration, so the body may
+ * change them.
+ * <p>
+ * When the counter starts at a number that is not negative, goes up by one and is compared with {@code <} against the
+ * length of an array, and the loop changes neither the array nor the counter, the counter is always a valid index.
+ * Reading that array at the counter is then compiled without the bounds check. Run it after
+ * {@link LoopInvariantMotion}, which moves the length out of the condition.
+ */
+public class CountedLoops extends StatementTransformer {
+  private static final Set<String> COMPARISONS = Set.of("<", "<=", ">", ">=", "==", "!=");
+
+  // Values of the declarations without a type, which only the optimizer creates and never assigns again.
+  private final Map<String, Statement> hoisted = new HashMap<>();
+  private final Set<String> escaped;
+
+  private CountedLoops(Set<String> escaped) {
+    this.escaped = escaped;
+  }
+
+  public static Statement recognize(Statement statement) {
+    Set<String> escaped = LoopInvariantMotion.escapedVariables(statement);
+    if (escaped == null) {
+      // Inline bytecode can replace the counter with a value of another type.
+      return statement;
+    }
+    return new CountedLoops(escaped).transform(statement);
+  }
+
+  @Override
+  public Statement visitDeclaration(DeclarationStatement declaration) {
+    Statement result = super.visitDeclaration(declaration);
+    if (declaration.type() == null) {
+      hoisted.put(declaration.name(), ((DeclarationStatement) result).value());
+    }
+    return result;
+  }
+
+  @Override
+  public Statement visitFor(ForStatement forStatement) {
+    Statement result = super.visitFor(forStatement);
+    if (!(result instanceof ForStatement loop)
+      || !(loop.initializer() instanceof DeclarationStatement counter)
+      || !"int".equals(counter.type()) || counter.value() == null
+      || !(loop.condition() instanceof BinaryExpression condition)
+      || !isVariable(condition.left(), counter.name())
+      || !COMPARISONS.contains(condition.operator())) {
+      return result;
+    }
+    Statement bound = condition.right();
+    if (!isInteger(bound) && !(bound instanceof VariableStatement variable && !variable.value().equals(counter.name()))) {
+      return result;
+    }
+    Integer step = step(loop.increment(), counter.name());
+    if (step == null) {
+      return result;
+    }
+
+    Statement body = loop.body();
+    String array = indexedArray(counter, condition, step, body);
+    if (array != null) {
+      body = new IndexRewriter(array, counter.name()).transform(body);
+    }
+    return new CountedForStatement(loop.position(), counter, condition.operator(), bound, step, body);
+  }
+
+  // The step of an increment like i = i + 1 or i = i - 2, or null if it is anything else.
+  @Nullable
+  private static Integer step(@Nullable Statement increment, String counter) {
+    if (!(increment instanceof AssignmentStatement assignment)
+      || !isVariable(assignment.qualifiedName(), counter)
+      || !(assignment.value() instanceof BinaryExpression value)
+      || !isVariable(value.left(), counter)
+      || !isInteger(value.right())) {
+      return null;
+    }
+    int amount = (Integer) ConstantFolder.numberValue((NumberStatement) value.right());
+    return switch (value.operator()) {
+      case "+" -> amount;
+      // Ints wrap around, so adding the negated amount is the same as subtracting it, even for the smallest int.
+      case "-" -> -amount;
+      default -> null;
+    };
+  }
+
+  // The array whose accesses at the counter are always in bounds, or null if there is none.
+  @Nullable
+  private String indexedArray(DeclarationStatement counter, BinaryExpression condition, int step, Statement body) {
+    if (!condition.operator().equals("<") || step != 1
+      || !(ConstantFolder.valueOf(counter.value()) instanceof RuntimeInteger start) || start.getValue() < 0
+      || !(condition.right() instanceof VariableStatement bound)
+      || !(hoisted.get(bound.value()) instanceof PropertyAccessStatement length)
+      || !length.property().equals("length")
+      || !(length.parent() instanceof VariableStatement array)) {
+      return null;
+    }
+    // The length was read before the loop, the array must keep it and the counter must only move by the step.
+    Set<String> modified = LoopInvariantMotion.modifiedIn(escaped, body);
+    if (modified.contains(array.value()) || modified.contains(counter.name()) || modified.contains(bound.value())) {
+      return null;
+    }
+    return array.value();
+  }
+
+  private static boolean isVariable(Statement statement, String name) {
+    return statement instanceof VariableStatement variable && variable.value().equals(name);
+  }
+
+  private static boolean isInteger(Statement statement) {
+    return statement instanceof NumberStatement number && ConstantFolder.numberValue(number) instanceof Integer;
+  }
+
+  private static final class IndexRewriter extends StatementTransformer {
+    private final String array;
+    private final String counter;
+
+    IndexRewriter(String array, String counter) {
+      this.array = array;
+      this.counter = counter;
+    }
+
+    @Override
+    public Statement visitArrayAccess(ArrayAccessStatement statement) {
+      if (isVariable(statement.parent(), array) && isVariable(statement.index(), counter)) {
+        return new UncheckedArrayAccessStatement(statement.position(), array, counter);
+      }
+      return super.visitArrayAccess(statement);
+    }
+
+    @Override
+    public Statement visitAssignment(AssignmentStatement statement) {
+      // The compiler needs the target itself to be an array access to store into the element.
+      Statement target = statement.qualifiedName();
+      if (target instanceof ArrayAccessStatement arrayAccess) {
+        Statement parent = transform(arrayAccess.parent());
+        Statement index = transform(arrayAccess.index());
+        if (parent != arrayAccess.parent() || index != arrayAccess.index()) {
+          target = new ArrayAccessStatement(arrayAccess.position(), parent, index);
+        }
+      } else {
+        target = transform(target);
+      }
+      Statement value = transform(statement.value());
+      if (target == statement.qualifiedName() && value == statement.value()) {
+        return statement;
+      }
+      return new AssignmentStatement(statement.position(), target, value);
+    }
+  }
+}
@@ -0,0 +1,317 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.interpreter.types.RuntimeType;
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementTransformer;
+import dev.cernavskis.moose.parser.statement.*;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes code that can never run or whose result is never used:
+ * statements after a break, continue or endless loop, branches of ifs and loops with a literal condition,
+ * and variables that are never read, together with the assignments to them.
+ * Values with side effects, or that could fail at runtime, are kept as expression statements.
+ * Run it after {@link ConstantFolder}, which turns constant conditions into literals.
+ */
+public class DeadCodeEliminator extends StatementTransformer {
+  private DeadCodeEliminator() {}
+
+  public static Statement eliminate(Statement statement) {
+    Statement result = new DeadCodeEliminator().transform(statement);
+    while (true) {
+      Usage usage = Usage.of(result);
+      if (usage.hasAsm) {
+        // Inline bytecode can read any variable.
+        return result;
+      }
+      Statement removed = new UnusedVariableRemover(usage).transform(result);
+      if (removed == result) {
+        return result;
+      }
+      result = removed;
+    }
+  }
+
+  /**
+   * Returns false if control never continues after the statement, because it always jumps away or never ends.
+   */
+  public static boolean completesNormally(@Nullable Statement statement) {
+    if (statement == null) {
+      return true;
+    } else if (statement instanceof BreakStatement || statement instanceof ContinueStatement) {
+      return false;
+    } else if (statement instanceof BlockStatement block) {
+      for (Statement child : block.statements()) {
+        if (!completesNormally(child)) {
+          return false;
+        }
+      }
+      return true;
+    } else if (statement instanceof IfStatement ifStatement) {
+      return ifStatement.elseBranch() == null || completesNormally(ifStatement.thenBranch()) || completesNormally(ifStatement.elseBranch());
+    } else if (statement instanceof LoopStatement loop) {
+      return breaks(loop.body());
+    } else if (statement instanceof WhileStatement whileStatement && isLiteral(whileStatement.condition(), true)) {
+      return breaks(whileStatement.body());
+    } else if (statement instanceof ForStatement forStatement && (forStatement.condition() == null || isLiteral(forStatement.condition(), true))) {
+      return breaks(forStatement.body());
+    }
+    return true;
+  }
+
+  // Whether the statement contains a break out of the loop it is the body of.
+  private static boolean breaks(@Nullable Statement statement) {
+    if (statement instanceof BreakStatement) {
+      return true;
+    } else if (statement instanceof BlockStatement block) {
+      for (Statement child : block.statements()) {
+        if (breaks(child)) {
+          return true;
+        }
+      }
+    } else if (statement instanceof IfStatement ifStatement) {
+      return breaks(ifStatement.thenBranch()) || breaks(ifStatement.elseBranch());
+    }
+    // A break inside a nested loop belongs to that loop.
+    return false;
+  }
+
+  private static boolean isLiteral(Statement statement, boolean value) {
+    return statement instanceof BooleanStatement bool && bool.value() == value;
+  }
+
+  @Override
+  public Statement visitBlock(BlockStatement block) {
+    List<Statement> statements = new ArrayList<>();
+    boolean changed = false;
+    for (Statement child : block.statements()) {
+      Statement transformed = transform(child);
+      changed |= transformed != child;
+      if (isEmpty(transformed)) {
+        changed = true;
+        continue;
+      }
+      statements.add(transformed);
+      if (!completesNormally(transformed)) {
+        // Everything after this is unreachable.
+        changed |= child != block.statements().get(block.statements().size() - 1);
+        break;
+      }
+    }
+    return changed ? new BlockStatement(block.position(), statements) : block;
+  }
+
+  @Override
+  public Statement visitIf(IfStatement ifStatement) {
+    Statement result = super.visitIf(ifStatement);
+    if (!(result instanceof IfStatement transformed) || !(transformed.condition() instanceof BooleanStatement condition)) {
+      return result;
+    }
+    Statement branch = condition.value() ? transformed.thenBranch() : transformed.elseBranch();
+    if (branch == null || branch instanceof BlockStatement) {
+      return branch == null ? empty(transformed) : branch;
+    }
+    if (branch instanceof DeclarationStatement) {
+      // Not cleared when it is the whole branch, unlike in a block.
+      return result;
+    }
+    // The block discards the value the branch may leave behind, like the if would.
+    return new BlockStatement(transformed.position(), List.of(branch));
+  }
+
+  @Override
+  public Statement visitWhile(WhileStatement whileStatement) {
+    Statement result = super.visitWhile(whileStatement);
+    if (result instanceof WhileStatement transformed && isLiteral(transformed.condition(), false)) {
+      return empty(transformed);
+    }
+    return result;
+  }
+
+  @Override
+  public Statement visitFor(ForStatement forStatement) {
+    Statement result = super.visitFor(forStatement);
+    if (result instanceof ForStatement transformed && transformed.condition() != null && isLiteral(transformed.condition(), false)) {
+      if (transformed.initializer() == null) {
+        return empty(transformed);
+      }
+      // The initializer still runs, the block clears it like the loop would.
+      return new BlockStatement(transformed.position(), List.of(transformed.initializer()));
+    }
+    return result;
+  }
+
+  private static Statement empty(Statement replaced) {
+    return new BlockStatement(replaced.position(), List.of());
+  }
+
+  private static boolean isEmpty(Statement statement) {
+    return statement instanceof BlockStatement block && block.statements().isEmpty();
+  }
+
+  // Statements in a block whose only effect is their value, which is discarded.
+  private static boolean isDiscardable(Statement statement) {
+    return ConstantFolder.valueOf(statement) != null || isEmpty(statement);
+  }
+
+  private static final class Usage {
+    final Set<String> read = new HashSet<>();
+    final Map<String, Integer> declarations = new HashMap<>();
+    final Map<String, String> types = new HashMap<>();
+    boolean hasAsm = false;
+
+    static Usage of(Statement statement) {
+      Usage usage = new Usage();
+      new StatementTransformer() {
+        @Override
+        public Statement visitDeclaration(DeclarationStatement declaration) {
+          usage.declarations.merge(declaration.name(), 1, Integer::sum);
+          usage.types.put(declaration.name(), declaration.type());
+          return super.visitDeclaration(declaration);
+        }
+
+        @Override
+        public Statement visitBlock(BlockStatement block) {
+          for (Statement child : block.statements()) {
+            store(child);
+          }
+          return block;
+        }
+
+        @Override
+        public Statement visitFor(ForStatement forStatement) {
+          if (forStatement.initializer() != null) {
+            store(forStatement.initializer());
+          }
+          transform(forStatement.condition());
+          transform(forStatement.body());
+          transform(forStatement.increment());
+          return forStatement;
+        }
+
+        // Storing into a plain variable as a statement of its own does not read it, those stores can be removed.
+        // Any other assignment reads its target through the default visit.
+        private void store(Statement statement) {
+          if (statement instanceof AssignmentStatement assignment && assignment.qualifiedName() instanceof VariableStatement) {
+            transform(assignment.value());
+          } else {
+            transform(statement);
+          }
+        }
+
+        // Files that import an exported variable read it, this pass only sees the file it is declared in.
+        @Override
+        public Statement visitExport(ExportStatement export) {
+          if (export.declaration() instanceof DeclarationStatement declaration) {
+            usage.read.add(declaration.name());
+          }
+          return super.visitExport(export);
+        }
+
+        @Override
+        public Statement visitVariable(VariableStatement variable) {
+          usage.read.add(variable.value());
+          return variable;
+        }
+
+        @Override
+        public Statement visitUncheckedArrayAccess(UncheckedArrayAccessStatement arrayAccess) {
+          usage.read.add(arrayAccess.array());
+          usage.read.add(arrayAccess.index());
+          return arrayAccess;
+        }
+
+        @Override
+        public Statement visitLiterallyDontCare(LiterallyDontCareStatement asm) {
+          usage.hasAsm = true;
+          return asm;
+        }
+      }.transform(statement);
+      return usage;
+    }
+
+    // Only variables declared once are removed, a second declaration could be a runtime error we would hide.
+    boolean isUnused(String name) {
+      return !read.contains(name) && declarations.getOrDefault(name, 0) == 1;
+    }
+  }
+
+  private static final class UnusedVariableRemover extends StatementTransformer {
+    private final Usage usage;
+
+    UnusedVariableRemover(Usage usage) {
+      this.usage = usage;
+    }
+
+    @Override
+    public Statement visitBlock(BlockStatement block) {
+      List<Statement> statements = new ArrayList<>();
+      boolean changed = false;
+      for (Statement child : block.statements()) {
+        Statement remaining = removeUnused(transform(child));
+        if (remaining == null || isDiscardable(remaining)) {
+          changed = true;
+          continue;
+        }
+        statements.add(remaining);
+        changed |= remaining != child;
+      }
+      return changed ? new BlockStatement(block.position(), statements) : block;
+    }
+
+    @Override
+    public Statement visitFor(ForStatement forStatement) {
+      Statement result = super.visitFor(forStatement);
+      if (result instanceof ForStatement transformed && transformed.initializer() != null) {
+        Statement initializer = removeUnused(transformed.initializer());
+        if (initializer != transformed.initializer()) {
+          return new ForStatement(transformed.position(), initializer, transformed.condition(), transformed.increment(), transformed.body());
+        }
+      }
+      return result;
+    }
+
+    // Returns what is left of a statement once stores to unused variables are dropped, null if nothing is.
+    @Nullable
+    private Statement removeUnused(Statement statement) {
+      if (statement instanceof DeclarationStatement declaration && usage.isUnused(declaration.name())) {
+        if (!isKnownType(declaration.type())) {
+          return statement;
+        }
+        return declaration.value() == null ? null : storedValue(declaration.value(), declaration.type(), statement);
+      } else if (statement instanceof AssignmentStatement assignment && assignment.qualifiedName() instanceof VariableStatement variable && usage.isUnused(variable.value())) {
+        return storedValue(assignment.value(), usage.types.get(variable.value()), statement);
+      }
+      return statement;
+    }
+
+    // A literal of the right type can be dropped, a mismatched one fails at runtime and anything else may have effects.
+    @Nullable
+    private static Statement storedValue(Statement value, String type, Statement store) {
+      RuntimeType<?> literal = ConstantFolder.valueOf(value);
+      if (literal == null) {
+        return value;
+      }
+      return type == null || literal.getTypeName().equals(type) ? null : store;
+    }
+
+    private static boolean isKnownType(@Nullable String type) {
+      if (type == null) {
+        return true;
+      }
+      try {
+        RuntimeType.getDefaultOf(type);
+        return true;
+      } catch (IllegalArgumentException e) {
+        return false;
+      }
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.statement.*;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a key that is equal for structurally equal expressions, regardless of where they are in the source.
+ */
+public final class ExpressionKey {
+  private ExpressionKey() {}
+
+  /**
+   * Returns the key of an expression made of literals, variables, operators, property and array accesses,
+   * or null if it contains anything else.
+   */
+  @Nullable
+  public static String of(Statement statement) {
+    StringBuilder key = new StringBuilder();
+    return append(key, statement) ? key.toString() : null;
+  }
+
+  private static boolean append(StringBuilder key, Statement statement) {
+    if (statement instanceof NumberStatement number) {
+      key.append(ConstantFolder.numberValue(number) instanceof Float ? "f" : "i").append(ConstantFolder.numberValue(number));
+    } else if (statement instanceof StringStatement string) {
+      key.append('s').append(string.value().length()).append(':').append(string.value());
+    } else if (statement instanceof BooleanStatement bool) {
+      key.append(bool.value());
+    } else if (statement instanceof VariableStatement variable) {
+      key.append('$').append(variable.value()).append(' ');
+    } else if (statement instanceof BinaryExpression binary) {
+      // A chain like a + b + c + ... nests as deep as it is long, its left operands are walked down in a loop.
+      List<BinaryExpression> chain = new ArrayList<>();
+      Statement left = binary;
+      while (left instanceof BinaryExpression inner) {
+        key.append('(').append(inner.operator()).append(' ');
+        chain.add(inner);
+        left = inner.left();
+      }
+      if (!append(key, left)) {
+        return false;
+      }
+      for (int i = chain.size() - 1; i >= 0; i--) {
+        key.append(' ');
+        if (!append(key, chain.get(i).right())) {
+          return false;
+        }
+        key.append(')');
+      }
+    } else if (statement instanceof UnaryExpression unary) {
+      key.append('(').append(unary.operator()).append(' ');
+      if (!append(key, unary.value())) {
+        return false;
+      }
+      key.append(')');
+    } else if (statement instanceof PropertyAccessStatement propertyAccess) {
+      if (!append(key, propertyAccess.parent())) {
+        return false;
+      }
+      key.append('.').append(propertyAccess.property()).append(' ');
+    } else if (statement instanceof ArrayAccessStatement arrayAccess) {
+      if (!append(key, arrayAccess.parent())) {
+        return false;
+      }
+      key.append('[');
+      if (!append(key, arrayAccess.index())) {
+        return false;
+      }
+      key.append(']');
+    } else {
+      return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,236 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.bytecode.Opcode;
+import dev.cernavskis.moose.compiler.optimizer.ControlFlowGraph;
+import dev.cernavskis.moose.compiler.optimizer.InstructionList;
+import dev.cernavskis.moose.lexer.Lexer;
+import dev.cernavskis.moose.lexer.Token;
+import dev.cernavskis.moose.parser.Parser;
+import dev.cernavskis.moose.parser.ParsingException;
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementTransformer;
+import dev.cernavskis.moose.parser.statement.*;
+import dev.cernavskis.moose.util.Nullable;
+import dev.cernavskis.moose.util.SourcePosition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles new versions of the same file, keeping the tokens, trees and code of its top-level statements in between,
+ * so only the statements that changed are parsed and compiled again.
+ * <p>
+ * The tokens of a new version are compared with the previous ones from both ends. Statements before the first
+ * difference are kept as they are, statements after the last one are kept with their debug lines moved by the number
+ * of lines added or removed, and only the tokens in between are parsed. A kept statement is compiled again when the
+ * declared type of a top-level variable it uses changed, since its type checks and instructions depend on it.
+ * <p>
+ * Every top-level statement is optimized and compiled on its own, so optimizations do not look across them: constants
+ * are not propagated from one to the next, and peephole patterns do not match over the boundary between two.
+ * Files with imports are not supported, they are compiled by {@link ModuleCompiler}.
+ */
+public class IncrementalCompiler {
+  private final String file;
+  private final CompilerOptions options;
+  private List<Token> tokens = List.of();
+  @Nullable
+  private List<Unit> units = null;
+  private int recompiled = 0;
+
+  public IncrementalCompiler(String file, CompilerOptions options) {
+    this.file = file;
+    this.options = options;
+  }
+
+  // A top-level statement, parsed from tokens start to end of the current version.
+  private static final class Unit {
+    int start;
+    int end;
+    Statement statement;
+    // The statement was parsed this many lines above where it is now.
+    int lineOffset = 0;
+    final Set<String> names = new HashSet<>();
+    boolean hasAsm = false;
+
+    // What the statement was last compiled with, code is null until it is compiled.
+    @Nullable
+    ControlFlowGraph code = null;
+    List<String> cleanup = List.of();
+    Map<String, String> outer = Map.of();
+    boolean specialized = false;
+
+    Unit(int start, int end, Statement statement) {
+      this.start = start;
+      this.end = end;
+      this.statement = statement;
+      new StatementTransformer() {
+        @Override
+        public Statement visitVariable(VariableStatement variable) {
+          names.add(variable.value());
+          return variable;
+        }
+
+        @Override
+        public Statement visitLiterallyDontCare(LiterallyDontCareStatement asm) {
+          hasAsm = true;
+          return asm;
+        }
+      }.transform(statement);
+    }
+  }
+
+  /**
+   * Number of top-level statements the last {@link #compile(String)} had to compile.
+   */
+  public int recompiled() {
+    return recompiled;
+  }
+
+  /**
+   * Number of top-level statements in the last version.
+   */
+  public int statements() {
+    return units == null ? 0 : units.size();
+  }
+
+  public InstructionList compile(String source) {
+    List<Token> next = new Lexer(source, file).getAllTokens();
+    units = units == null ? parse(next, 0, next.size() - 1) : reparse(next);
+    tokens = next;
+
+    recompiled = 0;
+    boolean specialize = Passes.specializes(options);
+    for (Unit unit : units) {
+      if (unit.statement instanceof ImportStatement importStatement) {
+        throw new CompilerException("Imports are not supported when watching a file", importStatement.debugInfo());
+      }
+      // Inline bytecode can replace a variable with one of any type, in any statement that runs after it.
+      specialize &= !unit.hasAsm;
+    }
+    Map<String, String> declared = new HashMap<>();
+    for (Unit unit : units) {
+      Map<String, String> outer = new HashMap<>();
+      for (String name : unit.names) {
+        String type = declared.get(name);
+        if (type != null) {
+          outer.put(name, type);
+        }
+      }
+      if (unit.code == null || unit.specialized != specialize || !unit.outer.equals(outer)) {
+        compile(unit, outer, specialize);
+        recompiled++;
+      }
+      Statement statement = unit.statement instanceof ExportStatement export ? export.declaration() : unit.statement;
+      if (statement instanceof DeclarationStatement declaration && declaration.type() != null) {
+        declared.put(declaration.name(), declaration.type());
+      }
+    }
+
+    InstructionList program = new InstructionList();
+    long position = tokens.get(0).position();
+    program.line(SourcePosition.line(position), SourcePosition.column(position), SourcePosition.fileName(position));
+    List<String> cleanup = new ArrayList<>();
+    int[] lastLabel = {0};
+    for (Unit unit : units) {
+      // Every statement numbers its labels from zero, they get the next free ones in the program.
+      Map<String, String> labels = new HashMap<>();
+      unit.code.replay(new Relocator(program, label -> labels.computeIfAbsent(label, l -> "$" + lastLabel[0]++), unit.lineOffset));
+      cleanup.addAll(unit.cleanup);
+    }
+    for (String name : cleanup) {
+      program.instruction(Opcode.CLEARV, name);
+    }
+    return program;
+  }
+
+  private void compile(Unit unit, Map<String, String> outer, boolean specialize) {
+    if (unit.lineOffset != 0) {
+      // Parsed again, so the errors and debug lines of the tree are where the statement is now.
+      Unit current = parse(tokens, unit.start, unit.end).get(0);
+      unit.statement = current.statement;
+      unit.lineOffset = 0;
+    }
+    unit.code = null;
+    TypeChecker.check(unit.statement, outer);
+    Statement optimized = Passes.tree(options).run(unit.statement, options);
+    ControlFlowGraph.Builder lowered = ControlFlowGraph.builder();
+    Bytecoder.Chunk chunk = Bytecoder.compileChunk(List.of(optimized), specialize ? TypeChecker.infer(optimized, outer) : Map.of(), lowered);
+    unit.code = Passes.code().run(lowered.build(), options);
+    unit.cleanup = chunk.cleanup();
+    unit.outer = outer;
+    unit.specialized = specialize;
+  }
+
+  // Parses the statements in tokens start to end, which have to end with a whole statement.
+  private static List<Unit> parse(List<Token> tokens, int start, int end) {
+    List<Token> range = new ArrayList<>(tokens.subList(start, end));
+    range.add(tokens.get(tokens.size() - 1));
+    Parser parser = new Parser(range);
+    List<Unit> units = new ArrayList<>();
+    int position = start;
+    Statement statement;
+    while ((statement = parser.nextStatement()) != null) {
+      int next = start + parser.position();
+      units.add(new Unit(position, next, statement));
+      position = next;
+    }
+    return units;
+  }
+
+  private List<Unit> reparse(List<Token> next) {
+    int limit = Math.min(tokens.size(), next.size()) - 1;
+    int prefix = 0;
+    while (prefix < limit && same(tokens.get(prefix), next.get(prefix), 0)) {
+      prefix++;
+    }
+    int lines = next.get(next.size() - 1).line() - tokens.get(tokens.size() - 1).line();
+    int suffix = 0;
+    while (suffix < limit - prefix && same(tokens.get(tokens.size() - 2 - suffix), next.get(next.size() - 2 - suffix), lines)) {
+      suffix++;
+    }
+
+    int shift = next.size() - tokens.size();
+    List<Unit> before = new ArrayList<>();
+    List<Unit> after = new ArrayList<>();
+    for (Unit unit : units) {
+      if (unit.end <= prefix) {
+        before.add(unit);
+      } else if (unit.start >= tokens.size() - 1 - suffix) {
+        after.add(unit);
+      }
+    }
+    if (!before.isEmpty()) {
+      // An if is only complete once it is known whether an else follows it.
+      before.remove(before.size() - 1);
+    }
+    int start = before.isEmpty() ? 0 : before.get(before.size() - 1).end;
+    int end = after.isEmpty() ? next.size() - 1 : after.get(0).start + shift;
+    List<Unit> changed;
+    try {
+      changed = parse(next, start, end);
+    } catch (ParsingException e) {
+      // The edit reaches into the statements after it, like an opened brace that is not closed yet.
+      after.clear();
+      changed = parse(next, start, next.size() - 1);
+    }
+    for (Unit unit : after) {
+      unit.start += shift;
+      unit.end += shift;
+      unit.lineOffset += lines;
+    }
+
+    List<Unit> result = new ArrayList<>(before);
+    result.addAll(changed);
+    result.addAll(after);
+    return result;
+  }
+
+  private static boolean same(Token previous, Token next, int lines) {
+    return previous.type() == next.type() && previous.value().equals(next.value())
+      && previous.line() + lines == next.line() && previous.column() == next.column();
+  }
+}
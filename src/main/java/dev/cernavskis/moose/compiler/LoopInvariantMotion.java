@@ -0,0 +1,581 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.lexer.TokenType;
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementTransformer;
+import dev.cernavskis.moose.parser.statement.*;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Moves expressions that give the same value on every iteration out of loops.
+ * The values are computed once into $inv variables declared right before the loop, the loop and its declarations are
+ * wrapped in a block so they are cleared when it ends.
+ * <p>
+ * An expression is invariant when it only reads variables that the loop does not assign or declare, and that are never
+ * aliased through an array element or a call argument. In the condition of a for or while loop, which always runs
+ * before anything else in the loop, any such expression is moved as long as the condition has no side effects.
+ * Anywhere else the loop may run zero times, so only expressions whose types show they cannot fail are moved.
+ */
+public class LoopInvariantMotion extends StatementTransformer {
+  // Declared types of the variables in each scope, null for variables without a declared type.
+  private final Deque<Map<String, String>> types = new ArrayDeque<>();
+  private final Set<String> escaped;
+  private int lastName = 0;
+
+  private LoopInvariantMotion(Set<String> escaped) {
+    this.escaped = escaped;
+  }
+
+  public static Statement hoist(Statement statement) {
+    Set<String> escaped = escapedVariables(statement);
+    if (escaped == null) {
+      // Inline bytecode can modify any variable.
+      return statement;
+    }
+
+    LoopInvariantMotion motion = new LoopInvariantMotion(escaped);
+    motion.types.push(new HashMap<>());
+    return motion.transform(statement);
+  }
+
+  /**
+   * Returns the variables that escape anywhere in the program, or null if it contains inline bytecode.
+   */
+  @Nullable
+  static Set<String> escapedVariables(Statement statement) {
+    Set<String> escaped = new HashSet<>();
+    boolean[] hasAsm = {false};
+    new StatementTransformer() {
+      @Override
+      public Statement visitFunctionCall(FunctionCallStatement call) {
+        for (Statement argument : call.arguments()) {
+          escape(argument, escaped);
+        }
+        return super.visitFunctionCall(call);
+      }
+
+      @Override
+      public Statement visitArray(ArrayStatement array) {
+        for (Statement element : array.elements()) {
+          escape(element, escaped);
+        }
+        return super.visitArray(array);
+      }
+
+      @Override
+      public Statement visitAssignment(AssignmentStatement assignment) {
+        if (assignment.qualifiedName() instanceof PropertyAccessStatement) {
+          escape(assignment.value(), escaped);
+        }
+        return super.visitAssignment(assignment);
+      }
+
+      @Override
+      public Statement visitLiterallyDontCare(LiterallyDontCareStatement asm) {
+        hasAsm[0] = true;
+        return asm;
+      }
+    }.transform(statement);
+    return hasAsm[0] ? null : escaped;
+  }
+
+  // Values that are stored as they are, rather than copied, can be modified later through whatever now holds them.
+  static void escape(Statement value, Set<String> escaped) {
+    if (value instanceof TernaryExpression ternary) {
+      escape(ternary.trueValue(), escaped);
+      escape(ternary.falseValue(), escaped);
+      return;
+    }
+    String root = rootName(value);
+    if (root != null) {
+      escaped.add(root);
+    }
+  }
+
+  @Nullable
+  static String rootName(Statement statement) {
+    while (true) {
+      if (statement instanceof VariableStatement variable) {
+        return variable.value();
+      } else if (statement instanceof ArrayAccessStatement arrayAccess) {
+        statement = arrayAccess.parent();
+      } else if (statement instanceof PropertyAccessStatement propertyAccess) {
+        statement = propertyAccess.parent();
+      } else {
+        return null;
+      }
+    }
+  }
+
+  private Statement scoped(Supplier<Statement> visit) {
+    types.push(new HashMap<>());
+    try {
+      return visit.get();
+    } finally {
+      types.pop();
+    }
+  }
+
+  @Override
+  public Statement visitBlock(BlockStatement block) {
+    return scoped(() -> super.visitBlock(block));
+  }
+
+  @Override
+  public Statement visitIf(IfStatement ifStatement) {
+    return scoped(() -> super.visitIf(ifStatement));
+  }
+
+  @Override
+  public Statement visitDeclaration(DeclarationStatement declaration) {
+    Statement result = super.visitDeclaration(declaration);
+    types.peek().put(declaration.name(), declaration.type());
+    return result;
+  }
+
+  // Loops are handled after their contents, so inner loops are already done and their hoisted
+  // values can move further out if they are invariant here too.
+  @Override
+  public Statement visitFor(ForStatement forStatement) {
+    return scoped(() -> {
+      Statement result = super.visitFor(forStatement);
+      if (!(result instanceof ForStatement loop)) {
+        return result;
+      }
+      Set<String> modified = modifiedIn(escaped, loop.condition(), loop.increment(), loop.body());
+      Hoister hoister = new Hoister(modified);
+      Statement condition = loop.condition() == null ? null : hoister.condition(loop.condition(), hasNoEffects(loop.condition()));
+      Statement body = hoister.transform(loop.body());
+      Statement increment = hoister.transform(loop.increment());
+      if (hoister.declarations.isEmpty()) {
+        return loop;
+      }
+      if (staysInLoop(loop.initializer(), hoister.declarations)) {
+        // Keeps the loop in the shape CountedLoops looks for.
+        return hoister.wrap(new ForStatement(loop.position(), loop.initializer(), condition, increment, body));
+      }
+      List<Statement> statements = new ArrayList<>();
+      if (loop.initializer() != null) {
+        statements.add(loop.initializer());
+      }
+      statements.addAll(hoister.declarations);
+      statements.add(new ForStatement(loop.position(), null, condition, increment, body));
+      return new BlockStatement(loop.position(), statements);
+    });
+  }
+
+  @Override
+  public Statement visitWhile(WhileStatement whileStatement) {
+    return scoped(() -> {
+      Statement result = super.visitWhile(whileStatement);
+      if (!(result instanceof WhileStatement loop)) {
+        return result;
+      }
+      Hoister hoister = new Hoister(modifiedIn(escaped, loop.condition(), loop.body()));
+      Statement condition = hoister.condition(loop.condition(), hasNoEffects(loop.condition()));
+      Statement body = hoister.transform(loop.body());
+      return hoister.wrap(new WhileStatement(loop.position(), condition, body));
+    });
+  }
+
+  @Override
+  public Statement visitDoWhile(DoWhileStatement doWhileStatement) {
+    return scoped(() -> {
+      Statement result = super.visitDoWhile(doWhileStatement);
+      if (!(result instanceof DoWhileStatement loop)) {
+        return result;
+      }
+      // The body runs first and may break before the condition is ever evaluated.
+      Hoister hoister = new Hoister(modifiedIn(escaped, loop.condition(), loop.body()));
+      Statement body = hoister.transform(loop.body());
+      Statement condition = hoister.condition(loop.condition(), false);
+      return hoister.wrap(new DoWhileStatement(loop.position(), condition, body));
+    });
+  }
+
+  @Override
+  public Statement visitLoop(LoopStatement loopStatement) {
+    return scoped(() -> {
+      Statement result = super.visitLoop(loopStatement);
+      if (!(result instanceof LoopStatement loop)) {
+        return result;
+      }
+      Hoister hoister = new Hoister(modifiedIn(escaped, loop.body()));
+      Statement body = hoister.transform(loop.body());
+      return hoister.wrap(new LoopStatement(loop.position(), body));
+    });
+  }
+
+  /**
+   * Returns the variables that the statements assign, declare, increment or decrement, together with the escaped ones,
+   * which anything could modify.
+   */
+  static Set<String> modifiedIn(Set<String> escaped, Statement... statements) {
+    Set<String> modified = new HashSet<>(escaped);
+    StatementTransformer scanner = new StatementTransformer() {
+      @Override
+      public Statement visitAssignment(AssignmentStatement assignment) {
+        String root = rootName(assignment.qualifiedName());
+        if (root != null) {
+          modified.add(root);
+        }
+        return super.visitAssignment(assignment);
+      }
+
+      @Override
+      public Statement visitDeclaration(DeclarationStatement declaration) {
+        modified.add(declaration.name());
+        return super.visitDeclaration(declaration);
+      }
+
+      @Override
+      public Statement visitUnary(UnaryExpression unary) {
+        String root = rootName(unary.value());
+        if (root != null && unary.operator() != TokenType.LOGICAL_NOT && unary.operator() != TokenType.BIT_NOT) {
+          modified.add(root);
+        }
+        return super.visitUnary(unary);
+      }
+    };
+    for (Statement statement : statements) {
+      scanner.transform(statement);
+    }
+    return modified;
+  }
+
+  // The hoisted values are computed before the initializer then, which is only fine if it cannot fail and they do not read it.
+  private boolean staysInLoop(@Nullable Statement initializer, List<Statement> declarations) {
+    if (!(initializer instanceof DeclarationStatement declaration) || declaration.value() == null
+      || declaration.type() == null || !declaration.type().equals(safeType(declaration.value()))) {
+      return false;
+    }
+    boolean[] reads = {false};
+    StatementTransformer scanner = new StatementTransformer() {
+      @Override
+      public Statement visitVariable(VariableStatement variable) {
+        reads[0] |= variable.value().equals(declaration.name());
+        return variable;
+      }
+    };
+    for (Statement hoisted : declarations) {
+      scanner.transform(hoisted);
+    }
+    return !reads[0];
+  }
+
+  private static boolean hasNoEffects(Statement statement) {
+    boolean[] effects = {false};
+    new StatementTransformer() {
+      @Override
+      public Statement visitFunctionCall(FunctionCallStatement call) {
+        effects[0] = true;
+        return call;
+      }
+
+      @Override
+      public Statement visitAssignment(AssignmentStatement assignment) {
+        effects[0] = true;
+        return assignment;
+      }
+    }.transform(statement);
+    return !effects[0];
+  }
+
+  @Nullable
+  private String declaredType(String name) {
+    for (Map<String, String> scope : types) {
+      if (scope.containsKey(name)) {
+        return scope.get(name);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the type of an expression that cannot fail at runtime, or null if it might or the type is unknown.
+   * Variables always hold their declared type, since setv refuses anything else.
+   */
+  @Nullable
+  private String safeType(Statement statement) {
+    if (statement instanceof NumberStatement number) {
+      return ConstantFolder.numberValue(number) instanceof Float ? "float" : "int";
+    } else if (statement instanceof StringStatement) {
+      return "string";
+    } else if (statement instanceof BooleanStatement) {
+      return "bool";
+    } else if (statement instanceof VariableStatement variable) {
+      return declaredType(variable.value());
+    } else if (statement instanceof PropertyAccessStatement propertyAccess) {
+      String parent = safeType(propertyAccess.parent());
+      return parent != null && parent.endsWith("[]") && propertyAccess.property().equals("length") ? "int" : null;
+    } else if (statement instanceof UnaryExpression unary) {
+      String value = safeType(unary.value());
+      if (unary.operator() == TokenType.LOGICAL_NOT && "bool".equals(value)) {
+        return "bool";
+      } else if (unary.operator() == TokenType.BIT_NOT && "int".equals(value)) {
+        return "int";
+      }
+      return null;
+    } else if (statement instanceof BinaryExpression binary) {
+      String left = safeType(binary.left());
+      String right = safeType(binary.right());
+      if (left == null || right == null) {
+        return null;
+      }
+      String operator = binary.operator();
+      if (left.equals("string")) {
+        return switch (operator) {
+          case "+" -> "string";
+          case "==" -> "bool";
+          default -> null;
+        };
+      }
+      if (!left.equals(right)) {
+        return null;
+      }
+      return switch (left) {
+        case "int" -> switch (operator) {
+          case "+", "-", "*", "**", "&", "|", "^", "<<", ">>" -> "int";
+          case "/", "%" -> binary.right() instanceof NumberStatement divisor && !ConstantFolder.numberValue(divisor).equals(0) ? "int" : null;
+          case "==", "!=", "<", ">", "<=", ">=" -> "bool";
+          default -> null;
+        };
+        case "float" -> switch (operator) {
+          case "+", "-", "*", "/", "%", "**" -> "float";
+          case "==", "!=", "<", ">", "<=", ">=" -> "bool";
+          default -> null;
+        };
+        case "bool" -> switch (operator) {
+          case "&&", "||", "==", "!=" -> "bool";
+          default -> null;
+        };
+        default -> null;
+      };
+    }
+    return null;
+  }
+
+  /**
+   * Replaces invariant expressions in one loop. Only operands are replaced, where the value is used by an operation or
+   * copied into a variable, since the hoisted value is shared between all iterations.
+   */
+  private final class Hoister extends StatementTransformer {
+    private final Set<String> modified;
+    private final Map<String, String> names = new HashMap<>();
+    private final List<Statement> declarations = new ArrayList<>();
+    private final Map<String, String> renamed = new HashMap<>();
+    // Whether the code being visited runs on every iteration before anything with side effects.
+    private boolean always = false;
+
+    Hoister(Set<String> modified) {
+      this.modified = modified;
+    }
+
+    @Override
+    protected boolean transformsChains() {
+      // An invariant left operand is hoisted as a whole, without transforming it.
+      return false;
+    }
+
+    Statement condition(Statement condition, boolean always) {
+      this.always = always;
+      try {
+        return operand(condition);
+      } finally {
+        this.always = false;
+      }
+    }
+
+    Statement wrap(Statement loop) {
+      if (declarations.isEmpty()) {
+        return loop;
+      }
+      List<Statement> statements = new ArrayList<>(declarations);
+      statements.add(loop);
+      return new BlockStatement(loop.position(), statements);
+    }
+
+    @Nullable
+    private Statement operand(@Nullable Statement statement) {
+      if (statement == null) {
+        return null;
+      }
+      if (isInvariant(statement) && (always || safeType(statement) != null)) {
+        String key = ExpressionKey.of(statement);
+        String name = names.get(key);
+        if (name == null) {
+          name = "$inv" + lastName++;
+          names.put(key, name);
+          declarations.add(new DeclarationStatement(name, statement, null, false, statement.position()));
+        }
+        return new VariableStatement(statement.position(), name);
+      }
+      return transform(statement);
+    }
+
+    @Nullable
+    private Statement conditional(@Nullable Statement statement, boolean consumed) {
+      boolean previous = always;
+      always = false;
+      try {
+        return consumed ? operand(statement) : transform(statement);
+      } finally {
+        always = previous;
+      }
+    }
+
+    private boolean isInvariant(Statement statement) {
+      if (!(statement instanceof BinaryExpression || statement instanceof UnaryExpression || statement instanceof PropertyAccessStatement)) {
+        // Nothing to gain from moving a literal or a single variable.
+        return false;
+      }
+      if (ExpressionKey.of(statement) == null) {
+        return false;
+      }
+      boolean[] invariant = {true};
+      new StatementTransformer() {
+        @Override
+        public Statement visitVariable(VariableStatement variable) {
+          invariant[0] &= !modified.contains(variable.value());
+          return variable;
+        }
+      }.transform(statement);
+      return invariant[0];
+    }
+
+    @Override
+    public Statement visitBinary(BinaryExpression expression) {
+      Statement left = operand(expression.left());
+      boolean shortCircuit = expression.operator().equals("&&") || expression.operator().equals("||");
+      Statement right = shortCircuit ? conditional(expression.right(), true) : operand(expression.right());
+      if (left == expression.left() && right == expression.right()) {
+        return expression;
+      }
+      return new BinaryExpression(expression.position(), left, expression.operator(), right);
+    }
+
+    @Override
+    public Statement visitUnary(UnaryExpression expression) {
+      Statement value = operand(expression.value());
+      if (value == expression.value()) {
+        return expression;
+      }
+      return new UnaryExpression(value, expression.operator(), expression.position());
+    }
+
+    @Override
+    public Statement visitPropertyAccess(PropertyAccessStatement statement) {
+      Statement parent = operand(statement.parent());
+      if (parent == statement.parent()) {
+        return statement;
+      }
+      return new PropertyAccessStatement(statement.position(), parent, statement.property());
+    }
+
+    @Override
+    public Statement visitArrayAccess(ArrayAccessStatement statement) {
+      Statement parent = operand(statement.parent());
+      Statement index = operand(statement.index());
+      if (parent == statement.parent() && index == statement.index()) {
+        return statement;
+      }
+      return new ArrayAccessStatement(statement.position(), parent, index);
+    }
+
+    @Override
+    public Statement visitTernary(TernaryExpression expression) {
+      Statement condition = operand(expression.condition());
+      Statement trueValue = conditional(expression.trueValue(), false);
+      Statement falseValue = conditional(expression.falseValue(), false);
+      if (condition == expression.condition() && trueValue == expression.trueValue() && falseValue == expression.falseValue()) {
+        return expression;
+      }
+      return new TernaryExpression(expression.position(), condition, trueValue, falseValue);
+    }
+
+    @Override
+    public Statement visitIf(IfStatement statement) {
+      Statement condition = operand(statement.condition());
+      Statement thenBranch = transform(statement.thenBranch());
+      Statement elseBranch = transform(statement.elseBranch());
+      if (condition == statement.condition() && thenBranch == statement.thenBranch() && elseBranch == statement.elseBranch()) {
+        return statement;
+      }
+      return new IfStatement(statement.position(), condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Statement visitWhile(WhileStatement statement) {
+      Statement condition = operand(statement.condition());
+      Statement body = transform(statement.body());
+      if (condition == statement.condition() && body == statement.body()) {
+        return statement;
+      }
+      return new WhileStatement(statement.position(), condition, body);
+    }
+
+    @Override
+    public Statement visitDoWhile(DoWhileStatement statement) {
+      Statement body = transform(statement.body());
+      Statement condition = operand(statement.condition());
+      if (condition == statement.condition() && body == statement.body()) {
+        return statement;
+      }
+      return new DoWhileStatement(statement.position(), condition, body);
+    }
+
+    @Override
+    public Statement visitFor(ForStatement statement) {
+      Statement initializer = transform(statement.initializer());
+      Statement condition = operand(statement.condition());
+      Statement body = transform(statement.body());
+      Statement increment = transform(statement.increment());
+      if (initializer == statement.initializer() && condition == statement.condition() && increment == statement.increment() && body == statement.body()) {
+        return statement;
+      }
+      return new ForStatement(statement.position(), initializer, condition, increment, body);
+    }
+
+    @Override
+    public Statement visitDeclaration(DeclarationStatement statement) {
+      Statement value = operand(statement.value());
+      if (statement.type() == null && value instanceof VariableStatement variable && names.containsValue(variable.value())) {
+        // A value hoisted from an inner loop that moves out of this one as well, use the outer variable directly.
+        renamed.put(statement.name(), variable.value());
+        return new BlockStatement(statement.position(), List.of());
+      }
+      if (value == statement.value()) {
+        return statement;
+      }
+      return new DeclarationStatement(statement.name(), value, statement.type(), statement.isConst(), statement.position());
+    }
+
+    @Override
+    public Statement visitVariable(VariableStatement statement) {
+      String name = renamed.get(statement.value());
+      return name == null ? statement : new VariableStatement(statement.position(), name);
+    }
+
+    @Override
+    public Statement visitAssignment(AssignmentStatement statement) {
+      Statement target = statement.qualifiedName();
+      // Stores into a variable or an array element copy the value, a property may keep it.
+      boolean copied = target instanceof VariableStatement || target instanceof ArrayAccessStatement;
+      Statement value = copied ? operand(statement.value()) : transform(statement.value());
+      if (value == statement.value()) {
+        return statement;
+      }
+      return new AssignmentStatement(statement.position(), target, value);
+    }
+  }
+}
@@ -0,0 +1,239 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.interpreter.types.RuntimeInteger;
+import dev.cernavskis.moose.lexer.TokenType;
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementTransformer;
+import dev.cernavskis.moose.parser.statement.*;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Unrolls counted loops whose number of iterations is known when compiling, because the counter starts at a number and
+ * the bound is a number or the length of an array literal that is never replaced.
+ * <p>
+ * Loops with at most {@link #FULL_UNROLL_LIMIT} iterations become a copy of the body for each iteration, with the
+ * counter replaced by its value and folded. Longer loops run a group of copies per iteration, with the counter moved
+ * by the step between them, so the condition is checked once per group. The number of copies has to divide the number
+ * of iterations and is at most the unroll factor.
+ * <p>
+ * Every copy adds the size of the body to the program, unrolling stops once that would go over the budget. Inner
+ * loops are unrolled first. The counter must not be modified or escape in the body. Run it after {@link CountedLoops}.
+ */
+public class LoopUnroller extends StatementTransformer {
+  public static final int FULL_UNROLL_LIMIT = 16;
+
+  private final Set<String> escaped;
+  private final Map<String, Integer> fixedLengths;
+  // Values of the declarations without a type that hold the length of an array with a fixed length.
+  private final Map<String, Integer> knownBounds = new HashMap<>();
+  private final int factor;
+  private int budget;
+
+  private LoopUnroller(Set<String> escaped, Map<String, Integer> fixedLengths, int factor, int budget) {
+    this.escaped = escaped;
+    this.fixedLengths = fixedLengths;
+    this.factor = factor;
+    this.budget = budget;
+  }
+
+  public static Statement unroll(Statement statement, int factor, int budget) {
+    Set<String> escaped = LoopInvariantMotion.escapedVariables(statement);
+    if (escaped == null) {
+      // Inline bytecode can replace the counter.
+      return statement;
+    }
+    return new LoopUnroller(escaped, fixedLengths(statement, escaped), factor, budget).transform(statement);
+  }
+
+  // Arrays declared once with a literal and never replaced, mapped to their length. Arrays cannot change their length
+  // any other way.
+  private static Map<String, Integer> fixedLengths(Statement statement, Set<String> escaped) {
+    Map<String, Integer> lengths = new HashMap<>();
+    Set<String> unstable = new HashSet<>(escaped);
+    new StatementTransformer() {
+      @Override
+      public Statement visitDeclaration(DeclarationStatement declaration) {
+        if (lengths.containsKey(declaration.name()) || !(declaration.value() instanceof ArrayStatement array)) {
+          unstable.add(declaration.name());
+        } else {
+          lengths.put(declaration.name(), array.elements().size());
+        }
+        return super.visitDeclaration(declaration);
+      }
+
+      @Override
+      public Statement visitAssignment(AssignmentStatement assignment) {
+        if (assignment.qualifiedName() instanceof VariableStatement variable) {
+          unstable.add(variable.value());
+        }
+        return super.visitAssignment(assignment);
+      }
+
+      @Override
+      public Statement visitUnary(UnaryExpression unary) {
+        if (unary.operator() != TokenType.LOGICAL_NOT && unary.operator() != TokenType.BIT_NOT) {
+          String root = LoopInvariantMotion.rootName(unary.value());
+          if (root != null) {
+            unstable.add(root);
+          }
+        }
+        return super.visitUnary(unary);
+      }
+    }.transform(statement);
+    lengths.keySet().removeAll(unstable);
+    return lengths;
+  }
+
+  @Override
+  public Statement visitDeclaration(DeclarationStatement declaration) {
+    if (declaration.type() == null
+      && declaration.value() instanceof PropertyAccessStatement length
+      && length.property().equals("length")
+      && length.parent() instanceof VariableStatement array
+      && fixedLengths.containsKey(array.value())) {
+      knownBounds.put(declaration.name(), fixedLengths.get(array.value()));
+    }
+    return super.visitDeclaration(declaration);
+  }
+
+  @Override
+  public Statement visitCountedFor(CountedForStatement countedFor) {
+    Statement result = super.visitCountedFor(countedFor);
+    if (!(result instanceof CountedForStatement loop)
+      || !(ConstantFolder.valueOf(loop.initializer().value()) instanceof RuntimeInteger start)) {
+      return result;
+    }
+    Integer bound = bound(loop.bound());
+    String counter = loop.initializer().name();
+    if (bound == null || LoopInvariantMotion.modifiedIn(escaped, loop.body()).contains(counter)) {
+      return result;
+    }
+    long trips = tripCount(start.getValue(), loop.comparison(), bound, loop.step());
+    if (trips < 0) {
+      return result;
+    }
+
+    long size = size(loop.body());
+    if (trips <= FULL_UNROLL_LIMIT && (trips - 1) * size <= budget) {
+      budget -= Math.max(trips - 1, 0) * size;
+      List<Statement> iterations = new ArrayList<>();
+      for (int i = 0; i < trips; i++) {
+        NumberStatement value = new NumberStatement(loop.position(), String.valueOf(start.getValue() + i * loop.step()));
+        iterations.add(ConstantFolder.fold(new CounterReplacer(counter, value).transform(loop.body())));
+      }
+      return new UnrolledLoopStatement(loop.position(), iterations, null, 0);
+    }
+
+    int copies = copies(trips, size);
+    if (copies < 2) {
+      return result;
+    }
+    budget -= (copies - 1) * size;
+    Statement body = new UnrolledLoopStatement(loop.position(), Collections.nCopies(copies, loop.body()), counter, loop.step());
+    return new CountedForStatement(loop.position(), loop.initializer(), loop.comparison(), loop.bound(), loop.step(), body);
+  }
+
+  @Nullable
+  private Integer bound(Statement bound) {
+    if (ConstantFolder.valueOf(bound) instanceof RuntimeInteger integer) {
+      return integer.getValue();
+    }
+    return bound instanceof VariableStatement variable ? knownBounds.get(variable.value()) : null;
+  }
+
+  // The largest number of copies up to the factor that divides the iterations and fits in the budget.
+  private int copies(long trips, long size) {
+    for (int copies = factor; copies >= 2; copies--) {
+      if (trips % copies == 0 && (copies - 1) * size <= budget) {
+        return copies;
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * Returns how many times a loop from start moving by step runs while the counter compares true with the bound, or -1
+   * if the counter would wrap around before the loop ends.
+   */
+  static long tripCount(int start, String comparison, int bound, int step) {
+    long first = start;
+    long last = bound;
+    switch (comparison) {
+      case "<=" -> {
+        comparison = "<";
+        last++;
+      }
+      case ">=" -> {
+        comparison = ">";
+        last--;
+      }
+    }
+    long trips;
+    if (comparison.equals("<") && step > 0) {
+      trips = first < last ? (last - first + step - 1) / step : 0;
+    } else if (comparison.equals(">") && step < 0) {
+      trips = first > last ? (first - last - step - 1) / -step : 0;
+    } else {
+      // Anything else either ends before it starts or counts until the counter wraps around.
+      return compares(start, comparison, last) ? -1 : 0;
+    }
+    long end = first + trips * step;
+    return end < Integer.MIN_VALUE || end > Integer.MAX_VALUE ? -1 : trips;
+  }
+
+  private static boolean compares(long value, String comparison, long bound) {
+    return switch (comparison) {
+      case "<" -> value < bound;
+      case ">" -> value > bound;
+      case "==" -> value == bound;
+      case "!=" -> value != bound;
+      default -> throw new IllegalArgumentException("Unknown comparison: " + comparison);
+    };
+  }
+
+  private static long size(Statement statement) {
+    long[] size = {0};
+    new StatementTransformer() {
+      @Override
+      public Statement transform(@Nullable Statement statement) {
+        if (statement != null) {
+          size[0]++;
+        }
+        return super.transform(statement);
+      }
+    }.transform(statement);
+    return size[0];
+  }
+
+  private static final class CounterReplacer extends StatementTransformer {
+    private final String counter;
+    private final NumberStatement value;
+
+    CounterReplacer(String counter, NumberStatement value) {
+      this.counter = counter;
+      this.value = value;
+    }
+
+    @Override
+    public Statement visitVariable(VariableStatement statement) {
+      return statement.value().equals(counter) ? value : statement;
+    }
+
+    @Override
+    public Statement visitUncheckedArrayAccess(UncheckedArrayAccessStatement statement) {
+      if (!statement.index().equals(counter)) {
+        return statement;
+      }
+      // The index is a literal now, which the bounds checked access handles just as well.
+      return new ArrayAccessStatement(statement.position(), new VariableStatement(statement.position(), statement.array()), value);
+    }
+  }
+}
@@ -0,0 +1,305 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.bytecode.Assembler;
+import dev.cernavskis.moose.bytecode.Linker;
+import dev.cernavskis.moose.bytecode.Program;
+import dev.cernavskis.moose.compiler.optimizer.ControlFlowGraph;
+import dev.cernavskis.moose.compiler.optimizer.PassManager;
+import dev.cernavskis.moose.lexer.Lexer;
+import dev.cernavskis.moose.lexer.TokenBuffer;
+import dev.cernavskis.moose.lexer.TokenPipeline;
+import dev.cernavskis.moose.parser.FlatTree;
+import dev.cernavskis.moose.parser.Parser;
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.statement.BlockStatement;
+import dev.cernavskis.moose.parser.statement.DeclarationStatement;
+import dev.cernavskis.moose.parser.statement.ExportStatement;
+import dev.cernavskis.moose.parser.statement.ImportStatement;
+import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.util.Nullable;
+import dev.cernavskis.moose.util.SourcePosition;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compiles a program made of files that import each other. A file imports another with import "path.mse";, relative
+ * to itself, and can then use the variables the other one declares with export. Every file is compiled on its own,
+ * and the compiled files are linked into one program that runs each of them once, after the files it imports.
+ * <p>
+ * Files that do not depend on each other are compiled at the same time, on the common fork-join pool. With a cache, a
+ * file whose source did not change is not lexed or parsed again: its entry says what it imports and exports, and its
+ * code is used as it is, unless the types of the variables it imports changed. Parsing follows the imports from one
+ * file to the next, since the imports of a file are only known once it is parsed.
+ * <p>
+ * A program that is a single file without imports compiles like it always did. In any other program, the variables a
+ * file declares for itself are renamed into a namespace of their own, see {@link ModuleNames}.
+ * <p>
+ * With {@link CompilerOptions#flatTree()}, a program that is a single file is kept as a {@link FlatTree} when nothing
+ * runs on its tree, and checked one top-level statement at a time while it is parsed.
+ */
+public class ModuleCompiler {
+  /**
+   * How compiling one file went. Files taken from the cache have none.
+   */
+  public record Report(String file, ControlFlowGraph code, long parseTime, long compileTime, long optimizeTime,
+                       int instructionsBefore, List<PassManager.Timing> timings) {}
+
+  public record Result(Program program, int files, List<Report> compiled) {}
+
+  private final CompilerOptions options;
+  @Nullable
+  private final CompilationCache cache;
+
+  public ModuleCompiler(CompilerOptions options, @Nullable CompilationCache cache) {
+    this.options = options;
+    this.cache = cache;
+  }
+
+  private static final class Module {
+    final String name;
+    final boolean main;
+    final byte[] source;
+    final String key;
+    @Nullable
+    CompiledModule cached = null;
+    // Parsed only when it has to be compiled.
+    @Nullable
+    BlockStatement statement = null;
+    // Kept instead of the statement when no tree is needed, see CompilerOptions.flatTree.
+    @Nullable
+    FlatTree flat = null;
+    // The first type error found while parsing into a flat tree, reported when the file is compiled.
+    @Nullable
+    CompilerException typeError = null;
+    long parseTime = 0;
+    List<CompiledModule.Import> imports = List.of();
+    Map<String, String> exports = Map.of();
+    final List<Module> dependencies = new ArrayList<>();
+    // Where each dependency is first imported.
+    final List<DebugInfo> importedAt = new ArrayList<>();
+    @Nullable
+    Report report = null;
+
+    Module(String name, boolean main, byte[] source, String key) {
+      this.name = name;
+      this.main = main;
+      this.source = source;
+      this.key = key;
+    }
+
+    // Only a program of more than one file needs namespaces.
+    boolean renames() {
+      return !main || !imports.isEmpty();
+    }
+  }
+
+  public Result compile(String file) throws IOException {
+    // Every file comes after the files it imports.
+    Map<String, Module> modules = new LinkedHashMap<>();
+    load(file, null, modules, new ArrayList<>());
+
+    Map<Module, CompletableFuture<CompiledModule>> units = new LinkedHashMap<>();
+    for (Module module : modules.values()) {
+      List<CompletableFuture<CompiledModule>> dependencies = new ArrayList<>();
+      for (Module dependency : module.dependencies) {
+        dependencies.add(units.get(dependency));
+      }
+      units.put(module, CompletableFuture.allOf(dependencies.toArray(CompletableFuture<?>[]::new))
+        .thenApplyAsync(ignored -> unit(module), ForkJoinPool.commonPool()));
+    }
+
+    List<Program> programs = new ArrayList<>();
+    List<Report> reports = new ArrayList<>();
+    for (Map.Entry<Module, CompletableFuture<CompiledModule>> entry : units.entrySet()) {
+      Module module = entry.getKey();
+      CompiledModule unit;
+      try {
+        unit = entry.getValue().join();
+      } catch (CompletionException e) {
+        // The first file with an error, in the order they run, reports it.
+        if (e.getCause() instanceof RuntimeException cause) {
+          throw cause;
+        }
+        throw e;
+      }
+      programs.add(unit.program());
+      if (module.report != null) {
+        reports.add(module.report);
+        if (cache != null) {
+          cache.put(module.key, unit);
+        }
+      }
+    }
+    return new Result(Linker.link(programs), modules.size(), reports);
+  }
+
+  // Reads the file and the ones it imports, from the cache or by parsing them.
+  private Module load(String name, @Nullable DebugInfo importedAt, Map<String, Module> modules, List<String> importing) throws IOException {
+    Module loaded = modules.get(name);
+    if (loaded != null) {
+      return loaded;
+    }
+    if (importing.contains(name)) {
+      throw new CompilerException("Import cycle: " + String.join(" -> ", importing.subList(importing.indexOf(name), importing.size())) + " -> " + name, importedAt);
+    }
+    byte[] source;
+    try {
+      source = Files.readAllBytes(Path.of(name));
+    } catch (IOException e) {
+      if (importedAt == null) {
+        throw e;
+      }
+      throw new CompilerException("Cannot read " + name, importedAt);
+    }
+    boolean main = importedAt == null;
+    // The file name ends up in the line table and in the names of its variables, so it is part of the key.
+    Module module = new Module(name, main, source, CompilationCache.key(source, name, options.cacheKey(), main ? "main" : "module"));
+    module.cached = cache == null ? null : cache.get(module.key);
+    if (module.cached != null) {
+      module.imports = module.cached.imports();
+      module.exports = module.cached.exports();
+    } else {
+      parse(module);
+    }
+
+    importing.add(name);
+    for (CompiledModule.Import dependencyImport : module.imports) {
+      String path = Path.of(name).resolveSibling(dependencyImport.path()).normalize().toString();
+      DebugInfo debugInfo = new DebugInfo(dependencyImport.line(), dependencyImport.column(), name);
+      Module dependency = load(path, debugInfo, modules, importing);
+      if (!module.dependencies.contains(dependency)) {
+        module.dependencies.add(dependency);
+        module.importedAt.add(debugInfo);
+      }
+    }
+    importing.remove(importing.size() - 1);
+    modules.put(name, module);
+    return module;
+  }
+
+  private void parse(Module module) {
+    long start = System.nanoTime();
+    Lexer lexer = new Lexer(new String(module.source, StandardCharsets.ISO_8859_1), module.name);
+    if (options.pipelineLexer()) {
+      try (TokenPipeline tokens = new TokenPipeline(lexer)) {
+        parse(module, new Parser(new TokenBuffer(tokens)));
+      }
+    } else {
+      parse(module, new Parser(new TokenBuffer(lexer)));
+    }
+    module.parseTime = System.nanoTime() - start;
+  }
+
+  private void parse(Module module, Parser parser) {
+    List<CompiledModule.Import> imports = new ArrayList<>();
+    Map<String, String> exports = new LinkedHashMap<>();
+    module.imports = imports;
+    module.exports = exports;
+    if (!options.flatTree() || !module.main || Passes.needsTree(options)) {
+      module.statement = parser.parse();
+      for (Statement child : module.statement.statements()) {
+        header(child, imports, exports);
+      }
+      return;
+    }
+
+    // Every statement is checked before it is added, so its records are not needed after that. The checks see the
+    // types of the variables declared before it, like they do when checking the whole file.
+    FlatTree.Builder builder = new FlatTree.Builder();
+    Map<String, String> declared = new HashMap<>();
+    long position = parser.parse(statement -> {
+      header(statement, imports, exports);
+      if (module.typeError == null) {
+        try {
+          TypeChecker.check(statement, declared);
+        } catch (CompilerException e) {
+          module.typeError = e;
+        }
+        Statement declaration = statement instanceof ExportStatement export ? export.declaration() : statement;
+        if (declaration instanceof DeclarationStatement variable && variable.type() != null) {
+          declared.put(variable.name(), variable.type());
+        }
+      }
+      builder.add(statement);
+    });
+    module.flat = builder.build(position);
+  }
+
+  // Adds what a top-level statement imports or exports.
+  private static void header(Statement statement, List<CompiledModule.Import> imports, Map<String, String> exports) {
+    if (statement instanceof ImportStatement importStatement) {
+      long position = importStatement.position();
+      imports.add(new CompiledModule.Import(importStatement.path(), SourcePosition.line(position), SourcePosition.column(position)));
+    } else if (statement instanceof ExportStatement export && export.declaration() instanceof DeclarationStatement declaration) {
+      exports.put(declaration.name(), declaration.type());
+    }
+  }
+
+  // Compiles the file once the files it imports are compiled, or takes it from the cache.
+  private CompiledModule unit(Module module) {
+    Map<String, String> imported = new TreeMap<>();
+    for (int i = 0; i < module.dependencies.size(); i++) {
+      for (Map.Entry<String, String> export : module.dependencies.get(i).exports.entrySet()) {
+        if (imported.put(export.getKey(), export.getValue()) != null) {
+          throw new CompilerException(export.getKey() + " is exported by more than one import", module.importedAt.get(i));
+        }
+      }
+    }
+    if (module.cached != null && module.cached.imported().equals(imported)) {
+      return module.cached;
+    }
+    if (module.statement == null && module.flat == null) {
+      parse(module);
+    }
+
+    long start = System.nanoTime();
+    ControlFlowGraph.Builder lowered = ControlFlowGraph.builder();
+    List<PassManager.Timing> timings = new ArrayList<>();
+    if (module.flat != null && !module.renames()) {
+      // Inline bytecode can replace a variable with one of any type, files with it are not checked.
+      if (module.typeError != null && !module.flat.hasAsm()) {
+        throw module.typeError;
+      }
+      Bytecoder.compile(module.flat, lowered);
+    } else {
+      if (module.flat != null) {
+        // Its imports need the names of the file renamed, and checking with the types of the imported variables.
+        module.statement = (BlockStatement) module.flat.statement(module.flat.root());
+        module.flat = null;
+      }
+      // Type errors are reported on the tree as it was written, before optimizations can remove the code they are in.
+      TypeChecker.check(module.statement, imported);
+      Statement statement = module.renames() ? ModuleNames.rename(module.statement, module.name, imported.keySet()) : module.statement;
+      PassManager<Statement> treePasses = Passes.tree(options);
+      Statement optimized = treePasses.run(statement, options);
+      Bytecoder.compile(optimized, lowered, Passes.specializes(options) ? TypeChecker.infer(optimized, imported) : Map.of());
+      timings.addAll(treePasses.timings());
+    }
+    ControlFlowGraph code = lowered.build();
+    long compileTime = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    PassManager<ControlFlowGraph> codePasses = Passes.code();
+    int before = code.instructionCount();
+    code = codePasses.run(code, options);
+    long optimizeTime = System.nanoTime() - start;
+
+    Assembler assembler = new Assembler();
+    code.replay(assembler);
+    timings.addAll(codePasses.timings());
+    module.report = new Report(module.name, code, module.parseTime, compileTime, optimizeTime, before, timings);
+    return new CompiledModule(module.imports, module.exports, imported, assembler.build());
+  }
+}
@@ -0,0 +1,87 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementTransformer;
+import dev.cernavskis.moose.parser.statement.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Moves the variables a file declares for itself into a namespace of its own, by putting the name of the file in front
+ * of them. All files of a program share the variables at runtime, so without this a file could not declare a variable
+ * with the name another one exports. Exported variables keep their names, so do the ones a file only uses, like the
+ * ones it imports and print.
+ * Inline bytecode can use any variable by its name, files with it are left as they are.
+ */
+final class ModuleNames extends StatementTransformer {
+  private final String module;
+  private final Set<String> renamed;
+
+  private ModuleNames(String module, Set<String> renamed) {
+    this.module = module;
+    this.renamed = renamed;
+  }
+
+  /**
+   * Renames the variables declared in the file, which cannot have the name of an imported one, since it would be
+   * declared twice at runtime.
+   */
+  static Statement rename(Statement statement, String module, Set<String> imported) {
+    Set<String> declared = new HashSet<>();
+    Set<String> exported = new HashSet<>();
+    boolean[] hasAsm = {false};
+    new StatementTransformer() {
+      @Override
+      public Statement visitDeclaration(DeclarationStatement declaration) {
+        if (imported.contains(declaration.name())) {
+          throw new CompilerException(declaration.name() + " is already declared by an import", declaration.debugInfo());
+        }
+        declared.add(declaration.name());
+        return super.visitDeclaration(declaration);
+      }
+
+      @Override
+      public Statement visitExport(ExportStatement export) {
+        if (export.declaration() instanceof DeclarationStatement declaration) {
+          exported.add(declaration.name());
+        }
+        return super.visitExport(export);
+      }
+
+      @Override
+      public Statement visitLiterallyDontCare(LiterallyDontCareStatement asm) {
+        hasAsm[0] = true;
+        return asm;
+      }
+    }.transform(statement);
+    declared.removeAll(exported);
+    if (hasAsm[0] || declared.isEmpty()) {
+      return statement;
+    }
+    return new ModuleNames(module, declared).transform(statement);
+  }
+
+  private String name(String name) {
+    return renamed.contains(name) ? module + "::" + name : name;
+  }
+
+  @Override
+  public Statement visitDeclaration(DeclarationStatement declaration) {
+    Statement value = transform(declaration.value());
+    String name = name(declaration.name());
+    if (value == declaration.value() && name.equals(declaration.name())) {
+      return declaration;
+    }
+    return new DeclarationStatement(name, value, declaration.type(), declaration.isConst(), declaration.position());
+  }
+
+  @Override
+  public Statement visitVariable(VariableStatement variable) {
+    String name = name(variable.value());
+    if (name.equals(variable.value())) {
+      return variable;
+    }
+    return new VariableStatement(variable.position(), name);
+  }
+}
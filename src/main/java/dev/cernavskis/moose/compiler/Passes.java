@@ -0,0 +1,88 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.compiler.optimizer.ControlFlowGraph;
+import dev.cernavskis.moose.compiler.optimizer.OptimizationLevel;
+import dev.cernavskis.moose.compiler.optimizer.PassManager;
+import dev.cernavskis.moose.compiler.optimizer.PeepholeOptimizer;
+import dev.cernavskis.moose.parser.Statement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The optimization passes of the compiler, in the order they run.
+ * Passes on the tree run before {@link Bytecoder} lowers it into a {@link ControlFlowGraph}, passes on the code run on
+ * that graph, which the bytecode is then generated from.
+ */
+public final class Passes {
+  // Compiling with the types from TypeChecker, so type checks are skipped where the types are known.
+  public static final String SPECIALIZE = "specialize";
+  // Loop conditions with more instructions than this are not copied to the bottom of the loop.
+  private static final int ROTATE_LIMIT = 8;
+
+  private Passes() {}
+
+  public static boolean specializes(CompilerOptions options) {
+    return options.level().includes(OptimizationLevel.O1) && !options.isDisabled(SPECIALIZE);
+  }
+
+  /**
+   * Whether the program has to be compiled from a tree of records, because passes run on it or its types are used.
+   * Otherwise it can be compiled from a {@link dev.cernavskis.moose.parser.FlatTree}.
+   */
+  public static boolean needsTree(CompilerOptions options) {
+    return specializes(options) || tree(options).runsAny(options);
+  }
+
+  public static PassManager<Statement> tree(CompilerOptions options) {
+    PassManager<Statement> passes = new PassManager<>();
+    return passes
+      .register("constant-folding", OptimizationLevel.O1, ConstantFolder::fold)
+      .register("dead-code", OptimizationLevel.O1, DeadCodeEliminator::eliminate)
+      .register("loop-invariant-motion", OptimizationLevel.O2, LoopInvariantMotion::hoist)
+      .register("counted-loops", OptimizationLevel.O2, CountedLoops::recognize)
+      .register("loop-unrolling", OptimizationLevel.O2, statement -> LoopUnroller.unroll(statement, options.unrollFactor(), options.unrollBudget()))
+      .register("common-subexpressions", OptimizationLevel.O2, statement -> {
+        CommonSubexpressions.Result result = CommonSubexpressions.eliminate(statement);
+        passes.report(result.eliminated() + " expressions eliminated");
+        return result.statement();
+      });
+  }
+
+  public static PassManager<ControlFlowGraph> code() {
+    return new PassManager<ControlFlowGraph>()
+      .register("jump-threading", OptimizationLevel.O1, graph -> {
+        graph.threadJumps();
+        graph.removeUnreachable();
+        return graph;
+      })
+      .register("branch-layout", OptimizationLevel.O1, graph -> {
+        graph.invertBranches();
+        graph.rotateLoops(ROTATE_LIMIT);
+        graph.chainBlocks();
+        return graph;
+      })
+      .register("merge-blocks", OptimizationLevel.O1, graph -> {
+        graph.mergeBlocks();
+        return graph;
+      })
+      .register("peephole", OptimizationLevel.O1, graph -> {
+        PeepholeOptimizer.withDefaults().optimize(graph);
+        return graph;
+      });
+  }
+
+  public static boolean exists(String name) {
+    return name.equals(SPECIALIZE) || tree(new CompilerOptions()).has(name) || code().has(name);
+  }
+
+  /**
+   * The names of every pass that can be disabled, in the order they run.
+   */
+  public static List<String> names() {
+    List<String> names = new ArrayList<>(tree(new CompilerOptions()).names());
+    names.add(SPECIALIZE);
+    names.addAll(code().names());
+    return names;
+  }
+}
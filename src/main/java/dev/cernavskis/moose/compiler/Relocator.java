@@ -0,0 +1,45 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.bytecode.InstructionSink;
+import dev.cernavskis.moose.bytecode.Opcode;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * Passes code that was compiled on its own on to another sink, with its labels renamed and its debug lines moved, so
+ * separately compiled pieces can be put together into one program.
+ */
+final class Relocator implements InstructionSink {
+  private final InstructionSink out;
+  private final UnaryOperator<String> labels;
+  private final int lineOffset;
+
+  Relocator(InstructionSink out, UnaryOperator<String> labels, int lineOffset) {
+    this.out = out;
+    this.labels = labels;
+    this.lineOffset = lineOffset;
+  }
+
+  @Override
+  public void line(int line, int column, String file) {
+    out.line(line + lineOffset, column, file);
+  }
+
+  @Override
+  public void label(String name) {
+    out.label(labels.apply(name));
+  }
+
+  @Override
+  public void instruction(Opcode opcode, String... operands) {
+    Opcode.OperandKind[] kinds = opcode.operands();
+    String[] relocated = operands.clone();
+    // setb has two operands for its one constant, which is never a label.
+    for (int i = 0; i < kinds.length; i++) {
+      if (kinds[i] == Opcode.OperandKind.LABEL) {
+        relocated[i] = labels.apply(relocated[i]);
+      }
+    }
+    out.instruction(opcode, relocated);
+  }
+}
@@ -1,8 +0,0 @@
-package dev.cernavskis.moose.compiler;
-
-public record StatementBytecode(String code, boolean shouldClearBuffer) {
-  @Override
-  public String toString() {
-    return code;
-  }
-}
@@ -0,0 +1,432 @@
+package dev.cernavskis.moose.compiler;
+
+import dev.cernavskis.moose.interpreter.types.RuntimeArray;
+import dev.cernavskis.moose.interpreter.types.RuntimeBoolean;
+import dev.cernavskis.moose.interpreter.types.RuntimeFloat;
+import dev.cernavskis.moose.interpreter.types.RuntimeInteger;
+import dev.cernavskis.moose.interpreter.types.RuntimeString;
+import dev.cernavskis.moose.interpreter.types.RuntimeType;
+import dev.cernavskis.moose.lexer.TokenType;
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementTransformer;
+import dev.cernavskis.moose.parser.StatementVisitor;
+import dev.cernavskis.moose.parser.statement.*;
+import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.util.Nullable;
+import dev.cernavskis.moose.util.SourcePosition;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Works out the types of expressions from the declared types of variables and the types of literals.
+ * Types are the names the runtime uses, like int or string[], and null when the type is unknown, like the result of a
+ * call or a property. Operations on known types that can only fail are compile errors, anything unknown is left for
+ * the interpreter to check.
+ * <p>
+ * Operations are performed on sample values of the runtime types, so which ones are allowed and what they result in
+ * is exactly what the interpreter does.
+ */
+public class TypeChecker implements StatementVisitor<String> {
+  private final Deque<Map<String, String>> scopes = new ArrayDeque<>();
+  private final Map<Statement, String> types = new IdentityHashMap<>();
+  private final boolean report;
+
+  private TypeChecker(boolean report) {
+    this.report = report;
+    scopes.push(new HashMap<>());
+  }
+
+  /**
+   * Checks the program and throws a {@link CompilerException} for the first type error.
+   * Returns the known types of the expressions in it.
+   */
+  public static Map<Statement, String> check(Statement statement) {
+    return check(statement, Map.of());
+  }
+
+  /**
+   * Checks a statement that uses variables declared outside of it, with the given types.
+   */
+  public static Map<Statement, String> check(Statement statement, Map<String, String> outer) {
+    return run(statement, outer, true);
+  }
+
+  /**
+   * Returns the known types of the expressions in the program, without reporting errors.
+   */
+  public static Map<Statement, String> infer(Statement statement) {
+    return infer(statement, Map.of());
+  }
+
+  public static Map<Statement, String> infer(Statement statement, Map<String, String> outer) {
+    return run(statement, outer, false);
+  }
+
+  private static Map<Statement, String> run(Statement statement, Map<String, String> outer, boolean report) {
+    boolean[] hasAsm = {false};
+    new StatementTransformer() {
+      @Override
+      public Statement visitLiterallyDontCare(LiterallyDontCareStatement asm) {
+        hasAsm[0] = true;
+        return asm;
+      }
+    }.transform(statement);
+    if (hasAsm[0]) {
+      // Inline bytecode can replace a variable with one of any type.
+      return new IdentityHashMap<>();
+    }
+    TypeChecker checker = new TypeChecker(report);
+    checker.scopes.peek().putAll(outer);
+    checker.type(statement);
+    return checker.types;
+  }
+
+  @Nullable
+  private String type(@Nullable Statement statement) {
+    if (statement == null) {
+      return null;
+    }
+    String type = statement.accept(this);
+    if (type != null) {
+      types.put(statement, type);
+    }
+    return type;
+  }
+
+  private void error(String message, DebugInfo debugInfo) {
+    if (report) {
+      throw new CompilerException(message, debugInfo);
+    }
+  }
+
+  private void condition(@Nullable Statement condition) {
+    String type = type(condition);
+    if (type != null && !type.equals("bool")) {
+      error("Expected bool but got " + type, condition.debugInfo());
+    }
+  }
+
+  private void assign(@Nullable String target, @Nullable String value, long position) {
+    if (target != null && value != null && !target.equals(value)) {
+      error("Cannot assign " + value + " to " + target, SourcePosition.debugInfo(position));
+    }
+  }
+
+  @Nullable
+  private String lookup(String name) {
+    for (Map<String, String> scope : scopes) {
+      if (scope.containsKey(name)) {
+        return scope.get(name);
+      }
+    }
+    return null;
+  }
+
+  private String scoped(Supplier<String> visit) {
+    scopes.push(new HashMap<>());
+    try {
+      return visit.get();
+    } finally {
+      scopes.pop();
+    }
+  }
+
+  @Nullable
+  private static String elementType(@Nullable String type) {
+    return type != null && type.endsWith("[]") ? type.substring(0, type.length() - 2) : null;
+  }
+
+  // A value of the type that any operation allowed on the type succeeds on, or null if there is none.
+  @Nullable
+  private static RuntimeType<?> sample(String type) {
+    return switch (type) {
+      case "int" -> new RuntimeInteger(1);
+      case "float" -> new RuntimeFloat(1.0F);
+      case "string" -> new RuntimeString("");
+      case "bool" -> new RuntimeBoolean(true);
+      default -> type.endsWith("[]") ? new RuntimeArray<>(new ArrayList<>(), elementType(type)) : null;
+    };
+  }
+
+  @Override
+  public String visitArrayAccess(ArrayAccessStatement statement) {
+    String parent = type(statement.parent());
+    String index = type(statement.index());
+    if (parent != null && elementType(parent) == null) {
+      error("Cannot index " + parent, statement.debugInfo());
+    }
+    if (parent != null && index != null && !index.equals("int")) {
+      error("Cannot index array with " + index, statement.index().debugInfo());
+    }
+    return elementType(parent);
+  }
+
+  @Override
+  public String visitArray(ArrayStatement statement) {
+    String element = null;
+    boolean known = !statement.elements().isEmpty();
+    for (Statement value : statement.elements()) {
+      String type = type(value);
+      if (type == null) {
+        known = false;
+      } else if (element == null) {
+        element = type;
+      } else if (!element.equals(type)) {
+        error("Array elements must have the same type, got " + element + " and " + type, value.debugInfo());
+        known = false;
+      }
+    }
+    return known ? element + "[]" : null;
+  }
+
+  @Override
+  public String visitAssignment(AssignmentStatement statement) {
+    Statement target = statement.qualifiedName();
+    String value = type(statement.value());
+    if (target instanceof VariableStatement || target instanceof ArrayAccessStatement) {
+      assign(type(target), value, statement.position());
+    } else if (target instanceof PropertyAccessStatement propertyAccess) {
+      type(propertyAccess.parent());
+    } else {
+      type(target);
+    }
+    // The buffer still holds the value afterwards.
+    return value;
+  }
+
+  @Override
+  public String visitBinary(BinaryExpression expression) {
+    // A chain like a + b + c + ... nests as deep as it is long, so it is checked from its innermost left operand out.
+    List<BinaryExpression> chain = new ArrayList<>();
+    Statement operand = expression;
+    while (operand instanceof BinaryExpression binary) {
+      chain.add(binary);
+      operand = binary.left();
+    }
+    String left = type(operand);
+    for (int i = chain.size() - 1; i > 0; i--) {
+      left = binary(chain.get(i), left);
+      if (left != null) {
+        types.put(chain.get(i), left);
+      }
+    }
+    return binary(expression, left);
+  }
+
+  @Nullable
+  private String binary(BinaryExpression expression, @Nullable String left) {
+    String right = type(expression.right());
+    if (left == null || right == null) {
+      return null;
+    }
+    RuntimeType<?> leftValue = sample(left);
+    RuntimeType<?> rightValue = sample(right);
+    if (leftValue == null || rightValue == null) {
+      return null;
+    }
+    try {
+      return leftValue.performBinaryOperation(expression.operator(), rightValue).getTypeName();
+    } catch (IllegalArgumentException e) {
+      error(e.getMessage(), expression.debugInfo());
+      return null;
+    }
+  }
+
+  @Override
+  public String visitBlock(BlockStatement statement) {
+    return scoped(() -> {
+      for (Statement child : statement.statements()) {
+        type(child);
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public String visitBoolean(BooleanStatement statement) {
+    return "bool";
+  }
+
+  @Override
+  public String visitBreak(BreakStatement statement) {
+    return null;
+  }
+
+  @Override
+  public String visitContinue(ContinueStatement statement) {
+    return null;
+  }
+
+  @Override
+  public String visitCountedFor(CountedForStatement statement) {
+    return scoped(() -> {
+      type(statement.initializer());
+      type(statement.bound());
+      type(statement.body());
+      return null;
+    });
+  }
+
+  @Override
+  public String visitDeclaration(DeclarationStatement statement) {
+    String value = type(statement.value());
+    if (statement.type() == null) {
+      // Declarations without a type come from the optimizer and hold whatever the value is.
+      scopes.peek().put(statement.name(), value);
+      return null;
+    }
+    try {
+      RuntimeType.getDefaultOf(statement.type());
+    } catch (IllegalArgumentException e) {
+      error(e.getMessage(), statement.debugInfo());
+    }
+    assign(statement.type(), value, statement.position());
+    scopes.peek().put(statement.name(), statement.type());
+    return null;
+  }
+
+  @Override
+  public String visitDoWhile(DoWhileStatement statement) {
+    return scoped(() -> {
+      type(statement.body());
+      condition(statement.condition());
+      return null;
+    });
+  }
+
+  @Override
+  public String visitExport(ExportStatement statement) {
+    type(statement.declaration());
+    return null;
+  }
+
+  @Override
+  public String visitFor(ForStatement statement) {
+    return scoped(() -> {
+      type(statement.initializer());
+      condition(statement.condition());
+      type(statement.body());
+      type(statement.increment());
+      return null;
+    });
+  }
+
+  @Override
+  public String visitFunctionCall(FunctionCallStatement statement) {
+    for (Statement argument : statement.arguments()) {
+      type(argument);
+    }
+    String callable = type(statement.callable());
+    if (callable != null && !callable.equals("func")) {
+      error(callable + " is not callable", statement.debugInfo());
+    }
+    return null;
+  }
+
+  @Override
+  public String visitIf(IfStatement statement) {
+    return scoped(() -> {
+      condition(statement.condition());
+      type(statement.thenBranch());
+      type(statement.elseBranch());
+      return null;
+    });
+  }
+
+  @Override
+  public String visitImport(ImportStatement statement) {
+    // The variables it brings in are declared outside of the checked statement, with their types.
+    return null;
+  }
+
+  @Override
+  public String visitLiterallyDontCare(LiterallyDontCareStatement statement) {
+    return null;
+  }
+
+  @Override
+  public String visitLoop(LoopStatement statement) {
+    return scoped(() -> {
+      type(statement.body());
+      return null;
+    });
+  }
+
+  @Override
+  public String visitNumber(NumberStatement statement) {
+    return ConstantFolder.numberValue(statement) instanceof Float ? "float" : "int";
+  }
+
+  @Override
+  public String visitPropertyAccess(PropertyAccessStatement statement) {
+    // Properties are pointers, the interpreter looks through them.
+    type(statement.parent());
+    return null;
+  }
+
+  @Override
+  public String visitString(StringStatement statement) {
+    return "string";
+  }
+
+  @Override
+  public String visitTernary(TernaryExpression expression) {
+    condition(expression.condition());
+    String trueValue = type(expression.trueValue());
+    String falseValue = type(expression.falseValue());
+    return trueValue != null && trueValue.equals(falseValue) ? trueValue : null;
+  }
+
+  @Override
+  public String visitUnary(UnaryExpression expression) {
+    String value = type(expression.value());
+    String operator = expression.operator() == TokenType.LOGICAL_NOT ? "!" : expression.operator() == TokenType.BIT_NOT ? "~" : null;
+    if (value == null || operator == null) {
+      return null;
+    }
+    RuntimeType<?> sample = sample(value);
+    if (sample == null) {
+      return null;
+    }
+    try {
+      return sample.performUnaryOperation(operator).getTypeName();
+    } catch (IllegalArgumentException e) {
+      error(e.getMessage(), expression.debugInfo());
+      return null;
+    }
+  }
+
+  @Override
+  public String visitUncheckedArrayAccess(UncheckedArrayAccessStatement statement) {
+    return elementType(lookup(statement.array()));
+  }
+
+  @Override
+  public String visitUnrolledLoop(UnrolledLoopStatement statement) {
+    for (Statement iteration : statement.iterations()) {
+      scoped(() -> type(iteration));
+    }
+    return null;
+  }
+
+  @Override
+  public String visitVariable(VariableStatement statement) {
+    return lookup(statement.value());
+  }
+
+  @Override
+  public String visitWhile(WhileStatement statement) {
+    return scoped(() -> {
+      condition(statement.condition());
+      type(statement.body());
+      return null;
+    });
+  }
+}
@@ -0,0 +1,73 @@
+package dev.cernavskis.moose.compiler.optimizer;
+
+import dev.cernavskis.moose.bytecode.Opcode;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A run of instructions that is only entered at the top and only left at the bottom.
+ * Debug lines stay between the instructions they belong to, the label is kept apart.
+ */
+public final class BasicBlock {
+  @Nullable
+  private String label;
+  private final List<Instruction> entries = new ArrayList<>();
+  final List<BasicBlock> successors = new ArrayList<>();
+  final List<BasicBlock> predecessors = new ArrayList<>();
+
+  BasicBlock(@Nullable String label) {
+    this.label = label;
+  }
+
+  @Nullable
+  public String label() {
+    return label;
+  }
+
+  void setLabel(@Nullable String label) {
+    this.label = label;
+  }
+
+  /**
+   * Instructions and debug lines, in order. Passes may change this list and then relink the graph.
+   */
+  public List<Instruction> entries() {
+    return entries;
+  }
+
+  public List<BasicBlock> successors() {
+    return successors;
+  }
+
+  public List<BasicBlock> predecessors() {
+    return predecessors;
+  }
+
+  /**
+   * Returns the last instruction of the block, or null if it has none.
+   */
+  @Nullable
+  public Instruction last() {
+    for (int i = entries.size() - 1; i >= 0; i--) {
+      if (!entries.get(i).isLine()) {
+        return entries.get(i);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Whether control can continue into the next block once this one ends.
+   */
+  public boolean fallsThrough() {
+    Instruction last = last();
+    return last == null || !last.is(Opcode.JMP);
+  }
+
+  @Override
+  public String toString() {
+    return label == null ? "<block>" : label;
+  }
+}
@@ -0,0 +1,449 @@
+package dev.cernavskis.moose.compiler.optimizer;
+
+import dev.cernavskis.moose.bytecode.InstructionSink;
+import dev.cernavskis.moose.bytecode.Opcode;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The intermediate representation of a program between the tree and the bytecode: basic blocks of instructions,
+ * linked by jumps and fall-through. {@link dev.cernavskis.moose.compiler.Bytecoder} lowers the tree into a
+ * {@link Builder}, the code passes change the graph, and the bytecode is generated from it with {@link #replay}.
+ * Blocks start at labels and after instructions that may jump, and are kept in code order, so generating the code only
+ * has to write the blocks out one after another.
+ * <p>
+ * The instructions are those of the bytecode, with the variants for known types the compiler picked, like opi and
+ * setvu.
+ * This works on the stack machine code directly rather than on an SSA form: the buffer, registers and memory stack
+ * are implicit operands of every instruction, so there are no values to give names to.
+ */
+public final class ControlFlowGraph {
+  // Conditional jumps and the ones that jump in exactly the other case, with the same effect on the buffer.
+  private static final Map<Opcode, Opcode> INVERSES = Map.of(
+    Opcode.JMPZ, Opcode.JPNZ,
+    Opcode.JPNZ, Opcode.JMPZ,
+    Opcode.JMPF, Opcode.JMPT,
+    Opcode.JMPT, Opcode.JMPF,
+    Opcode.JCMPF, Opcode.JCMPT,
+    Opcode.JCMPT, Opcode.JCMPF
+  );
+
+  private final List<BasicBlock> blocks = new ArrayList<>();
+  private final Map<String, BasicBlock> labels = new HashMap<>();
+  private int lastLabel = 0;
+
+  private ControlFlowGraph() {}
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Splits instructions into blocks as they are generated, a label or a jump ends the current block.
+   */
+  public static final class Builder implements InstructionSink {
+    private final ControlFlowGraph graph = new ControlFlowGraph();
+    private BasicBlock current = new BasicBlock(null);
+
+    private Builder() {
+      graph.blocks.add(current);
+    }
+
+    @Override
+    public void line(int line, int column, String file) {
+      current.entries().add(Instruction.line(line, column, file));
+    }
+
+    @Override
+    public void label(String name) {
+      if (graph.blocks.size() > 1 && current.label() == null && current.entries().isEmpty()) {
+        // The block started after a jump, the label starts it instead.
+        current.setLabel(name);
+      } else {
+        current = new BasicBlock(name);
+        graph.blocks.add(current);
+      }
+    }
+
+    @Override
+    public void instruction(Opcode opcode, String... operands) {
+      Instruction instruction = Instruction.of(opcode, operands);
+      current.entries().add(instruction);
+      if (instruction.target() != null) {
+        current = new BasicBlock(null);
+        graph.blocks.add(current);
+      }
+    }
+
+    public ControlFlowGraph build() {
+      graph.link();
+      return graph;
+    }
+  }
+
+  public List<BasicBlock> blocks() {
+    return blocks;
+  }
+
+  @Nullable
+  public BasicBlock block(String label) {
+    return labels.get(label);
+  }
+
+  /**
+   * Recomputes the edges between blocks, passes call this after changing blocks or their instructions.
+   */
+  public void link() {
+    labels.clear();
+    for (BasicBlock block : blocks) {
+      block.successors.clear();
+      block.predecessors.clear();
+      if (block.label() != null) {
+        labels.put(block.label(), block);
+      }
+    }
+    for (int i = 0; i < blocks.size(); i++) {
+      BasicBlock block = blocks.get(i);
+      Instruction last = block.last();
+      if (last != null && last.target() != null) {
+        BasicBlock target = labels.get(last.target());
+        if (target == null) {
+          throw new IllegalStateException("Jump to unknown label: " + last.target());
+        }
+        connect(block, target);
+      }
+      if (block.fallsThrough() && i + 1 < blocks.size()) {
+        connect(block, blocks.get(i + 1));
+      }
+    }
+  }
+
+  private static void connect(BasicBlock from, BasicBlock to) {
+    if (!from.successors.contains(to)) {
+      from.successors.add(to);
+      to.predecessors.add(from);
+    }
+  }
+
+  /**
+   * Appends every block that nothing jumps to onto the block before it, and drops its label.
+   * Peephole patterns stop at labels, so this lets them see through the labels the compiler emitted but never used.
+   * Returns whether anything changed.
+   */
+  public boolean mergeBlocks() {
+    Set<String> targets = new HashSet<>();
+    for (BasicBlock block : blocks) {
+      for (Instruction entry : block.entries()) {
+        if (entry.target() != null) {
+          targets.add(entry.target());
+        }
+      }
+    }
+    boolean changed = false;
+    List<BasicBlock> merged = new ArrayList<>();
+    for (BasicBlock block : blocks) {
+      if (merged.isEmpty() || block.label() == null || targets.contains(block.label())) {
+        merged.add(block);
+        continue;
+      }
+      changed = true;
+      BasicBlock previous = merged.get(merged.size() - 1);
+      Instruction last = previous.last();
+      if (last != null && last.target() != null) {
+        // A block only ends in a jump, so this one stays separate and just loses the label.
+        block.setLabel(null);
+        merged.add(block);
+      } else {
+        previous.entries().addAll(block.entries());
+      }
+    }
+    if (!changed) {
+      return false;
+    }
+    blocks.clear();
+    blocks.addAll(merged);
+    link();
+    return true;
+  }
+
+  /**
+   * Points jumps that lead to a block with nothing but a jmp, or with nothing at all, to where that block goes.
+   * Returns whether anything changed.
+   */
+  public boolean threadJumps() {
+    boolean changed = false;
+    Map<BasicBlock, Integer> indices = indices();
+    for (BasicBlock block : blocks) {
+      Instruction last = block.last();
+      if (last == null || last.target() == null) {
+        continue;
+      }
+      String target = resolve(last.target(), indices);
+      if (!target.equals(last.target())) {
+        replaceLast(block, last.withTarget(target));
+        changed = true;
+      }
+    }
+    if (changed) {
+      link();
+    }
+    return changed;
+  }
+
+  // The label control actually ends up at after jumping to the given one.
+  private String resolve(String label, Map<BasicBlock, Integer> indices) {
+    Set<String> seen = new HashSet<>();
+    while (seen.add(label)) {
+      BasicBlock block = labels.get(label);
+      Instruction last = block.last();
+      if (last == null) {
+        int index = indices.get(block);
+        if (index + 1 == blocks.size() || blocks.get(index + 1).label() == null) {
+          return label;
+        }
+        label = blocks.get(index + 1).label();
+      } else if (last.is(Opcode.JMP) && instructionCount(block) == 1) {
+        label = last.target();
+      } else {
+        return label;
+      }
+    }
+    // The jumps go around in a circle, which never ends wherever it is entered.
+    return label;
+  }
+
+  /**
+   * Removes the blocks that cannot be reached from the start of the program.
+   * Returns whether anything changed.
+   */
+  public boolean removeUnreachable() {
+    Set<BasicBlock> reachable = new HashSet<>();
+    Deque<BasicBlock> pending = new ArrayDeque<>();
+    pending.push(blocks.get(0));
+    while (!pending.isEmpty()) {
+      BasicBlock block = pending.pop();
+      if (reachable.add(block)) {
+        block.successors().forEach(pending::push);
+      }
+    }
+    if (!blocks.removeIf(block -> !reachable.contains(block))) {
+      return false;
+    }
+    link();
+    return true;
+  }
+
+  /**
+   * Turns a conditional jump over a jmp into the opposite conditional jump to where the jmp goes, so the code that
+   * followed the jmp is reached by falling through. Returns whether anything changed.
+   */
+  public boolean invertBranches() {
+    boolean changed = false;
+    List<BasicBlock> result = new ArrayList<>(blocks.size());
+    for (int i = 0; i < blocks.size(); i++) {
+      BasicBlock block = blocks.get(i);
+      result.add(block);
+      if (i + 2 >= blocks.size()) {
+        continue;
+      }
+      BasicBlock over = blocks.get(i + 1);
+      Instruction branch = block.last();
+      Instruction jump = over.last();
+      if (branch == null || !INVERSES.containsKey(branch.opcode()) || !branch.target().equals(blocks.get(i + 2).label())
+        || jump == null || !jump.is(Opcode.JMP) || instructionCount(over) != 1 || over.predecessors().size() != 1) {
+        continue;
+      }
+      // Dropping the jmp block leaves the number of predecessors of every other block as it was, so the edges from
+      // before this pass still decide the ones after it.
+      replaceLast(block, invert(branch, jump.target()));
+      i++;
+      changed = true;
+    }
+    if (changed) {
+      blocks.clear();
+      blocks.addAll(result);
+      link();
+    }
+    return changed;
+  }
+
+  /**
+   * Rotates loops that check their condition at the top and jump back to it at the bottom: the jump back is replaced
+   * by a copy of the check that jumps to the start of the body, so an iteration takes one jump instead of two.
+   * Only conditions of at most the given number of instructions are copied. Returns whether anything changed.
+   */
+  public boolean rotateLoops(int limit) {
+    boolean changed = false;
+    // Blocks keep their places, only the instructions of the blocks with the jump back change.
+    Map<BasicBlock, Integer> indices = indices();
+    for (int i = 0; i + 1 < blocks.size(); i++) {
+      BasicBlock latch = blocks.get(i);
+      Instruction back = latch.last();
+      if (back == null || !back.is(Opcode.JMP)) {
+        continue;
+      }
+      BasicBlock header = labels.get(back.target());
+      int start = indices.get(header);
+      Instruction exit = header.last();
+      if (start >= i || exit == null || !INVERSES.containsKey(exit.opcode()) || instructionCount(header) > limit
+        || !exit.target().equals(blocks.get(i + 1).label())) {
+        continue;
+      }
+      BasicBlock body = blocks.get(start + 1);
+      if (body.label() == null) {
+        body.setLabel(newLabel());
+        labels.put(body.label(), body);
+      }
+      latch.entries().remove(latch.entries().lastIndexOf(back));
+      for (Instruction entry : header.entries()) {
+        latch.entries().add(entry == exit ? invert(exit, body.label()) : entry);
+      }
+      changed = true;
+    }
+    if (changed) {
+      link();
+    }
+    return changed;
+  }
+
+  /**
+   * Moves a block that is only reached by one jmp, together with the blocks it falls through to, right after that
+   * jmp, which is then dropped. Returns whether anything changed.
+   */
+  public boolean chainBlocks() {
+    ChainLayout layout = new ChainLayout();
+    for (int i = 0; i < blocks.size(); i++) {
+      layout.cursor = i;
+      if (!layout.placed.contains(blocks.get(i))) {
+        layout.place(i);
+      }
+    }
+    if (!layout.changed) {
+      return false;
+    }
+    blocks.clear();
+    blocks.addAll(layout.order);
+    link();
+    return true;
+  }
+
+  // Lays the blocks out again in one sweep. Moving a chain leaves the predecessors of every block as they were, since
+  // nothing falls through to its first block or from its last one, so the edges from before still decide every move.
+  private final class ChainLayout {
+    final Map<BasicBlock, Integer> indices = indices();
+    final Set<BasicBlock> placed = new HashSet<>();
+    final List<BasicBlock> order = new ArrayList<>(blocks.size());
+    // The block the sweep is at, and the first block after it not placed yet.
+    int cursor = 0;
+    int next = 0;
+    boolean changed = false;
+
+    // Places the block, and the chain it jumps to if that can move. Only the last block of a chain can end in a jmp,
+    // so the chains placed after it are followed from there.
+    void place(int index) {
+      while (true) {
+        BasicBlock block = blocks.get(index);
+        order.add(block);
+        placed.add(block);
+        Instruction jump = block.last();
+        if (jump == null || !jump.is(Opcode.JMP)) {
+          return;
+        }
+        BasicBlock target = labels.get(jump.target());
+        int start = indices.get(target);
+        if (placed.contains(target) || start == nextUnplaced() || target.predecessors().size() != 1) {
+          return;
+        }
+        // The moved blocks have to end in a jmp, or they would fall through to whatever follows them now.
+        int end = start;
+        while (end < blocks.size() && blocks.get(end).fallsThrough()) {
+          end++;
+        }
+        if (end == blocks.size()) {
+          return;
+        }
+        block.entries().remove(block.entries().lastIndexOf(jump));
+        changed = true;
+        for (int i = start; i < end; i++) {
+          order.add(blocks.get(i));
+          placed.add(blocks.get(i));
+        }
+        index = end;
+      }
+    }
+
+    // The block that would follow the ones placed so far if nothing else moved.
+    int nextUnplaced() {
+      next = Math.max(next, cursor + 1);
+      while (next < blocks.size() && placed.contains(blocks.get(next))) {
+        next++;
+      }
+      return next;
+    }
+  }
+
+  private Map<BasicBlock, Integer> indices() {
+    Map<BasicBlock, Integer> indices = new HashMap<>();
+    for (int i = 0; i < blocks.size(); i++) {
+      indices.put(blocks.get(i), i);
+    }
+    return indices;
+  }
+
+  private static Instruction invert(Instruction branch, String target) {
+    return new Instruction(Instruction.Kind.INSTRUCTION, INVERSES.get(branch.opcode()), branch.operands()).withTarget(target);
+  }
+
+  private static int instructionCount(BasicBlock block) {
+    int count = 0;
+    for (Instruction entry : block.entries()) {
+      if (!entry.isLine()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static void replaceLast(BasicBlock block, Instruction instruction) {
+    List<Instruction> entries = block.entries();
+    entries.set(entries.lastIndexOf(block.last()), instruction);
+  }
+
+  private String newLabel() {
+    String label;
+    do {
+      label = "$b" + lastLabel++;
+    } while (labels.containsKey(label));
+    return label;
+  }
+
+  public int instructionCount() {
+    int count = 0;
+    for (BasicBlock block : blocks) {
+      count += instructionCount(block);
+    }
+    return count;
+  }
+
+  /**
+   * Generates the code of the graph, the blocks one after another.
+   */
+  public void replay(InstructionSink sink) {
+    for (BasicBlock block : blocks) {
+      if (block.label() != null) {
+        sink.label(block.label());
+      }
+      for (Instruction entry : block.entries()) {
+        entry.replay(sink);
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package dev.cernavskis.moose.compiler.optimizer;
+
+import dev.cernavskis.moose.bytecode.InstructionSink;
+import dev.cernavskis.moose.bytecode.Opcode;
+import dev.cernavskis.moose.util.Nullable;
+
+/**
+ * One entry of an {@link InstructionList}: an instruction, a label or a debug line.
+ * Labels keep their name as the only operand, debug lines keep the line, column and file.
+ */
+public record Instruction(Kind kind, @Nullable Opcode opcode, String... operands) {
+  public enum Kind {
+    INSTRUCTION,
+    LABEL,
+    LINE,
+  }
+
+  public static Instruction of(Opcode opcode, String... operands) {
+    return new Instruction(Kind.INSTRUCTION, opcode, operands);
+  }
+
+  public static Instruction label(String name) {
+    return new Instruction(Kind.LABEL, null, name);
+  }
+
+  public static Instruction line(int line, int column, String file) {
+    return new Instruction(Kind.LINE, null, String.valueOf(line), String.valueOf(column), file);
+  }
+
+  public boolean is(Opcode opcode) {
+    return this.opcode == opcode;
+  }
+
+  public boolean isLabel() {
+    return kind == Kind.LABEL;
+  }
+
+  public boolean isLine() {
+    return kind == Kind.LINE;
+  }
+
+  public String operand(int index) {
+    return operands[index];
+  }
+
+  /**
+   * Returns the label this instruction may jump to, or null if it never jumps.
+   */
+  @Nullable
+  public String target() {
+    if (kind != Kind.INSTRUCTION) {
+      return null;
+    }
+    Opcode.OperandKind[] kinds = opcode.operands();
+    for (int i = 0; i < kinds.length; i++) {
+      if (kinds[i] == Opcode.OperandKind.LABEL) {
+        return operands[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns this jump with another target.
+   */
+  public Instruction withTarget(String label) {
+    Opcode.OperandKind[] kinds = opcode.operands();
+    String[] changed = operands.clone();
+    for (int i = 0; i < kinds.length; i++) {
+      if (kinds[i] == Opcode.OperandKind.LABEL) {
+        changed[i] = label;
+      }
+    }
+    return new Instruction(kind, opcode, changed);
+  }
+
+  public void replay(InstructionSink sink) {
+    switch (kind) {
+      case INSTRUCTION -> sink.instruction(opcode, operands);
+      case LABEL -> sink.label(operands[0]);
+      case LINE -> sink.line(Integer.parseInt(operands[0]), Integer.parseInt(operands[1]), operands[2]);
+    }
+  }
+}
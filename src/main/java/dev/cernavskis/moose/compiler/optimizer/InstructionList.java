@@ -0,0 +1,124 @@
+package dev.cernavskis.moose.compiler.optimizer;
+
+import dev.cernavskis.moose.bytecode.InstructionSink;
+import dev.cernavskis.moose.bytecode.Opcode;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects bytecode so it can be rewritten before being passed on to another sink.
+ * Removed entries only leave a hole until {@link #compact()}, so passes can remove instructions while walking the list.
+ */
+public class InstructionList implements InstructionSink {
+  private final List<Instruction> entries = new ArrayList<>();
+  private boolean hasHoles = false;
+
+  @Override
+  public void line(int line, int column, String file) {
+    entries.add(Instruction.line(line, column, file));
+  }
+
+  @Override
+  public void label(String name) {
+    entries.add(Instruction.label(name));
+  }
+
+  @Override
+  public void instruction(Opcode opcode, String... operands) {
+    entries.add(Instruction.of(opcode, operands));
+  }
+
+  void add(Instruction entry) {
+    entries.add(entry);
+  }
+
+  /**
+   * Number of entries including labels, debug lines and holes, valid indexes are below this.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  @Nullable
+  public Instruction get(int index) {
+    return entries.get(index);
+  }
+
+  public void set(int index, Instruction instruction) {
+    entries.set(index, instruction);
+  }
+
+  public void remove(int index) {
+    entries.set(index, null);
+    hasHoles = true;
+  }
+
+  /**
+   * Returns the index of the first instruction at or after the given index, skipping labels, debug lines and holes.
+   * Returns -1 if there is none.
+   */
+  public int nextInstruction(int index) {
+    for (int i = index; i < entries.size(); i++) {
+      Instruction entry = entries.get(i);
+      if (entry != null && entry.kind() == Instruction.Kind.INSTRUCTION) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Like {@link #nextInstruction(int)}, but stops at a label, since the instruction after it can be reached from elsewhere.
+   */
+  public int nextInBlock(int index) {
+    for (int i = index; i < entries.size(); i++) {
+      Instruction entry = entries.get(i);
+      if (entry == null || entry.isLine()) {
+        continue;
+      }
+      return entry.isLabel() ? -1 : i;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the index of the last instruction before the given index within the same block, or -1 if a label comes first.
+   */
+  public int previousInBlock(int index) {
+    for (int i = index - 1; i >= 0; i--) {
+      Instruction entry = entries.get(i);
+      if (entry == null || entry.isLine()) {
+        continue;
+      }
+      return entry.isLabel() ? -1 : i;
+    }
+    return -1;
+  }
+
+  public int instructionCount() {
+    int count = 0;
+    for (Instruction entry : entries) {
+      if (entry != null && entry.kind() == Instruction.Kind.INSTRUCTION) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public void compact() {
+    if (hasHoles) {
+      entries.removeIf(entry -> entry == null);
+      hasHoles = false;
+    }
+  }
+
+  public void replay(InstructionSink sink) {
+    for (Instruction entry : entries) {
+      if (entry != null) {
+        entry.replay(sink);
+      }
+    }
+  }
+}
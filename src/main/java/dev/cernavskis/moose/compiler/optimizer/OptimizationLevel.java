@@ -0,0 +1,26 @@
+package dev.cernavskis.moose.compiler.optimizer;
+
+/**
+ * How much the compiler optimizes, each level runs the passes of the levels below it as well.
+ */
+public enum OptimizationLevel {
+  // No optimizations, the bytecode follows the source directly.
+  O0,
+  // Cheap local cleanups: constant folding, dead code, block merging and peephole patterns.
+  O1,
+  // Everything, including the loop optimizations.
+  O2;
+
+  public static OptimizationLevel fromFlag(String flag) {
+    return switch (flag) {
+      case "-O0" -> O0;
+      case "-O1" -> O1;
+      case "-O2" -> O2;
+      default -> throw new IllegalArgumentException("Unknown optimization level: " + flag);
+    };
+  }
+
+  public boolean includes(OptimizationLevel level) {
+    return compareTo(level) >= 0;
+  }
+}
@@ -0,0 +1,98 @@
+package dev.cernavskis.moose.compiler.optimizer;
+
+import dev.cernavskis.moose.compiler.CompilerOptions;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs optimization passes over one representation of the program, in the order they were registered.
+ * Each pass has the lowest optimization level it runs at and can be disabled by name. The time taken by every pass
+ * that ran is kept for the last run, together with what the pass reported about its work.
+ */
+public class PassManager<T> {
+  public record Timing(String name, long nanos, @Nullable String report) {
+    @Override
+    public String toString() {
+      return name + " in " + ((float) nanos) / 1000000 + "ms" + (report == null ? "" : " (" + report + ")");
+    }
+  }
+
+  private record Pass<T>(String name, OptimizationLevel level, UnaryOperator<T> transform) {}
+
+  private final List<Pass<T>> passes = new ArrayList<>();
+  private final List<Timing> timings = new ArrayList<>();
+  @Nullable
+  private String report;
+
+  public PassManager<T> register(String name, OptimizationLevel level, UnaryOperator<T> pass) {
+    for (Pass<T> registered : passes) {
+      if (registered.name().equals(name)) {
+        throw new IllegalArgumentException("Duplicate pass: " + name);
+      }
+    }
+    passes.add(new Pass<>(name, level, pass));
+    return this;
+  }
+
+  public boolean has(String name) {
+    for (Pass<T> pass : passes) {
+      if (pass.name().equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public List<String> names() {
+    List<String> names = new ArrayList<>();
+    for (Pass<T> pass : passes) {
+      names.add(pass.name());
+    }
+    return names;
+  }
+
+  /**
+   * Whether any of the passes runs with the options.
+   */
+  public boolean runsAny(CompilerOptions options) {
+    for (Pass<T> pass : passes) {
+      if (runs(pass, options)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean runs(Pass<?> pass, CompilerOptions options) {
+    return options.level().includes(pass.level()) && !options.isDisabled(pass.name());
+  }
+
+  public T run(T input, CompilerOptions options) {
+    timings.clear();
+    T result = input;
+    for (Pass<T> pass : passes) {
+      if (!runs(pass, options)) {
+        continue;
+      }
+      report = null;
+      long start = System.nanoTime();
+      result = pass.transform().apply(result);
+      timings.add(new Timing(pass.name(), System.nanoTime() - start, report));
+    }
+    return result;
+  }
+
+  /**
+   * Called by the running pass to describe what it did, shown next to its time.
+   */
+  public void report(String report) {
+    this.report = report;
+  }
+
+  public List<Timing> timings() {
+    return timings;
+  }
+}
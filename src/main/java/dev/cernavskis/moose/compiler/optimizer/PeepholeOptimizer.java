@@ -0,0 +1,90 @@
+package dev.cernavskis.moose.compiler.optimizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies peephole patterns to an instruction list, or to each block of a graph, until none of them match anymore.
+ */
+public class PeepholeOptimizer {
+  public record Statistics(int before, int after, int passes) {
+    @Override
+    public String toString() {
+      return before + " -> " + after + " instructions in " + passes + (passes == 1 ? " pass" : " passes");
+    }
+  }
+
+  private final List<PeepholePattern> patterns = new ArrayList<>();
+
+  public PeepholeOptimizer() {}
+
+  public PeepholeOptimizer(List<PeepholePattern> patterns) {
+    this.patterns.addAll(patterns);
+  }
+
+  public static PeepholeOptimizer withDefaults() {
+    return new PeepholeOptimizer(PeepholePatterns.defaults());
+  }
+
+  public PeepholeOptimizer addPattern(PeepholePattern pattern) {
+    patterns.add(pattern);
+    return this;
+  }
+
+  /**
+   * Optimizes each block on its own. The labels that directly follow a block go at the end of its list, so a jump to
+   * one of them can be seen to go nowhere, they are not put back into the block. The passes are those of the block
+   * that took the most.
+   */
+  public Statistics optimize(ControlFlowGraph graph) {
+    int before = 0;
+    int after = 0;
+    int passes = 0;
+    List<BasicBlock> blocks = graph.blocks();
+    for (int i = 0; i < blocks.size(); i++) {
+      BasicBlock block = blocks.get(i);
+      InstructionList code = new InstructionList();
+      block.entries().forEach(code::add);
+      for (int next = i + 1; next < blocks.size() && blocks.get(next).label() != null; next++) {
+        code.add(Instruction.label(blocks.get(next).label()));
+        if (blocks.get(next).last() != null) {
+          break;
+        }
+      }
+      Statistics statistics = optimize(code);
+      before += statistics.before();
+      after += statistics.after();
+      passes = Math.max(passes, statistics.passes());
+      block.entries().clear();
+      for (int j = 0; j < code.size(); j++) {
+        if (!code.get(j).isLabel()) {
+          block.entries().add(code.get(j));
+        }
+      }
+    }
+    graph.link();
+    return new Statistics(before, after, passes);
+  }
+
+  public Statistics optimize(InstructionList code) {
+    int before = code.instructionCount();
+    int passes = 0;
+    boolean changed;
+    do {
+      changed = false;
+      for (int i = 0; i < code.size(); i++) {
+        for (PeepholePattern pattern : patterns) {
+          if (code.get(i) == null) {
+            break;
+          }
+          if (pattern.apply(code, i)) {
+            changed = true;
+          }
+        }
+      }
+      code.compact();
+      passes++;
+    } while (changed);
+    return new Statistics(before, code.instructionCount(), passes);
+  }
+}
@@ -0,0 +1,12 @@
+package dev.cernavskis.moose.compiler.optimizer;
+
+/**
+ * A local rewrite of the instruction list, see {@link PeepholePatterns} for the built-in ones.
+ */
+@FunctionalInterface
+public interface PeepholePattern {
+  /**
+   * Tries to rewrite the code at the given index, which is never a hole. Returns true if anything was changed.
+   */
+  boolean apply(InstructionList code, int index);
+}
@@ -0,0 +1,172 @@
+package dev.cernavskis.moose.compiler.optimizer;
+
+import dev.cernavskis.moose.bytecode.Opcode;
+
+import java.util.List;
+
+/**
+ * The patterns the peephole optimizer uses by default.
+ * None of them look across labels, since the state at a label depends on every jump to it.
+ */
+public final class PeepholePatterns {
+  private PeepholePatterns() {}
+
+  /**
+   * A constant set to the buffer and cleared right away: setb; clearb. Statements whose value is not used compile to a
+   * clearb after them, this is what is left of those that fold to a constant.
+   */
+  public static final PeepholePattern DROPPED_CONSTANT = (code, index) -> {
+    if (!code.get(index).is(Opcode.SETB)) {
+      return false;
+    }
+    int clearb = code.nextInBlock(index + 1);
+    if (clearb != -1 && code.get(clearb).is(Opcode.CLEARB)) {
+      code.remove(index);
+      code.remove(clearb);
+      return true;
+    }
+    return false;
+  };
+
+  /**
+   * clearbe after an instruction that already leaves the buffer empty. A clearb there would fail at runtime, so the
+   * compiler never emits one, only clearbe allows an empty buffer.
+   */
+  public static final PeepholePattern REDUNDANT_CLEARBE = (code, index) -> {
+    if (!code.get(index).is(Opcode.CLEARBE)) {
+      return false;
+    }
+    int previous = code.previousInBlock(index);
+    if (previous == -1) {
+      return false;
+    }
+    Instruction instruction = code.get(previous);
+    if (instruction.is(Opcode.CLEARB) || instruction.is(Opcode.CLEARBE) || instruction.is(Opcode.MOVM)
+      || instruction.is(Opcode.JMPF) || instruction.is(Opcode.JMPT) || instruction.is(Opcode.JCMPF) || instruction.is(Opcode.JCMPT)) {
+      code.remove(index);
+      return true;
+    }
+    return false;
+  };
+
+  /**
+   * clearr1 or clearr2 right before the same register is set again.
+   */
+  public static final PeepholePattern CLEAR_BEFORE_SET_REGISTER = (code, index) -> {
+    Instruction instruction = code.get(index);
+    Opcode set;
+    if (instruction.is(Opcode.CLEARR1)) {
+      set = Opcode.SETR1;
+    } else if (instruction.is(Opcode.CLEARR2)) {
+      set = Opcode.SETR2;
+    } else {
+      return false;
+    }
+    int next = code.nextInBlock(index + 1);
+    if (next != -1 && code.get(next).is(set)) {
+      code.remove(index);
+      return true;
+    }
+    return false;
+  };
+
+  /**
+   * Instructions after a jmp and before the next label, nothing can jump to them.
+   */
+  public static final PeepholePattern UNREACHABLE_AFTER_JUMP = (code, index) -> {
+    if (!code.get(index).is(Opcode.JMP)) {
+      return false;
+    }
+    boolean changed = false;
+    for (int i = index + 1; i < code.size(); i++) {
+      Instruction entry = code.get(i);
+      if (entry == null || entry.isLine()) {
+        continue;
+      }
+      if (entry.isLabel()) {
+        break;
+      }
+      code.remove(i);
+      changed = true;
+    }
+    return changed;
+  };
+
+  /**
+   * jmp to a label that directly follows it.
+   */
+  public static final PeepholePattern JUMP_TO_NEXT = (code, index) -> {
+    Instruction instruction = code.get(index);
+    if (!instruction.is(Opcode.JMP)) {
+      return false;
+    }
+    String target = instruction.operand(0);
+    for (int i = index + 1; i < code.size(); i++) {
+      Instruction entry = code.get(i);
+      if (entry == null || entry.isLine()) {
+        continue;
+      }
+      if (!entry.isLabel()) {
+        return false;
+      }
+      if (entry.operand(0).equals(target)) {
+        code.remove(index);
+        return true;
+      }
+    }
+    return false;
+  };
+
+  /**
+   * A value moved to the memory and straight back: movm; popm or pushm; clearb; popm.
+   */
+  public static final PeepholePattern MEMORY_ROUND_TRIP = (code, index) -> {
+    Instruction instruction = code.get(index);
+    if (instruction.is(Opcode.MOVM)) {
+      int popm = code.nextInBlock(index + 1);
+      if (popm != -1 && code.get(popm).is(Opcode.POPM)) {
+        code.remove(index);
+        code.remove(popm);
+        return true;
+      }
+    } else if (instruction.is(Opcode.PUSHM)) {
+      int clearb = code.nextInBlock(index + 1);
+      if (clearb == -1 || !code.get(clearb).is(Opcode.CLEARB)) {
+        return false;
+      }
+      int popm = code.nextInBlock(clearb + 1);
+      if (popm != -1 && code.get(popm).is(Opcode.POPM)) {
+        code.remove(index);
+        code.remove(clearb);
+        code.remove(popm);
+        return true;
+      }
+    }
+    return false;
+  };
+
+  /**
+   * A debug line with no instructions before the next one, only the last position is ever looked up.
+   */
+  public static final PeepholePattern SUPERSEDED_LINE = (code, index) -> {
+    if (!code.get(index).isLine()) {
+      return false;
+    }
+    for (int i = index + 1; i < code.size(); i++) {
+      Instruction entry = code.get(i);
+      if (entry == null) {
+        continue;
+      }
+      if (entry.isLine()) {
+        code.remove(index);
+        return true;
+      }
+      return false;
+    }
+    return false;
+  };
+
+  public static List<PeepholePattern> defaults() {
+    return List.of(DROPPED_CONSTANT, REDUNDANT_CLEARBE, CLEAR_BEFORE_SET_REGISTER, UNREACHABLE_AFTER_JUMP, JUMP_TO_NEXT, MEMORY_ROUND_TRIP, SUPERSEDED_LINE);
+  }
+}
@@ -1,91 +1,75 @@
 package dev.cernavskis.moose.interpreter;
 
+import dev.cernavskis.moose.bytecode.Assembler;
+import dev.cernavskis.moose.bytecode.Opcode;
+import dev.cernavskis.moose.bytecode.Program;
 import dev.cernavskis.moose.interpreter.types.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 
 public class BytecodeInterpreter {
-  private final String[] bytecode;
-  private final List<RuntimeType<?>> memory = new LinkedList<>();
+  private final Program program;
+  private final int[] code;
+  private final String[] symbols;
+  private final Object[] constantValues;
+  private final List<Function<Object, RuntimeType<?>>> constantConstructors;
+  private final List<RuntimeType<?>> memory = new ArrayList<>();
   private final Map<String, RuntimeType<?>> variables = new HashMap<>();
-  private final Map<String, Integer> labels = new HashMap<>();
   private RuntimeType<?> register1 = null;
   private RuntimeType<?> register2 = null;
   private RuntimeType<?> buffer = null;
 
-  private int line = 0;
-  private int column = 0;
-  private String file = "<unknown>";
-
   public BytecodeInterpreter(String bytecode) {
-    this.bytecode = bytecode.split("\n");
+    this(Assembler.assemble(bytecode));
   }
 
-  public void executeAll() {
-    for (int i = 0; i < bytecode.length; i++) {
-      String line = bytecode[i];
-      if (line.startsWith("label ")) {
-        String[] labelInstruction = line.split(" ");
-        if (labelInstruction.length != 2) {
-          throw new RuntimeException("Invalid label instruction: " + line);
-        }
-        labels.put(labelInstruction[1], i);
-      }
+  public BytecodeInterpreter(Program program) {
+    this.program = program;
+    this.code = program.code();
+    this.symbols = program.symbols();
+    Program.Constant[] constants = program.constants();
+    this.constantValues = new Object[constants.length];
+    this.constantConstructors = new ArrayList<>(constants.length);
+    for (int i = 0; i < constants.length; i++) {
+      constantValues[i] = constants[i].value();
+      constantConstructors.add(RuntimeType.getTypeConstructor(constants[i].type()));
     }
+  }
+
+  public void executeAll() {
     int i = 0;
-    while (i < bytecode.length) {
+    while (i < code.length) {
       try {
-        String instruction = bytecode[i];
-        if (instruction.startsWith("@")) {
-          String[] debugInfo = instruction.split(",", 3);
-          if (debugInfo.length != 3) {
-            throw new RuntimeException("Invalid debug info: " + instruction);
-          }
-          line = Integer.parseInt(debugInfo[0].substring(1));
-          column = Integer.parseInt(debugInfo[1]);
-          file = debugInfo[2];
-          i++;
-          continue;
-        }
-        if (instruction.startsWith("label ") || instruction.startsWith(";")) {
-          i++;
-          continue;
-        }
-        i = executeInstruction(instruction, i);
+        i = executeInstruction(i);
       } catch (Exception e) {
         e.printStackTrace();
-        System.err.printf("Error on line %d: %s (bytecode line %d, %s %d:%d)%n", line, e.getMessage(), i + 1, file, line, column);
+        int entry = program.lineEntryAt(i);
+        if (entry == -1) {
+          System.err.printf("Error: %s (instruction %d)%n", e.getMessage(), i);
+        } else {
+          int line = program.lineOf(entry);
+          System.err.printf("Error on line %d: %s (instruction %d, %s %d:%d)%n", line, e.getMessage(), i, program.fileOf(entry), line, program.columnOf(entry));
+        }
         break;
       }
     }
   }
 
   @SuppressWarnings("unchecked")
-  public int executeInstruction(String line, int index) throws InterpreterException {
-    String[] lineParts = line.split(" ", 2);
-    String instruction = lineParts[0];
-    String[] args;
-    if (lineParts.length > 1) {
-      args = lineParts[1].split(" ", 2);
-    } else {
-      args = new String[0];
-    }
+  private int executeInstruction(int index) throws InterpreterException {
+    Opcode instruction = Opcode.of(code[index]);
 
     switch (instruction) {
-      case "setb":
-        String type = args[0];
-        String value = args[1];
-
-        Object convertedValue = RuntimeType.getStringConverter(type).apply(value);
-        Function<Object, RuntimeType<?>> constructor = RuntimeType.getTypeConstructor(type);
-        buffer = constructor.apply(convertedValue);
+      case SETB:
+        int constant = code[index + 1];
+        buffer = constantConstructors.get(constant).apply(constantValues[constant]);
         break;
-      case "getp":
-        String name = args[0];
+      case GETP:
+        String name = symbols[code[index + 1]];
         if (buffer == null) {
           throw new InterpreterException("Buffer is empty");
         }
@@ -95,7 +79,7 @@ public class BytecodeInterpreter {
           buffer = buffer.getProperty(name);
         }
         break;
-      case "setp1":
+      case SETP1:
         if (buffer == null) {
           throw new InterpreterException("Buffer is empty");
         }
@@ -110,7 +94,7 @@ public class BytecodeInterpreter {
         }
         ((RuntimePointer<Object>) buffer).getValue().setValue(register1.getValue());
         break;
-      case "setp2":
+      case SETP2:
         if (buffer == null) {
           throw new InterpreterException("Buffer is empty");
         }
@@ -125,53 +109,53 @@ public class BytecodeInterpreter {
         }
         ((RuntimePointer<Object>) buffer).getValue().setValue(register2.getValue());
         break;
-      case "setr1":
+      case SETR1:
         if (buffer == null) {
           throw new InterpreterException("Buffer is empty");
         }
         register1 = buffer;
         break;
-      case "setr2":
+      case SETR2:
         if (buffer == null) {
           throw new InterpreterException("Buffer is empty");
         }
         register2 = buffer;
         break;
-      case "getr1":
+      case GETR1:
         if (buffer != null) {
           throw new InterpreterException("Buffer is not empty");
         }
         buffer = register1;
         break;
-      case "getr2":
+      case GETR2:
         if (buffer != null) {
           throw new InterpreterException("Buffer is not empty");
         }
         buffer = register2;
         break;
-      case "clearr1":
+      case CLEARR1:
         if (register1 == null) {
           throw new InterpreterException("Register 1 is empty");
         }
         register1 = null;
         break;
-      case "clearr2":
+      case CLEARR2:
         if (register2 == null) {
           throw new InterpreterException("Register 2 is empty");
         }
         register2 = null;
         break;
-      case "clearbe":
+      case CLEARBE:
         buffer = null;
         break;
-      case "clearb":
+      case CLEARB:
         if (buffer == null) {
           throw new InterpreterException("Buffer is empty");
         }
         buffer = null;
         break;
-      case "crsetv":
-        String varName0 = args[0];
+      case CRSETV:
+        String varName0 = symbols[code[index + 1]];
         if (buffer == null) {
           throw new InterpreterException("Buffer is empty");
         }
@@ -180,18 +164,17 @@ public class BytecodeInterpreter {
         }
         variables.put(varName0, buffer);
         break;
-      case "createv":
-        String varName = args[0];
-        if (variables.containsKey(varName)) {
-          throw new InterpreterException("Variable already exists: " + varName);
+      case CREATEV:
+        String vtype = symbols[code[index + 1]];
+        String vname = symbols[code[index + 2]];
+        if (variables.containsKey(vname)) {
+          throw new InterpreterException("Variable already exists: " + vname);
         }
-        String vtype = args[0];
-        String vname = args[1];
         RuntimeType<?> def = RuntimeType.getDefaultOf(vtype);
         variables.put(vname, def);
         break;
-      case "setv":
-        String varName1 = args[0];
+      case SETV:
+        String varName1 = symbols[code[index + 1]];
         if (!variables.containsKey(varName1)) {
           throw new InterpreterException("Variable does not exist: " + varName1);
         }
@@ -203,36 +186,78 @@ public class BytecodeInterpreter {
         }
         ((RuntimeType<Object>) variables.get(varName1)).setValue(buffer.getValue());
         break;
-      case "setc":
+      case SETVU:
+        String varName2 = symbols[code[index + 1]];
+        if (buffer == null) {
+          throw new InterpreterException("Buffer is empty");
+        }
+        ((RuntimeType<Object>) variable(varName2)).setValue(buffer.getValue());
+        break;
+      case SETI:
+        if (buffer == null) {
+          throw new InterpreterException("Buffer is empty");
+        }
+        if (memory.size() < 2) {
+          throw new InterpreterException("Not enough arguments on memory");
+        }
+        RuntimeType<?> index0 = memory.remove(memory.size() - 1);
+        RuntimeType<?> array0 = memory.remove(memory.size() - 1);
+        while (array0 instanceof RuntimePointer<?> pointer) {
+          array0 = pointer.getValue();
+        }
+        if (!(array0 instanceof RuntimeArray<?>)) {
+          throw new InterpreterException("Cannot index " + array0.getTypeName());
+        }
+        RuntimeType<?> element = array0.performBinaryOperation("[", index0);
+        if (!element.getTypeName().equals(buffer.getTypeName())) {
+          throw new InterpreterException("Cannot assign " + buffer.getTypeName() + " to " + element.getTypeName());
+        }
+        ((RuntimeType<Object>) element).setValue(buffer.getValue());
+        break;
+      case SETPR:
+        String propertyName = symbols[code[index + 1]];
+        if (buffer == null) {
+          throw new InterpreterException("Buffer is empty");
+        }
+        if (memory.isEmpty()) {
+          throw new InterpreterException("Memory is empty");
+        }
+        RuntimeType<?> owner = memory.remove(memory.size() - 1);
+        while (owner instanceof RuntimePointer<?> pointer) {
+          owner = pointer.getValue();
+        }
+        owner.setProperty(propertyName, buffer);
+        break;
+      case SETC:
         if (buffer == null) {
           throw new InterpreterException("Buffer is empty");
         }
         buffer.setConstant(true);
         break;
-      case "loadv":
+      case LOADV:
         if (buffer != null) {
           throw new InterpreterException("Buffer is not empty");
         }
-        String varName3 = args[0];
+        String varName3 = symbols[code[index + 1]];
         if (!variables.containsKey(varName3)) {
           throw new InterpreterException("Variable does not exist: " + varName3);
         }
         buffer = variables.get(varName3);
         break;
-      case "clearv":
-        String varName4 = args[0];
+      case CLEARV:
+        String varName4 = symbols[code[index + 1]];
         if (!variables.containsKey(varName4)) {
           throw new InterpreterException("Variable does not exist: " + varName4);
         }
         variables.remove(varName4);
         break;
-      case "pushm":
+      case PUSHM:
         if (buffer == null) {
           throw new InterpreterException("Buffer is empty");
         }
         memory.add(buffer);
         break;
-      case "popm":
+      case POPM:
         if (memory.isEmpty()) {
           throw new InterpreterException("Memory is empty");
         }
@@ -241,15 +266,43 @@ public class BytecodeInterpreter {
         }
         buffer = memory.remove(memory.size() - 1);
         break;
-      case "call":
-        String callableName = args[0];
+      case MOVM:
+        if (buffer == null) {
+          throw new InterpreterException("Buffer is empty");
+        }
+        memory.add(buffer);
+        buffer = null;
+        break;
+      case CALLB:
+        if (buffer == null) {
+          throw new InterpreterException("Buffer is empty");
+        }
+        int argCount0 = code[index + 1];
+        if (memory.size() < argCount0) {
+          throw new InterpreterException("Not enough arguments on memory");
+        }
+        RuntimeType<?> callable = buffer;
+        while (callable instanceof RuntimePointer<?> pointer) {
+          callable = pointer.getValue();
+        }
+        if (!(callable instanceof RuntimeFunction)) {
+          throw new InterpreterException(callable.getTypeName() + " is not callable");
+        }
+        RuntimeType<?>[] argsArray0 = new RuntimeType<?>[argCount0];
+        for (int i = argCount0 - 1; i >= 0; i--) {
+          argsArray0[i] = memory.remove(memory.size() - 1);
+        }
+        buffer = ((RuntimeFunction) callable).call(argsArray0);
+        break;
+      case CALL:
+        String callableName = symbols[code[index + 1]];
         if (!variables.containsKey(callableName)) {
           throw new InterpreterException("Callable does not exist: " + callableName);
         }
         if (buffer != null) {
           throw new InterpreterException("Buffer is not empty");
         }
-        int argCount = Integer.parseInt(args[1]);
+        int argCount = code[index + 2];
         if (memory.size() < argCount) {
           throw new InterpreterException("Not enough arguments on memory");
         }
@@ -267,8 +320,8 @@ public class BytecodeInterpreter {
         }
         buffer = ((RuntimeFunction) callableVar).call(argsArray);
         break;
-      case "op":
-        String op = args[0];
+      case OP:
+        String op = symbols[code[index + 1]];
         if (buffer != null) {
           throw new InterpreterException("Buffer is not empty");
         }
@@ -288,34 +341,102 @@ public class BytecodeInterpreter {
           buffer = register1.performBinaryOperation(op, r2);
         }
         break;
-      case "jmp":
-      case "jmpz":
-      case "jpnz":
-        String label = args[0];
-        if (!labels.containsKey(label)) {
-          throw new InterpreterException("Label does not exist: " + label);
+      case OPM:
+        String op0 = symbols[code[index + 1]];
+        if (buffer == null) {
+          throw new InterpreterException("Buffer is empty");
+        }
+        if (memory.isEmpty()) {
+          throw new InterpreterException("Memory is empty");
+        }
+        RuntimeType<?> right = buffer;
+        while (right instanceof RuntimePointer<?> pointer) {
+          right = pointer.getValue();
+        }
+        buffer = memory.remove(memory.size() - 1).performBinaryOperation(op0, right);
+        break;
+      case OPI:
+      case OPF:
+        String op2 = symbols[code[index + 1]];
+        if (buffer == null) {
+          throw new InterpreterException("Buffer is empty");
+        }
+        if (memory.isEmpty()) {
+          throw new InterpreterException("Memory is empty");
+        }
+        RuntimeType<?> left = memory.remove(memory.size() - 1);
+        if (instruction == Opcode.OPI) {
+          buffer = RuntimeInteger.operate(op2, (Integer) left.getValue(), (Integer) buffer.getValue());
+        } else {
+          buffer = RuntimeFloat.operate(op2, (Float) left.getValue(), (Float) buffer.getValue());
+        }
+        break;
+      case OPU:
+        String op1 = symbols[code[index + 1]];
+        if (buffer == null) {
+          throw new InterpreterException("Buffer is empty");
         }
-        if (instruction.equals("jmpz") || instruction.equals("jpnz")) {
+        buffer = buffer.performUnaryOperation(op1);
+        break;
+      case JMP:
+      case JMPZ:
+      case JPNZ:
+        if (instruction != Opcode.JMP) {
           if (buffer == null) {
             throw new InterpreterException("Buffer is empty");
           }
           if (!buffer.getTypeName().equals("bool")) {
             throw new InterpreterException("Buffer is not a boolean");
           }
-          if (instruction.equals("jmpz") && (boolean) buffer.getValue()) {
+          if (instruction == Opcode.JMPZ && (boolean) buffer.getValue()) {
             break;
           }
-          if (instruction.equals("jpnz") && !(boolean) buffer.getValue()) {
+          if (instruction == Opcode.JPNZ && !(boolean) buffer.getValue()) {
             break;
           }
         }
-        return labels.get(label);
-      case "apush":
+        return code[index + 1];
+      case JMPF:
+      case JMPT:
+        if (buffer == null) {
+          throw new InterpreterException("Buffer is empty");
+        }
+        RuntimeType<?> value = buffer;
+        while (value instanceof RuntimePointer<?> pointer) {
+          value = pointer.getValue();
+        }
+        if (!(value instanceof RuntimeBoolean condition)) {
+          throw new InterpreterException("Buffer is not a boolean");
+        }
+        buffer = null;
+        if (condition.getValue() == (instruction == Opcode.JMPT)) {
+          return code[index + 1];
+        }
+        break;
+      case JCMPF:
+      case JCMPT:
+        String op3 = symbols[code[index + 1]];
+        if (buffer == null) {
+          throw new InterpreterException("Buffer is empty");
+        }
+        if (memory.isEmpty()) {
+          throw new InterpreterException("Memory is empty");
+        }
+        RuntimeType<?> right0 = buffer;
+        while (right0 instanceof RuntimePointer<?> pointer) {
+          right0 = pointer.getValue();
+        }
+        buffer = null;
+        if (compare(memory.remove(memory.size() - 1), op3, right0) == (instruction == Opcode.JCMPT)) {
+          return code[index + 2];
+        }
+        break;
+      case APUSH:
         if (buffer == null) {
           throw new InterpreterException("Buffer is empty");
         }
         if (buffer instanceof RuntimeArray<?> arr) {
-          int size = Integer.parseInt(args[0]);
+          int size = code[index + 1];
           if (memory.size() < size) {
             throw new InterpreterException("Not enough arguments on memory");
           }
@@ -329,11 +450,119 @@ public class BytecodeInterpreter {
           throw new InterpreterException("Buffer is not an array");
         }
         break;
+      case FORI:
+      case FORV:
+        RuntimeInteger counter0 = counter(symbols[code[index + 1]]);
+        String comparison0 = symbols[code[index + 2]];
+        boolean inRange0 = instruction == Opcode.FORI
+          ? compare(counter0, comparison0, code[index + 3])
+          : compare(counter0, comparison0, variable(symbols[code[index + 3]]));
+        if (!inRange0) {
+          return code[index + 4];
+        }
+        break;
+      case NEXTI:
+      case NEXTV:
+        RuntimeInteger counter1 = counter(symbols[code[index + 1]]);
+        counter1.setValue(counter1.getValue() + code[index + 2]);
+        String comparison1 = symbols[code[index + 3]];
+        boolean inRange1 = instruction == Opcode.NEXTI
+          ? compare(counter1, comparison1, code[index + 4])
+          : compare(counter1, comparison1, variable(symbols[code[index + 4]]));
+        if (inRange1) {
+          return code[index + 5];
+        }
+        break;
+      case ADDVI:
+        RuntimeInteger counter2 = counter(symbols[code[index + 1]]);
+        counter2.setValue(counter2.getValue() + code[index + 2]);
+        break;
+      case AGETV:
+        if (buffer != null) {
+          throw new InterpreterException("Buffer is not empty");
+        }
+        RuntimeType<?> array1 = variable(symbols[code[index + 1]]);
+        RuntimeType<?> index1 = variable(symbols[code[index + 2]]);
+        if (array1 instanceof RuntimeArray<?> arr && index1 instanceof RuntimeInteger integer) {
+          buffer = arr.getValue().get(integer.getValue());
+        } else {
+          while (index1 instanceof RuntimePointer<?> pointer) {
+            index1 = pointer.getValue();
+          }
+          buffer = array1.performBinaryOperation("[", index1);
+        }
+        break;
       default:
         throw new InterpreterException("Unknown instruction: " + instruction);
     }
 
-    return index + 1;
+    return index + instruction.size();
+  }
+
+  private RuntimeType<?> variable(String name) throws InterpreterException {
+    RuntimeType<?> value = variables.get(name);
+    if (value == null) {
+      throw new InterpreterException("Variable does not exist: " + name);
+    }
+    return value;
+  }
+
+  // Counters are declared as int, so setv keeps them one.
+  private RuntimeInteger counter(String name) throws InterpreterException {
+    RuntimeType<?> value = variable(name);
+    if (!(value instanceof RuntimeInteger integer)) {
+      throw new InterpreterException("Counter is not an int: " + name);
+    }
+    return integer;
+  }
+
+  // Compares the counter with the bound like opm would, but without allocating the result.
+  private static boolean compare(RuntimeInteger counter, String comparison, RuntimeType<?> bound) {
+    while (bound instanceof RuntimePointer<?> pointer) {
+      bound = pointer.getValue();
+    }
+    if (!(bound instanceof RuntimeInteger integer)) {
+      // Fails the same way the comparison would.
+      return (boolean) counter.performBinaryOperation(comparison, bound).getValue();
+    }
+    return compare(counter, comparison, integer.getValue());
+  }
+
+  // Compares two values like opm would, ints and floats without allocating the result.
+  private static boolean compare(RuntimeType<?> left, String comparison, RuntimeType<?> right) throws InterpreterException {
+    if (left instanceof RuntimeInteger integer && right instanceof RuntimeInteger) {
+      return compare(integer, comparison, right);
+    }
+    if (left instanceof RuntimeFloat leftFloat && right instanceof RuntimeFloat rightFloat) {
+      float a = leftFloat.getValue();
+      float b = rightFloat.getValue();
+      return switch (comparison) {
+        case "<" -> a < b;
+        case "<=" -> a <= b;
+        case ">" -> a > b;
+        case ">=" -> a >= b;
+        case "==" -> a == b;
+        case "!=" -> a != b;
+        default -> throw new IllegalArgumentException("Cannot perform binary operation " + comparison + " on float");
+      };
+    }
+    if (!(left.performBinaryOperation(comparison, right) instanceof RuntimeBoolean result)) {
+      throw new InterpreterException("Comparison did not result in a boolean");
+    }
+    return result.getValue();
+  }
+
+  private static boolean compare(RuntimeInteger counter, String comparison, int bound) {
+    int value = counter.getValue();
+    return switch (comparison) {
+      case "<" -> value < bound;
+      case "<=" -> value <= bound;
+      case ">" -> value > bound;
+      case ">=" -> value >= bound;
+      case "==" -> value == bound;
+      case "!=" -> value != bound;
+      default -> throw new IllegalArgumentException("Cannot perform binary operation " + comparison + " on int");
+    };
   }
 
   public void setVariable(String name, RuntimeType<?> value) {
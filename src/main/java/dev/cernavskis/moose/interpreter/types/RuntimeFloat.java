@@ -15,21 +15,28 @@ public class RuntimeFloat extends RuntimeType<Float> {
     if (!"float".equals(other.getTypeName())) {
       throw new IllegalArgumentException("Cannot perform binary operation on " + getTypeName() + " and " + other.getTypeName());
     }
+    return operate(operation, getValue(), (Float) other.getValue());
+  }
+
+  /**
+   * Performs a binary operation on two floats, for when the compiler already knows both operands are floats.
+   */
+  public static RuntimeType<?> operate(String operation, float left, float right) throws IllegalArgumentException {
     return switch (operation) {
-      case "+" -> new RuntimeFloat(getValue() + (Float) other.getValue());
-      case "-" -> new RuntimeFloat(getValue() - (Float) other.getValue());
-      case "*" -> new RuntimeFloat(getValue() * (Float) other.getValue());
-      case "/" -> new RuntimeFloat(getValue() / (Float) other.getValue());
-      case "%" -> new RuntimeFloat(getValue() % (Float) other.getValue());
-      case "**" -> new RuntimeFloat((float) Math.pow(getValue(), (Float) other.getValue()));
-      case "==" -> new RuntimeBoolean(getValue() == (Float) other.getValue());
-      case "!=" -> new RuntimeBoolean(getValue() != (Float) other.getValue());
-      case ">=" -> new RuntimeBoolean(getValue() >= (Float) other.getValue());
-      case "<=" -> new RuntimeBoolean(getValue() <= (Float) other.getValue());
-      case ">" -> new RuntimeBoolean(getValue() > (Float) other.getValue());
-      case "<" -> new RuntimeBoolean(getValue() < (Float) other.getValue());
+      case "+" -> new RuntimeFloat(left + right);
+      case "-" -> new RuntimeFloat(left - right);
+      case "*" -> new RuntimeFloat(left * right);
+      case "/" -> new RuntimeFloat(left / right);
+      case "%" -> new RuntimeFloat(left % right);
+      case "**" -> new RuntimeFloat((float) Math.pow(left, right));
+      case "==" -> new RuntimeBoolean(left == right);
+      case "!=" -> new RuntimeBoolean(left != right);
+      case ">=" -> new RuntimeBoolean(left >= right);
+      case "<=" -> new RuntimeBoolean(left <= right);
+      case ">" -> new RuntimeBoolean(left > right);
+      case "<" -> new RuntimeBoolean(left < right);
       default ->
-        throw new IllegalArgumentException("Cannot perform binary operation " + operation + " on " + getTypeName());
+        throw new IllegalArgumentException("Cannot perform binary operation " + operation + " on float");
     };
   }
 
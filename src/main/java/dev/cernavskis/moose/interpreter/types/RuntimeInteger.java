@@ -15,27 +15,33 @@ public class RuntimeInteger extends RuntimeType<Integer> {
     if (!"int".equals(other.getTypeName())) {
       throw new IllegalArgumentException("Cannot perform binary operation on " + getTypeName() + " and " + other.getTypeName());
     }
-    int otherValue = (Integer) other.getValue();
+    return operate(operation, getValue(), (Integer) other.getValue());
+  }
+
+  /**
+   * Performs a binary operation on two ints, for when the compiler already knows both operands are ints.
+   */
+  public static RuntimeType<?> operate(String operation, int left, int right) throws IllegalArgumentException {
     return switch (operation) {
-      case "+" -> new RuntimeInteger(getValue() + otherValue);
-      case "-" -> new RuntimeInteger(getValue() - otherValue);
-      case "*" -> new RuntimeInteger(getValue() * otherValue);
-      case "/" -> new RuntimeInteger(getValue() / otherValue);
-      case "%" -> new RuntimeInteger(getValue() % otherValue);
-      case "**" -> new RuntimeInteger((int) Math.pow(getValue(), otherValue));
-      case "==" -> new RuntimeBoolean(getValue() == otherValue);
-      case "!=" -> new RuntimeBoolean(getValue() != otherValue);
-      case ">=" -> new RuntimeBoolean(getValue() >= otherValue);
-      case "<=" -> new RuntimeBoolean(getValue() <= otherValue);
-      case ">" -> new RuntimeBoolean(getValue() > otherValue);
-      case "<" -> new RuntimeBoolean(getValue() < otherValue);
-      case "|" -> new RuntimeInteger(getValue() | otherValue);
-      case "&" -> new RuntimeInteger(getValue() & otherValue);
-      case "^" -> new RuntimeInteger(getValue() ^ otherValue);
-      case ">>" -> new RuntimeInteger(getValue() >> otherValue);
-      case "<<" -> new RuntimeInteger(getValue() << otherValue);
+      case "+" -> new RuntimeInteger(left + right);
+      case "-" -> new RuntimeInteger(left - right);
+      case "*" -> new RuntimeInteger(left * right);
+      case "/" -> new RuntimeInteger(left / right);
+      case "%" -> new RuntimeInteger(left % right);
+      case "**" -> new RuntimeInteger((int) Math.pow(left, right));
+      case "==" -> new RuntimeBoolean(left == right);
+      case "!=" -> new RuntimeBoolean(left != right);
+      case ">=" -> new RuntimeBoolean(left >= right);
+      case "<=" -> new RuntimeBoolean(left <= right);
+      case ">" -> new RuntimeBoolean(left > right);
+      case "<" -> new RuntimeBoolean(left < right);
+      case "|" -> new RuntimeInteger(left | right);
+      case "&" -> new RuntimeInteger(left & right);
+      case "^" -> new RuntimeInteger(left ^ right);
+      case ">>" -> new RuntimeInteger(left >> right);
+      case "<<" -> new RuntimeInteger(left << right);
       default ->
-        throw new IllegalArgumentException("Cannot perform binary operation " + operation + " on " + getTypeName());
+        throw new IllegalArgumentException("Cannot perform binary operation " + operation + " on int");
     };
   }
 
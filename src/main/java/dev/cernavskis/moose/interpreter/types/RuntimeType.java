@@ -33,6 +33,10 @@ public abstract class RuntimeType<T> {
     throw new InterpreterException("Cannot get property " + name + " of " + getTypeName());
   }
 
+  public void setProperty(String name, RuntimeType<?> value) throws InterpreterException {
+    throw new InterpreterException("Cannot set property " + name + " of " + getTypeName());
+  }
+
   /**
    * Returns the Java value of the type.
    */
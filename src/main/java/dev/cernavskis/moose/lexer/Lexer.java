@@ -1,16 +1,19 @@
 package dev.cernavskis.moose.lexer;
 
+import dev.cernavskis.moose.util.FileTable;
+import dev.cernavskis.moose.util.SourcePosition;
+
 import java.util.*;
 
 // Implements iterator so that we can implement this as a stream.
-// This is done to save memory, as well as it allows us to run this on a seperate thread.
-public class Lexer {
+// This is done to save memory, as well as it allows us to run this on a seperate thread, see TokenPipeline.
+public class Lexer implements Iterator<Token> {
   private final String input;
   private int position = 0;
   // These next three are used for debugging and error messages.
   private int line = 1;
   private int column = 1;
-  private final String file;
+  private final int file;
 
   public Lexer(String input) {
     this(input, "<unknown>");
@@ -18,18 +21,32 @@ public class Lexer {
 
   public Lexer(String input, String file) {
     this.input = input;
-    this.file = file;
+    this.file = FileTable.id(file);
   }
 
   private boolean hadEOF = false;
   public List<Token> getAllTokens() {
-    List<Token> tokens = new LinkedList<>();
-    while (!hadEOF) {
-      Token token = nextToken();
-      tokens.add(token);
-      hadEOF = token.type() == TokenType.EOF;
+    List<Token> tokens = new ArrayList<>();
+    while (hasNext()) {
+      tokens.add(next());
+    }
+    return tokens;
+  }
+
+  // The last token is EOF.
+  @Override
+  public boolean hasNext() {
+    return !hadEOF;
+  }
+
+  @Override
+  public Token next() {
+    if (hadEOF) {
+      throw new NoSuchElementException();
     }
-    return new ArrayList<>(tokens);
+    Token token = nextToken();
+    hadEOF = token.type() == TokenType.EOF;
+    return token;
   }
 
   // Okay, this is the real deal.
@@ -180,6 +197,7 @@ public class Lexer {
           case "continue" -> newToken(TokenType.CONTINUE, value);
           case "import" -> newToken(TokenType.IMPORT, value);
           case "export" -> newToken(TokenType.EXPORT, value);
+          case "true", "false" -> newToken(TokenType.BOOLEAN, value);
           default -> newToken(TokenType.IDENTIFIER, value);
         };
       }
@@ -297,7 +315,7 @@ public class Lexer {
 
   // Utility function to not need to write getDebugInfo every time.
   private Token newToken(TokenType type, String value) {
-    return new Token(type, value, line, column, file);
+    return new Token(type, value, SourcePosition.of(file, line, column));
   }
 
   // Analagous to position++, but also increments line and column correctly.
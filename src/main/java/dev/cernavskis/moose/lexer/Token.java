@@ -1,21 +1,23 @@
 package dev.cernavskis.moose.lexer;
 
 import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.util.SourcePosition;
 
 public final class Token {
   private final TokenType type;
   private final String value;
-  private final int line;
-  private final int column;
-  private final String file;
+  // See SourcePosition.
+  private final long position;
 
 
   public Token(TokenType type, String value, int line, int column, String file) {
+    this(type, value, SourcePosition.of(file, line, column));
+  }
+
+  public Token(TokenType type, String value, long position) {
     this.type = type;
     this.value = value;
-    this.line = line;
-    this.column = column;
-    this.file = file;
+    this.position = position;
   }
 
   @Override
@@ -31,7 +33,19 @@ public final class Token {
     return value;
   }
 
+  public long position() {
+    return position;
+  }
+
+  public int line() {
+    return SourcePosition.line(position);
+  }
+
+  public int column() {
+    return SourcePosition.column(position);
+  }
+
   public DebugInfo debugInfo() {
-    return new DebugInfo(line, column, file, this);
+    return SourcePosition.debugInfo(position);
   }
 }
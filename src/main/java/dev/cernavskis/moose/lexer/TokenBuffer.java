@@ -0,0 +1,93 @@
+package dev.cernavskis.moose.lexer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tokens for the parser to read front to back, with any amount of lookahead.
+ * Tokens are only taken from the source when the parser looks at them, and dropped once they are read and no mark
+ * needs them, so a {@link Lexer} or {@link TokenPipeline} can be read without holding every token of the input.
+ * Peeking and advancing take constant time. The last token is the end of the file, it is never read past.
+ */
+public final class TokenBuffer {
+  // Read tokens are dropped once there are at least this many and they are at least half of the buffer.
+  private static final int COMPACT_THRESHOLD = 1024;
+
+  private final Iterator<Token> source;
+  private final List<Token> buffered = new ArrayList<>();
+  // Position of the first buffered token.
+  private int offset = 0;
+  private int position = 0;
+  private boolean ended = false;
+  private final Deque<Integer> marks = new ArrayDeque<>();
+
+  public TokenBuffer(List<Token> tokens) {
+    this(tokens.iterator());
+  }
+
+  public TokenBuffer(Iterator<Token> source) {
+    this.source = source;
+  }
+
+  public Token peek() {
+    return peek(0);
+  }
+
+  /**
+   * Returns the token the given number of tokens ahead, or the end of the file if there are not that many.
+   */
+  public Token peek(int ahead) {
+    int index = position - offset + ahead;
+    while (index >= buffered.size() && !ended) {
+      // A source without an end of the file gets one.
+      Token token = source.hasNext() ? source.next() : new Token(TokenType.EOF, "", 0, 0, "<unknown>");
+      buffered.add(token);
+      ended = token.type() == TokenType.EOF;
+    }
+    return buffered.get(Math.min(index, buffered.size() - 1));
+  }
+
+  public Token next() {
+    Token token = peek();
+    if (!ended || position - offset < buffered.size() - 1) {
+      position++;
+      compact();
+    }
+    return token;
+  }
+
+  /**
+   * Number of tokens read so far.
+   */
+  public int position() {
+    return position;
+  }
+
+  /**
+   * Remembers the current position, until {@link #reset()} goes back to it or {@link #release()} forgets it.
+   * Marks are nested, those calls apply to the last mark.
+   */
+  public void mark() {
+    marks.push(position);
+  }
+
+  public void reset() {
+    position = marks.pop();
+  }
+
+  public void release() {
+    marks.pop();
+  }
+
+  private void compact() {
+    int keep = marks.isEmpty() ? position : marks.peekLast();
+    int drop = keep - offset;
+    if (drop >= COMPACT_THRESHOLD && drop * 2 >= buffered.size()) {
+      buffered.subList(0, drop).clear();
+      offset += drop;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package dev.cernavskis.moose.lexer;
+
+import dev.cernavskis.moose.util.Nullable;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a lexer on a thread of its own, ahead of whoever reads the tokens, so lexing and parsing overlap.
+ * Tokens are passed through a ring buffer with one writer and one reader, which only coordinate through the two
+ * counters of written and read tokens. The lexer waits while the buffer is full, so no more than {@link #CAPACITY}
+ * tokens are held however long the input is. An exception thrown by the lexer is thrown to the reader once it has read
+ * every token before it.
+ * <p>
+ * Close the pipeline when not reading it to the end, like after a parse error, so the lexer thread stops.
+ */
+public final class TokenPipeline implements Iterator<Token>, AutoCloseable {
+  private static final int CAPACITY = 4096;
+  private static final int MASK = CAPACITY - 1;
+  // How many times to spin before waiting for the other side, and for how long. Spinning only keeps the other side
+  // from running when there is a single processor.
+  private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+  private static final long PARK_NANOS = 20_000;
+
+  private final Lexer lexer;
+  private final Token[] ring = new Token[CAPACITY];
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong read = new AtomicLong();
+  // What each side last saw of the other's counter, so the counters are only read when the buffer looks full or empty.
+  private long readSeen = 0;
+  private long writtenSeen = 0;
+  // Set after the last token is written.
+  private volatile boolean finished = false;
+  @Nullable
+  private volatile RuntimeException failure = null;
+  private volatile boolean closed = false;
+
+  public TokenPipeline(Lexer lexer) {
+    this.lexer = lexer;
+    Thread thread = new Thread(this::run, "moose-lexer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void run() {
+    try {
+      while (lexer.hasNext()) {
+        Token token = lexer.next();
+        long slot = written.get();
+        for (int spins = 0; slot - readSeen == CAPACITY; spins++) {
+          readSeen = read.get();
+          if (slot - readSeen < CAPACITY) {
+            break;
+          }
+          if (closed) {
+            return;
+          }
+          idle(spins);
+        }
+        ring[(int) slot & MASK] = token;
+        // Publishes the token, the reader sees the slot written once it sees the new count.
+        written.lazySet(slot + 1);
+      }
+    } catch (RuntimeException e) {
+      failure = e;
+    } finally {
+      finished = true;
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    long slot = read.get();
+    for (int spins = 0; slot == writtenSeen; spins++) {
+      writtenSeen = written.get();
+      if (slot != writtenSeen) {
+        break;
+      }
+      if (finished) {
+        // Everything was written before finished was set, so this is the final count.
+        if (slot != written.get()) {
+          return true;
+        }
+        if (failure != null) {
+          throw failure;
+        }
+        return false;
+      }
+      idle(spins);
+    }
+    return true;
+  }
+
+  @Override
+  public Token next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    long slot = read.get();
+    int index = (int) slot & MASK;
+    Token token = ring[index];
+    ring[index] = null;
+    read.lazySet(slot + 1);
+    return token;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+  }
+
+  private static void idle(int spins) {
+    if (spins < SPINS) {
+      Thread.onSpinWait();
+    } else {
+      LockSupport.parkNanos(PARK_NANOS);
+    }
+  }
+}
@@ -1,12 +1,10 @@
 package dev.cernavskis.moose.lexer;
 
-import java.util.Arrays;
-
 public enum TokenType {
   PAREN_LEFT, PAREN_RIGHT,
   BLOCK_LEFT, BLOCK_RIGHT,
   ARRAY_LEFT, ARRAY_RIGHT,
-  STRING, CONSTANT, IDENTIFIER,
+  STRING, CONSTANT, BOOLEAN, IDENTIFIER,
   COMMA, COLON, SEMICOLON,
 
   // Keywords
@@ -71,39 +69,37 @@ public enum TokenType {
   }
 
   public boolean isBinaryOperator() {
-    return Arrays.asList(new TokenType[]{
-      ASSIGNMENT, // =
-      ADDITION, // +
-      SUBTRACTION, // -
-      MULTIPLICATION, // *
-      DIVISION, // /
-      ADDITION_ASSIGNMENT, // +=
-      SUBTRACTION_ASSIGNMENT, // -=
-      MULTIPLICATION_ASSIGNMENT, // *=
-      DIVISION_ASSIGNMENT, // /=
-      MODULO, // %
-      MODULO_ASSIGNMENT, // %=
-      EXPONENTIATION, // **
-      EXPONENTIATION_ASSIGNMENT, // **=
-      EQ, // ==
-      NEQ, // !=
-      GTE, // >=
-      LTE, // <=
-      GT, // >
-      LT, // <
-      LOGICAL_OR, // ||
-      LOGICAL_AND, // &&
-      BIT_OR, // |
-      BIT_AND, // &
-      BIT_XOR, // ^
-      BIT_NOT_ASSIGNMENT, // ~=
-      BIT_OR_ASSIGNMENT, // |=
-      BIT_AND_ASSIGNMENT, // &=
-      BIT_XOR_ASSIGNMENT, // ^=
-      BIT_RSHIFT, // >>
-      BIT_LSHIFT, // <<
-      BIT_RSHIFT_ASSIGNMENT, // >>=
-      BIT_LSHIFT_ASSIGNMENT, // <<=
-    }).contains(this);
+    return precedence() >= 0;
+  }
+
+  /**
+   * How tightly a binary operator binds, higher binds tighter, or -1 if this is not a binary operator.
+   * Assignments bind loosest, then the levels are the same as in C, with ** above * like in most languages that have it.
+   */
+  public int precedence() {
+    return switch (this) {
+      case ASSIGNMENT, ADDITION_ASSIGNMENT, SUBTRACTION_ASSIGNMENT, MULTIPLICATION_ASSIGNMENT, DIVISION_ASSIGNMENT,
+        MODULO_ASSIGNMENT, EXPONENTIATION_ASSIGNMENT, BIT_NOT_ASSIGNMENT, BIT_OR_ASSIGNMENT, BIT_AND_ASSIGNMENT,
+        BIT_XOR_ASSIGNMENT, BIT_RSHIFT_ASSIGNMENT, BIT_LSHIFT_ASSIGNMENT -> 0;
+      case LOGICAL_OR -> 1;
+      case LOGICAL_AND -> 2;
+      case BIT_OR -> 3;
+      case BIT_XOR -> 4;
+      case BIT_AND -> 5;
+      case EQ, NEQ -> 6;
+      case GTE, LTE, GT, LT -> 7;
+      case BIT_RSHIFT, BIT_LSHIFT -> 8;
+      case ADDITION, SUBTRACTION -> 9;
+      case MULTIPLICATION, DIVISION, MODULO -> 10;
+      case EXPONENTIATION -> 11;
+      default -> -1;
+    };
+  }
+
+  /**
+   * Whether a chain of binary operators of the same precedence groups from the right, like a ** b ** c = a ** (b ** c).
+   */
+  public boolean isRightAssociative() {
+    return precedence() == 0 || this == EXPONENTIATION;
   }
 }
@@ -0,0 +1,435 @@
+package dev.cernavskis.moose.parser;
+
+import dev.cernavskis.moose.lexer.TokenType;
+import dev.cernavskis.moose.parser.statement.*;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A parsed program kept in a few flat arrays instead of a tree of records, for sources with millions of nodes.
+ * A node is an index into parallel arrays of its kind, its position, where its children start and how many it has,
+ * the string it holds, like a name or an operator, and a number with whatever else it holds. The children of all
+ * nodes are listed in one more array, with -1 for a missing optional one, like the else branch of an if. Strings are
+ * stored once, however many nodes hold them.
+ * <p>
+ * Children are added before their parents, so a node only points back at nodes before it. The tree only holds
+ * statements as they are parsed, the optimizer works on records.
+ */
+public final class FlatTree {
+  public enum Kind {
+    BLOCK, DECLARATION, EXPORT, IMPORT, FUNCTION_CALL, STRING, NUMBER, BOOLEAN, VARIABLE, ASSIGNMENT, BINARY, UNARY,
+    TERNARY, ASM, PROPERTY_ACCESS, ARRAY_ACCESS, ARRAY, IF, FOR, WHILE, DO_WHILE, LOOP, BREAK, CONTINUE
+  }
+
+  private static final Kind[] KINDS = Kind.values();
+  private static final TokenType[] OPERATORS = TokenType.values();
+
+  private final byte[] kinds;
+  private final long[] positions;
+  private final int[] firstChildren;
+  private final int[] childCounts;
+  // Index into strings, or -1.
+  private final int[] texts;
+  // The declared type (plus one, shifted left) and whether it is constant for declarations, the value of booleans and
+  // the operator of unary expressions.
+  private final int[] values;
+  private final int[] children;
+  private final String[] strings;
+  private final int root;
+  private final boolean hasAsm;
+
+  private FlatTree(Builder builder, int root) {
+    this.kinds = Arrays.copyOf(builder.kinds, builder.size);
+    this.positions = Arrays.copyOf(builder.positions, builder.size);
+    this.firstChildren = Arrays.copyOf(builder.firstChildren, builder.size);
+    this.childCounts = Arrays.copyOf(builder.childCounts, builder.size);
+    this.texts = Arrays.copyOf(builder.texts, builder.size);
+    this.values = Arrays.copyOf(builder.values, builder.size);
+    this.children = Arrays.copyOf(builder.children, builder.childrenSize);
+    this.strings = builder.strings.toArray(new String[0]);
+    this.root = root;
+    this.hasAsm = builder.hasAsm;
+  }
+
+  /**
+   * The block with the top-level statements.
+   */
+  public int root() {
+    return root;
+  }
+
+  public int size() {
+    return kinds.length;
+  }
+
+  // Inline bytecode can use any variable and label, which keeps statements from being compiled on their own.
+  public boolean hasAsm() {
+    return hasAsm;
+  }
+
+  public Kind kind(int node) {
+    return KINDS[kinds[node]];
+  }
+
+  public long position(int node) {
+    return positions[node];
+  }
+
+  public int childCount(int node) {
+    return childCounts[node];
+  }
+
+  /**
+   * The child at the index, or -1 when an optional child is missing.
+   */
+  public int child(int node, int index) {
+    return children[firstChildren[node] + index];
+  }
+
+  /**
+   * The name of variables, declarations and properties, the operator of binary expressions, the value of numbers and
+   * strings, the path of imports, the code of inline bytecode and the label of breaks and continues.
+   */
+  @Nullable
+  public String text(int node) {
+    return texts[node] == -1 ? null : strings[texts[node]];
+  }
+
+  @Nullable
+  public String type(int node) {
+    int type = (values[node] >> 1) - 1;
+    return type == -1 ? null : strings[type];
+  }
+
+  public boolean isConst(int node) {
+    return (values[node] & 1) != 0;
+  }
+
+  public boolean bool(int node) {
+    return values[node] != 0;
+  }
+
+  public TokenType operator(int node) {
+    return OPERATORS[values[node]];
+  }
+
+  /**
+   * The children of the node as records, each made when it is read and not kept, so only the statements being worked
+   * on are records at any time.
+   */
+  public List<Statement> statements(int node) {
+    return new AbstractList<>() {
+      @Override
+      public Statement get(int index) {
+        return statement(child(node, index));
+      }
+
+      @Override
+      public int size() {
+        return childCounts[node];
+      }
+    };
+  }
+
+  /**
+   * Makes the node into records again, for when a statement has to be optimized or checked as a tree.
+   */
+  @Nullable
+  public Statement statement(int node) {
+    if (node == -1) {
+      return null;
+    }
+    long position = positions[node];
+    return switch (kind(node)) {
+      case BLOCK -> new BlockStatement(position, records(node, 0));
+      case DECLARATION -> new DeclarationStatement(text(node), statement(child(node, 0)), type(node), isConst(node), position);
+      case EXPORT -> new ExportStatement(position, statement(child(node, 0)));
+      case IMPORT -> new ImportStatement(position, text(node));
+      case FUNCTION_CALL -> new FunctionCallStatement(position, statement(child(node, 0)), records(node, 1));
+      case STRING -> new StringStatement(position, text(node));
+      case NUMBER -> new NumberStatement(position, text(node));
+      case BOOLEAN -> new BooleanStatement(position, bool(node));
+      case VARIABLE -> new VariableStatement(position, text(node));
+      case ASSIGNMENT -> new AssignmentStatement(position, statement(child(node, 0)), statement(child(node, 1)));
+      case BINARY -> binary(node);
+      case UNARY -> new UnaryExpression(statement(child(node, 0)), operator(node), position);
+      case TERNARY -> new TernaryExpression(position, statement(child(node, 0)), statement(child(node, 1)), statement(child(node, 2)));
+      case ASM -> new LiterallyDontCareStatement(position, text(node));
+      case PROPERTY_ACCESS -> new PropertyAccessStatement(position, statement(child(node, 0)), text(node));
+      case ARRAY_ACCESS -> new ArrayAccessStatement(position, statement(child(node, 0)), statement(child(node, 1)));
+      case ARRAY -> new ArrayStatement(position, records(node, 0));
+      case IF -> new IfStatement(position, statement(child(node, 0)), statement(child(node, 1)), statement(child(node, 2)));
+      case FOR -> new ForStatement(position, statement(child(node, 0)), statement(child(node, 1)), statement(child(node, 2)), statement(child(node, 3)));
+      case WHILE -> new WhileStatement(position, statement(child(node, 0)), statement(child(node, 1)));
+      case DO_WHILE -> new DoWhileStatement(position, statement(child(node, 0)), statement(child(node, 1)));
+      case LOOP -> new LoopStatement(position, statement(child(node, 0)));
+      case BREAK -> new BreakStatement(position, text(node));
+      case CONTINUE -> new ContinueStatement(position, text(node));
+    };
+  }
+
+  private List<Statement> records(int node, int from) {
+    List<Statement> statements = new ArrayList<>(childCounts[node] - from);
+    for (int i = from; i < childCounts[node]; i++) {
+      statements.add(statement(child(node, i)));
+    }
+    return statements;
+  }
+
+  // Chains nest to the left as deep as they are long, so they are rebuilt from the innermost one out.
+  private Statement binary(int node) {
+    List<Integer> chain = new ArrayList<>();
+    int left = node;
+    while (left != -1 && kind(left) == Kind.BINARY) {
+      chain.add(left);
+      left = child(left, 0);
+    }
+    Statement result = statement(left);
+    for (int i = chain.size() - 1; i >= 0; i--) {
+      int binary = chain.get(i);
+      result = new BinaryExpression(positions[binary], result, text(binary), statement(child(binary, 1)));
+    }
+    return result;
+  }
+
+  /**
+   * Adds statements one at a time, so the records of a statement can be dropped once it is added.
+   */
+  public static final class Builder implements StatementVisitor<Integer> {
+    private byte[] kinds = new byte[1024];
+    private long[] positions = new long[1024];
+    private int[] firstChildren = new int[1024];
+    private int[] childCounts = new int[1024];
+    private int[] texts = new int[1024];
+    private int[] values = new int[1024];
+    private int size = 0;
+    private int[] children = new int[1024];
+    private int childrenSize = 0;
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+    private boolean hasAsm = false;
+    private final List<Integer> statements = new ArrayList<>();
+
+    /**
+     * Adds a top-level statement.
+     */
+    public void add(Statement statement) {
+      statements.add(node(statement));
+    }
+
+    /**
+     * Puts the top-level statements added so far in a block at the position, which is the root of the tree.
+     */
+    public FlatTree build(long position) {
+      int[] nodes = new int[statements.size()];
+      for (int i = 0; i < nodes.length; i++) {
+        nodes[i] = statements.get(i);
+      }
+      return new FlatTree(this, add(Kind.BLOCK, position, null, 0, nodes));
+    }
+
+    private int node(@Nullable Statement statement) {
+      return statement == null ? -1 : statement.accept(this);
+    }
+
+    private int[] nodes(List<Statement> statements, int... before) {
+      int[] nodes = Arrays.copyOf(before, before.length + statements.size());
+      for (int i = 0; i < statements.size(); i++) {
+        nodes[before.length + i] = node(statements.get(i));
+      }
+      return nodes;
+    }
+
+    private int add(Kind kind, long position, @Nullable String text, int value, int... nodes) {
+      if (size == kinds.length) {
+        int capacity = size * 2;
+        kinds = Arrays.copyOf(kinds, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        childCounts = Arrays.copyOf(childCounts, capacity);
+        texts = Arrays.copyOf(texts, capacity);
+        values = Arrays.copyOf(values, capacity);
+      }
+      if (childrenSize + nodes.length > children.length) {
+        children = Arrays.copyOf(children, Math.max(children.length * 2, childrenSize + nodes.length));
+      }
+      System.arraycopy(nodes, 0, children, childrenSize, nodes.length);
+      kinds[size] = (byte) kind.ordinal();
+      positions[size] = position;
+      firstChildren[size] = childrenSize;
+      childCounts[size] = nodes.length;
+      texts[size] = string(text);
+      values[size] = value;
+      childrenSize += nodes.length;
+      return size++;
+    }
+
+    private int string(@Nullable String text) {
+      if (text == null) {
+        return -1;
+      }
+      return stringIndexes.computeIfAbsent(text, t -> {
+        strings.add(t);
+        return strings.size() - 1;
+      });
+    }
+
+    @Override
+    public Integer visitArrayAccess(ArrayAccessStatement statement) {
+      return add(Kind.ARRAY_ACCESS, statement.position(), null, 0, node(statement.parent()), node(statement.index()));
+    }
+
+    @Override
+    public Integer visitArray(ArrayStatement statement) {
+      return add(Kind.ARRAY, statement.position(), null, 0, nodes(statement.elements()));
+    }
+
+    @Override
+    public Integer visitAssignment(AssignmentStatement statement) {
+      return add(Kind.ASSIGNMENT, statement.position(), null, 0, node(statement.qualifiedName()), node(statement.value()));
+    }
+
+    @Override
+    public Integer visitBinary(BinaryExpression expression) {
+      // Chains nest to the left as deep as they are long, so their left operands are walked down in a loop.
+      List<BinaryExpression> chain = new ArrayList<>();
+      Statement left = expression;
+      while (left instanceof BinaryExpression binary) {
+        chain.add(binary);
+        left = binary.left();
+      }
+      int result = node(left);
+      for (int i = chain.size() - 1; i >= 0; i--) {
+        BinaryExpression binary = chain.get(i);
+        result = add(Kind.BINARY, binary.position(), binary.operator(), 0, result, node(binary.right()));
+      }
+      return result;
+    }
+
+    @Override
+    public Integer visitBlock(BlockStatement statement) {
+      return add(Kind.BLOCK, statement.position(), null, 0, nodes(statement.statements()));
+    }
+
+    @Override
+    public Integer visitBoolean(BooleanStatement statement) {
+      return add(Kind.BOOLEAN, statement.position(), null, statement.value() ? 1 : 0);
+    }
+
+    @Override
+    public Integer visitBreak(BreakStatement statement) {
+      return add(Kind.BREAK, statement.position(), statement.label(), 0);
+    }
+
+    @Override
+    public Integer visitContinue(ContinueStatement statement) {
+      return add(Kind.CONTINUE, statement.position(), statement.label(), 0);
+    }
+
+    @Override
+    public Integer visitCountedFor(CountedForStatement statement) {
+      throw new IllegalArgumentException("Only parsed statements can be added, not " + statement.statementType());
+    }
+
+    @Override
+    public Integer visitDeclaration(DeclarationStatement statement) {
+      int value = (string(statement.type()) + 1) << 1 | (statement.isConst() ? 1 : 0);
+      return add(Kind.DECLARATION, statement.position(), statement.name(), value, node(statement.value()));
+    }
+
+    @Override
+    public Integer visitDoWhile(DoWhileStatement statement) {
+      return add(Kind.DO_WHILE, statement.position(), null, 0, node(statement.condition()), node(statement.body()));
+    }
+
+    @Override
+    public Integer visitExport(ExportStatement statement) {
+      return add(Kind.EXPORT, statement.position(), null, 0, node(statement.declaration()));
+    }
+
+    @Override
+    public Integer visitFor(ForStatement statement) {
+      return add(Kind.FOR, statement.position(), null, 0, node(statement.initializer()), node(statement.condition()),
+        node(statement.increment()), node(statement.body()));
+    }
+
+    @Override
+    public Integer visitFunctionCall(FunctionCallStatement statement) {
+      return add(Kind.FUNCTION_CALL, statement.position(), null, 0, nodes(statement.arguments(), node(statement.callable())));
+    }
+
+    @Override
+    public Integer visitIf(IfStatement statement) {
+      return add(Kind.IF, statement.position(), null, 0, node(statement.condition()), node(statement.thenBranch()),
+        node(statement.elseBranch()));
+    }
+
+    @Override
+    public Integer visitImport(ImportStatement statement) {
+      return add(Kind.IMPORT, statement.position(), statement.path(), 0);
+    }
+
+    @Override
+    public Integer visitLiterallyDontCare(LiterallyDontCareStatement statement) {
+      hasAsm = true;
+      return add(Kind.ASM, statement.position(), statement.code(), 0);
+    }
+
+    @Override
+    public Integer visitLoop(LoopStatement statement) {
+      return add(Kind.LOOP, statement.position(), null, 0, node(statement.body()));
+    }
+
+    @Override
+    public Integer visitNumber(NumberStatement statement) {
+      return add(Kind.NUMBER, statement.position(), statement.value(), 0);
+    }
+
+    @Override
+    public Integer visitPropertyAccess(PropertyAccessStatement statement) {
+      return add(Kind.PROPERTY_ACCESS, statement.position(), statement.property(), 0, node(statement.parent()));
+    }
+
+    @Override
+    public Integer visitString(StringStatement statement) {
+      return add(Kind.STRING, statement.position(), statement.value(), 0);
+    }
+
+    @Override
+    public Integer visitTernary(TernaryExpression expression) {
+      return add(Kind.TERNARY, expression.position(), null, 0, node(expression.condition()), node(expression.trueValue()),
+        node(expression.falseValue()));
+    }
+
+    @Override
+    public Integer visitUnary(UnaryExpression expression) {
+      return add(Kind.UNARY, expression.position(), null, expression.operator().ordinal(), node(expression.value()));
+    }
+
+    @Override
+    public Integer visitUncheckedArrayAccess(UncheckedArrayAccessStatement statement) {
+      throw new IllegalArgumentException("Only parsed statements can be added, not " + statement.statementType());
+    }
+
+    @Override
+    public Integer visitUnrolledLoop(UnrolledLoopStatement statement) {
+      throw new IllegalArgumentException("Only parsed statements can be added, not " + statement.statementType());
+    }
+
+    @Override
+    public Integer visitVariable(VariableStatement statement) {
+      return add(Kind.VARIABLE, statement.position(), statement.value(), 0);
+    }
+
+    @Override
+    public Integer visitWhile(WhileStatement statement) {
+      return add(Kind.WHILE, statement.position(), null, 0, node(statement.condition()), node(statement.body()));
+    }
+  }
+}
@@ -1,34 +1,68 @@
 package dev.cernavskis.moose.parser;
 
+import dev.cernavskis.moose.lexer.TokenBuffer;
 import dev.cernavskis.moose.lexer.TokenType;
 import dev.cernavskis.moose.parser.statement.*;
 import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.util.Nullable;
 import dev.cernavskis.moose.lexer.Token;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class Parser {
-  private final List<Token> tokens;
+  private final TokenBuffer tokens;
 
   public Parser(List<Token> tokens) {
+    this(new TokenBuffer(tokens));
+  }
+
+  public Parser(TokenBuffer tokens) {
     this.tokens = tokens;
   }
 
   public BlockStatement parse() {
-    final List<Statement> elements = new LinkedList<>();
-    DebugInfo debugInfo = getDebugInfo();
+    final List<Statement> elements = new ArrayList<>();
+    long position = sourcePosition();
     while (!match(TokenType.EOF)) {
       try {
-        elements.add(statement());
+        elements.add(topLevelStatement());
       } catch (ParsingException e) {
         System.err.println("Got " + peekToken());
         System.err.println("Current elements: " + elements);
         throw new RuntimeException(e);
       }
     }
-    return new BlockStatement(debugInfo, new ArrayList<>(elements));
+    return new BlockStatement(position, elements);
+  }
+
+  /**
+   * Parses the top-level statements one at a time, passing each to the consumer before the next one is parsed, so
+   * they do not have to be held at once. Returns the position the program starts at.
+   */
+  public long parse(Consumer<Statement> consumer) {
+    long position = sourcePosition();
+    while (!match(TokenType.EOF)) {
+      consumer.accept(topLevelStatement());
+    }
+    return position;
+  }
+
+  /**
+   * Parses the next top-level statement, or returns null once only the end of the file is left.
+   * Comparing {@link #position()} before and after tells which tokens the statement was parsed from.
+   */
+  @Nullable
+  public Statement nextStatement() {
+    return match(TokenType.EOF) ? null : topLevelStatement();
+  }
+
+  /**
+   * Number of tokens parsed so far.
+   */
+  public int position() {
+    return tokens.position();
   }
 
   public Token peekToken() {
@@ -36,18 +70,11 @@ public class Parser {
   }
 
   public Token peekToken(int offset) {
-    Token token;
-    if (tokens.isEmpty()) {
-      token = new Token(TokenType.EOF, "", 0, 0, "<unknown>");
-    } else {
-      token = tokens.get(offset);
-    }
-    return token;
+    return tokens.peek(offset);
   }
 
   public Token nextToken() {
-    peekToken();
-    return tokens.remove(0);
+    return tokens.next();
   }
 
   public boolean match(int offset, TokenType type) {
@@ -66,11 +93,43 @@ public class Parser {
     }
   }
 
+  // Imports and exports are only allowed outside of any block.
+  private Statement topLevelStatement() {
+    if (match(TokenType.IMPORT)) {
+      return importStatement();
+    } else if (match(TokenType.EXPORT)) {
+      return exportStatement();
+    }
+    return statement();
+  }
+
+  private Statement importStatement() {
+    long position = sourcePosition();
+    consume(TokenType.IMPORT);
+    String path = consume(TokenType.STRING).value();
+    consume(TokenType.SEMICOLON);
+    return new ImportStatement(position, path);
+  }
+
+  private Statement exportStatement() {
+    long position = sourcePosition();
+    consume(TokenType.EXPORT);
+    if (match(TokenType.CONST)) {
+      return new ExportStatement(position, constStatement());
+    } else if (match(TokenType.LET)) {
+      return new ExportStatement(position, letStatement());
+    }
+    throw new ParsingException("Expected a declaration after export but got " + peekToken().type(), getDebugInfo());
+  }
+
   private Statement statement() {
     Token token = peekToken();
     if (token.type() == TokenType.EOF) {
       throw new ParsingException("Unexpected EOF", getDebugInfo());
     }
+    if (token.type() == TokenType.IMPORT || token.type() == TokenType.EXPORT) {
+      throw new ParsingException(token.value() + " is only allowed at the top level", getDebugInfo());
+    }
 
 
     // Take care of keywords first
@@ -100,7 +159,7 @@ public class Parser {
   }
 
   private Statement breakStatement() {
-    DebugInfo debugInfo = getDebugInfo();
+    long position = sourcePosition();
     consume(TokenType.BREAK);
 
     Token label = null;
@@ -109,11 +168,11 @@ public class Parser {
     }
 
     consume(TokenType.SEMICOLON);
-    return new BreakStatement(debugInfo, label == null ? null : label.value());
+    return new BreakStatement(position, label == null ? null : label.value());
   }
 
   private Statement continueStatement() {
-    DebugInfo debugInfo = getDebugInfo();
+    long position = sourcePosition();
     consume(TokenType.CONTINUE);
 
     Token label = null;
@@ -122,11 +181,11 @@ public class Parser {
     }
 
     consume(TokenType.SEMICOLON);
-    return new ContinueStatement(debugInfo, label == null ? null : label.value());
+    return new ContinueStatement(position, label == null ? null : label.value());
   }
 
   private Statement forStatement() {
-    DebugInfo debugInfo = getDebugInfo();
+    long position = sourcePosition();
     consume(TokenType.FOR);
     consume(TokenType.PAREN_LEFT);
     Statement initializer = null;
@@ -144,21 +203,21 @@ public class Parser {
     }
     consume(TokenType.PAREN_RIGHT);
     Statement body = blockOrStatement();
-    return new ForStatement(debugInfo, initializer, condition, increment, body);
+    return new ForStatement(position, initializer, condition, increment, body);
   }
 
   private Statement whileStatement() {
-    DebugInfo debugInfo = getDebugInfo();
+    long position = sourcePosition();
     consume(TokenType.WHILE);
     consume(TokenType.PAREN_LEFT);
     Statement condition = expression();
     consume(TokenType.PAREN_RIGHT);
     Statement body = blockOrStatement();
-    return new WhileStatement(debugInfo, condition, body);
+    return new WhileStatement(position, condition, body);
   }
 
   private Statement doWhileStatement() {
-    DebugInfo debugInfo = getDebugInfo();
+    long position = sourcePosition();
     consume(TokenType.DO);
     Statement body = blockOrStatement();
     consume(TokenType.WHILE);
@@ -166,18 +225,18 @@ public class Parser {
     Statement condition = expression();
     consume(TokenType.PAREN_RIGHT);
     consume(TokenType.SEMICOLON);
-    return new DoWhileStatement(debugInfo, condition, body);
+    return new DoWhileStatement(position, condition, body);
   }
 
   private Statement loopStatement() {
-    DebugInfo debugInfo = getDebugInfo();
+    long position = sourcePosition();
     consume(TokenType.LOOP);
     Statement body = blockOrStatement();
-    return new LoopStatement(debugInfo, body);
+    return new LoopStatement(position, body);
   }
 
   private Statement ifStatement() {
-    DebugInfo debugInfo = getDebugInfo();
+    long position = sourcePosition();
     consume(TokenType.IF);
     consume(TokenType.PAREN_LEFT);
     Statement condition = expression();
@@ -188,7 +247,7 @@ public class Parser {
       consume(TokenType.ELSE);
       elseBranch = blockOrStatement();
     }
-    return new IfStatement(debugInfo, condition, thenBranch, elseBranch);
+    return new IfStatement(position, condition, thenBranch, elseBranch);
   }
 
   private Statement blockOrStatement() {
@@ -200,14 +259,14 @@ public class Parser {
   }
 
   private Statement block() {
-    DebugInfo debugInfo = getDebugInfo();
+    long position = sourcePosition();
     consume(TokenType.BLOCK_LEFT);
     List<Statement> statements = new ArrayList<>();
     while (!match(TokenType.BLOCK_RIGHT)) {
       statements.add(statement());
     }
     consume(TokenType.BLOCK_RIGHT);
-    return new BlockStatement(debugInfo, statements);
+    return new BlockStatement(position, statements);
   }
 
   private Statement expression() {
@@ -224,35 +283,56 @@ public class Parser {
 
   private Statement assignmentStrict() {
     if (match(0, TokenType.IDENTIFIER)) {
-      if (match(1, TokenType.ASSIGNMENT)) {
-        DebugInfo debugInfo = getDebugInfo();
+      if (match(assignableLength(), TokenType.ASSIGNMENT)) {
+        long position = sourcePosition();
         Statement name = qualifiedName();
         consume(TokenType.ASSIGNMENT);
         Statement value = expression();
-        return new AssignmentStatement(debugInfo, name, value);
+        return new AssignmentStatement(position, name, value);
       }
     }
     return null;
   }
 
-  private Statement qualifiedName() {
-    if (!match(TokenType.IDENTIFIER)) {
-      throw new RuntimeException("Expected identifier");
+  // Looks ahead over a qualified name (a.b[c].d) and returns how many tokens it spans.
+  private int assignableLength() {
+    int offset = 1;
+    while (true) {
+      if (match(offset, TokenType.DOT) && match(offset + 1, TokenType.IDENTIFIER)) {
+        offset += 2;
+      } else if (match(offset, TokenType.ARRAY_LEFT)) {
+        int depth = 0;
+        do {
+          if (match(offset, TokenType.ARRAY_LEFT)) {
+            depth++;
+          } else if (match(offset, TokenType.ARRAY_RIGHT)) {
+            depth--;
+          } else if (match(offset, TokenType.EOF)) {
+            return offset;
+          }
+          offset++;
+        } while (depth > 0);
+      } else {
+        return offset;
+      }
     }
-    return qualifiedName(new VariableStatement(getDebugInfo(), consume(TokenType.IDENTIFIER).value()));
+  }
+
+  private Statement qualifiedName() {
+    return qualifiedName(new VariableStatement(sourcePosition(), consume(TokenType.IDENTIFIER).value()));
   }
   private Statement qualifiedName(Statement parent) {
     Statement result = parent;
-    DebugInfo debugInfo = getDebugInfo();
+    long position = sourcePosition();
     while (match(TokenType.DOT) || match(TokenType.ARRAY_LEFT)) {
       if (match(TokenType.DOT)) {
         consume(TokenType.DOT);
-        result = new PropertyAccessStatement(debugInfo, result, consume(TokenType.IDENTIFIER).value());
+        result = new PropertyAccessStatement(position, result, consume(TokenType.IDENTIFIER).value());
       } else if (match(TokenType.ARRAY_LEFT)) {
         consume(TokenType.ARRAY_LEFT);
         Statement index = expression();
         consume(TokenType.ARRAY_RIGHT);
-        result = new ArrayAccessStatement(debugInfo, result, index);
+        result = new ArrayAccessStatement(position, result, index);
       }
     }
     return result;
@@ -261,41 +341,63 @@ public class Parser {
   private Statement ternary() {
     Statement result = binary();
     if (match(TokenType.TERNARY)) {
-      DebugInfo debugInfo = getDebugInfo();
+      long position = sourcePosition();
       consume(TokenType.TERNARY);
       Statement trueValue = expression();
       consume(TokenType.COLON);
       Statement falseValue = expression();
-      return new TernaryExpression(debugInfo, result, trueValue, falseValue);
+      return new TernaryExpression(position, result, trueValue, falseValue);
     }
     return result;
   }
 
+  // Operators are grouped by precedence climbing with explicit stacks of operands and operators, so the stack depth does
+  // not grow with the length of a chain like a + b + c + ...
   private Statement binary() {
-    Statement result = unary();
-    Token token = peekToken();
-    if (token.type().isBinaryOperator()) {
-      DebugInfo debugInfo = getDebugInfo();
-      consume(token.type());
-      result = new BinaryExpression(debugInfo, result, token.value(), binary());
+    List<Statement> operands = new ArrayList<>();
+    List<Token> operators = new ArrayList<>();
+    operands.add(unary());
+    while (peekToken().type().isBinaryOperator()) {
+      Token operator = nextToken();
+      while (!operators.isEmpty() && groupsFirst(operators.get(operators.size() - 1).type(), operator.type())) {
+        reduce(operands, operators);
+      }
+      operators.add(operator);
+      operands.add(unary());
     }
-    return result;
+    while (!operators.isEmpty()) {
+      reduce(operands, operators);
+    }
+    return operands.get(0);
+  }
+
+  // Whether the operator before an operand takes it, rather than the one after it.
+  private static boolean groupsFirst(TokenType before, TokenType after) {
+    return before.precedence() > after.precedence() || before.precedence() == after.precedence() && !after.isRightAssociative();
+  }
+
+  // Combines the last operator with the two operands around it.
+  private static void reduce(List<Statement> operands, List<Token> operators) {
+    Token operator = operators.remove(operators.size() - 1);
+    Statement right = operands.remove(operands.size() - 1);
+    Statement left = operands.remove(operands.size() - 1);
+    operands.add(new BinaryExpression(operator.position(), left, operator.value(), right));
   }
 
   private Statement unary() {
-    DebugInfo debugInfo = getDebugInfo();
+    long position = sourcePosition();
     if (match(TokenType.PREINCREMENT)) {
       consume(TokenType.PREINCREMENT);
-      return new UnaryExpression(primary(), TokenType.PREINCREMENT, debugInfo);
+      return new UnaryExpression(primary(), TokenType.PREINCREMENT, position);
     } else if (match(TokenType.PREDECREMENT)) {
       consume(TokenType.PREDECREMENT);
-      return new UnaryExpression(primary(), TokenType.PREDECREMENT, debugInfo);
+      return new UnaryExpression(primary(), TokenType.PREDECREMENT, position);
     } else if (match(TokenType.BIT_NOT)) {
       consume(TokenType.BIT_NOT);
-      return new UnaryExpression(primary(), TokenType.BIT_NOT, debugInfo);
+      return new UnaryExpression(primary(), TokenType.BIT_NOT, position);
     } else if (match(TokenType.LOGICAL_NOT)) {
       consume(TokenType.LOGICAL_NOT);
-      return new UnaryExpression(primary(), TokenType.LOGICAL_NOT, debugInfo);
+      return new UnaryExpression(primary(), TokenType.LOGICAL_NOT, position);
     }
     return primary();
   }
@@ -311,36 +413,30 @@ public class Parser {
     return literal();
   }
 
+  // Names start with an identifier and every other literal with a token of its own, so one token decides which it is.
   private Statement literal() {
-    try {
-      DebugInfo debugInfo = getDebugInfo();
-      Statement name;
-      try {
-        name = qualifiedName();
-      } catch (RuntimeException e) {
-        // doesn't matter
-        throw new ParsingException(e.getMessage());
-      }
-      if (match(TokenType.PAREN_LEFT)) {
-        return functionChain(name);
-      }
-      if (match(TokenType.PREINCREMENT)) {
-        consume(TokenType.PREINCREMENT);
-        return new UnaryExpression(name, TokenType.POSTINCREMENT, debugInfo);
-      } else if (match(TokenType.PREDECREMENT)) {
-        consume(TokenType.PREDECREMENT);
-        return new UnaryExpression(name, TokenType.POSTDECREMENT, debugInfo);
-      }
-      return name;
-    } catch (ParsingException e) {
+    if (!match(TokenType.IDENTIFIER)) {
       return value();
     }
+    long position = sourcePosition();
+    Statement name = qualifiedName();
+    if (match(TokenType.PAREN_LEFT)) {
+      return functionChain(name);
+    }
+    if (match(TokenType.PREINCREMENT)) {
+      consume(TokenType.PREINCREMENT);
+      return new UnaryExpression(name, TokenType.POSTINCREMENT, position);
+    } else if (match(TokenType.PREDECREMENT)) {
+      consume(TokenType.PREDECREMENT);
+      return new UnaryExpression(name, TokenType.POSTDECREMENT, position);
+    }
+    return name;
   }
 
   private Statement array() {
-    DebugInfo debugInfo = getDebugInfo();
+    long position = sourcePosition();
     consume(TokenType.ARRAY_LEFT);
-    List<Statement> elements = new LinkedList<>();
+    List<Statement> elements = new ArrayList<>();
     while (!match(TokenType.ARRAY_RIGHT)) {
       elements.add(expression());
       if (match(TokenType.COMMA)) {
@@ -348,33 +444,35 @@ public class Parser {
       }
     }
     consume(TokenType.ARRAY_RIGHT);
-    return new ArrayStatement(debugInfo, elements);
+    return new ArrayStatement(position, elements);
   }
 
   private Statement value() {
-    DebugInfo debugInfo = getDebugInfo();
+    long position = sourcePosition();
     if (match(TokenType.STRING)) {
-      Statement result = new StringStatement(debugInfo, consume(TokenType.STRING).value());
+      Statement result = new StringStatement(position, consume(TokenType.STRING).value());
       while (match(TokenType.DOT) || match(TokenType.ARRAY_LEFT) || match(TokenType.PAREN_LEFT)) {
         if (match(TokenType.DOT)) {
           consume(TokenType.DOT);
-          result = new PropertyAccessStatement(debugInfo, result, consume(TokenType.IDENTIFIER).value());
+          result = new PropertyAccessStatement(position, result, consume(TokenType.IDENTIFIER).value());
         } else if (match(TokenType.ARRAY_LEFT)) {
           consume(TokenType.ARRAY_LEFT);
           Statement index = expression();
           consume(TokenType.ARRAY_RIGHT);
-          result = new ArrayAccessStatement(debugInfo, result, index);
+          result = new ArrayAccessStatement(position, result, index);
         } else if (match(TokenType.PAREN_LEFT)) {
           result = functionChain(result);
         }
       }
       return result;
     } else if (match(TokenType.CONSTANT)) {
-      return new NumberStatement(debugInfo, consume(TokenType.CONSTANT).value());
+      return new NumberStatement(position, consume(TokenType.CONSTANT).value());
+    } else if (match(TokenType.BOOLEAN)) {
+      return new BooleanStatement(position, consume(TokenType.BOOLEAN).value().equals("true"));
     } else if (match(TokenType.ARRAY_LEFT)) {
       return array();
     } else if (match(TokenType.ASM)) {
-      return new LiterallyDontCareStatement(debugInfo, consume(TokenType.ASM).value());
+      return new LiterallyDontCareStatement(position, consume(TokenType.ASM).value());
     }
 
     throw new ParsingException("Unknown expression", getDebugInfo());
@@ -396,9 +494,9 @@ public class Parser {
   }
 
   private Statement function(Statement callable) {
-    DebugInfo debugInfo = getDebugInfo();
+    long position = sourcePosition();
     consume(TokenType.PAREN_LEFT);
-    List<Statement> arguments = new LinkedList<>();
+    List<Statement> arguments = new ArrayList<>();
     while (!match(TokenType.PAREN_RIGHT)) {
       arguments.add(expression());
       if (match(TokenType.COMMA)) {
@@ -408,7 +506,7 @@ public class Parser {
       }
     }
     consume(TokenType.PAREN_RIGHT);
-    return new FunctionCallStatement(debugInfo, callable, new ArrayList<>(arguments));
+    return new FunctionCallStatement(position, callable, arguments);
   }
 
   private DeclarationStatement constStatement() {
@@ -420,7 +518,7 @@ public class Parser {
   }
 
   private DeclarationStatement declarationStatement(boolean isConst) {
-    DebugInfo debugInfo = getDebugInfo();
+    long position = sourcePosition();
     if (isConst) {
       consume(TokenType.CONST);
     } else {
@@ -432,7 +530,7 @@ public class Parser {
     if (!match(TokenType.ASSIGNMENT)) {
       if (!isConst) {
         consume(TokenType.SEMICOLON);
-        return new DeclarationStatement(name, null, type, false, debugInfo);
+        return new DeclarationStatement(name, null, type, false, position);
       } else {
         throw new ParsingException("Expected = but got " + peekToken().value(), getDebugInfo());
       }
@@ -440,7 +538,7 @@ public class Parser {
     consume(TokenType.ASSIGNMENT);
     Statement value = expression();
     consume(TokenType.SEMICOLON);
-    return new DeclarationStatement(name, value, type, isConst, debugInfo);
+    return new DeclarationStatement(name, value, type, isConst, position);
   }
 
   private String typeName() {
@@ -459,4 +557,8 @@ public class Parser {
   public DebugInfo getDebugInfo() {
     return peekToken().debugInfo();
   }
+
+  private long sourcePosition() {
+    return peekToken().position();
+  }
 }
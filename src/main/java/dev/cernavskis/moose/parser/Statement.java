@@ -1,6 +1,7 @@
 package dev.cernavskis.moose.parser;
 
 import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.util.SourcePosition;
 
 import java.util.Locale;
 
@@ -8,5 +9,14 @@ public interface Statement {
   default String statementType() {
     return this.getClass().getSimpleName().replace("Statement", "").toLowerCase(Locale.ROOT);
   }
-  DebugInfo debugInfo();
+  /**
+   * Where the statement starts, see {@link SourcePosition}.
+   */
+  long position();
+
+  default DebugInfo debugInfo() {
+    return SourcePosition.debugInfo(position());
+  }
+
+  <R> R accept(StatementVisitor<R> visitor);
 }
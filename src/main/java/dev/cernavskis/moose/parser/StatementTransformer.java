@@ -0,0 +1,303 @@
+package dev.cernavskis.moose.parser;
+
+import dev.cernavskis.moose.parser.statement.*;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rebuilds a statement tree bottom-up. By default every node is kept as is, and a node is only
+ * recreated when one of its children was replaced, so unchanged subtrees keep their identity.
+ * Passes over the tree extend this and override the nodes they rewrite.
+ */
+public class StatementTransformer implements StatementVisitor<Statement> {
+  // Left operands of a chain of binary expressions that were transformed ahead of it, see transformChain.
+  private final Map<Statement, Statement> chained = new IdentityHashMap<>();
+
+  @Nullable
+  public Statement transform(@Nullable Statement statement) {
+    if (statement == null) {
+      return null;
+    }
+    if (!chained.isEmpty()) {
+      Statement result = chained.remove(statement);
+      if (result != null) {
+        return result;
+      }
+    }
+    if (statement instanceof BinaryExpression expression && expression.left() instanceof BinaryExpression && transformsChains()) {
+      return transformChain(expression);
+    }
+    return statement.accept(this);
+  }
+
+  /**
+   * Whether a chain like a + b + c + ..., which nests as deep as it is long, is transformed from its innermost left
+   * operand out in a loop, rather than by recursing down the left operands. Each operand in the chain is then visited
+   * before the visit of the expression it is the left side of starts, instead of during it, so passes that act on an
+   * expression before transforming its left operand, or may not transform it at all, have to turn this off.
+   */
+  protected boolean transformsChains() {
+    return true;
+  }
+
+  private Statement transformChain(BinaryExpression expression) {
+    List<BinaryExpression> chain = new ArrayList<>();
+    for (Statement left = expression.left(); left instanceof BinaryExpression inner; left = inner.left()) {
+      chain.add(inner);
+    }
+    for (int i = chain.size() - 1; i >= 0; i--) {
+      // Its left operand is a hit in chained, so this does not recurse.
+      chained.put(chain.get(i), chain.get(i).accept(this));
+    }
+    Statement result = expression.accept(this);
+    // Left over when a visit did not transform its left operand.
+    for (BinaryExpression inner : chain) {
+      chained.remove(inner);
+    }
+    return result;
+  }
+
+  public List<Statement> transform(List<Statement> statements) {
+    List<Statement> result = null;
+    for (int i = 0; i < statements.size(); i++) {
+      Statement statement = statements.get(i);
+      Statement transformed = transform(statement);
+      if (result == null && transformed != statement) {
+        result = new ArrayList<>(statements.subList(0, i));
+      }
+      if (result != null) {
+        result.add(transformed);
+      }
+    }
+    return result == null ? statements : result;
+  }
+
+  @Override
+  public Statement visitArrayAccess(ArrayAccessStatement statement) {
+    Statement parent = transform(statement.parent());
+    Statement index = transform(statement.index());
+    if (parent == statement.parent() && index == statement.index()) {
+      return statement;
+    }
+    return new ArrayAccessStatement(statement.position(), parent, index);
+  }
+
+  @Override
+  public Statement visitArray(ArrayStatement statement) {
+    List<Statement> elements = transform(statement.elements());
+    if (elements == statement.elements()) {
+      return statement;
+    }
+    return new ArrayStatement(statement.position(), elements);
+  }
+
+  @Override
+  public Statement visitAssignment(AssignmentStatement statement) {
+    Statement qualifiedName = transform(statement.qualifiedName());
+    Statement value = transform(statement.value());
+    if (qualifiedName == statement.qualifiedName() && value == statement.value()) {
+      return statement;
+    }
+    return new AssignmentStatement(statement.position(), qualifiedName, value);
+  }
+
+  @Override
+  public Statement visitBinary(BinaryExpression expression) {
+    Statement left = transform(expression.left());
+    Statement right = transform(expression.right());
+    if (left == expression.left() && right == expression.right()) {
+      return expression;
+    }
+    return new BinaryExpression(expression.position(), left, expression.operator(), right);
+  }
+
+  @Override
+  public Statement visitBlock(BlockStatement statement) {
+    List<Statement> statements = transform(statement.statements());
+    if (statements == statement.statements()) {
+      return statement;
+    }
+    return new BlockStatement(statement.position(), statements);
+  }
+
+  @Override
+  public Statement visitBoolean(BooleanStatement statement) {
+    return statement;
+  }
+
+  @Override
+  public Statement visitBreak(BreakStatement statement) {
+    return statement;
+  }
+
+  @Override
+  public Statement visitContinue(ContinueStatement statement) {
+    return statement;
+  }
+
+  @Override
+  public Statement visitCountedFor(CountedForStatement statement) {
+    Statement initializer = transform(statement.initializer());
+    Statement bound = transform(statement.bound());
+    Statement body = transform(statement.body());
+    if (initializer == statement.initializer() && bound == statement.bound() && body == statement.body()) {
+      return statement;
+    }
+    if (!(initializer instanceof DeclarationStatement counter)) {
+      throw new IllegalStateException("The counter of a counted loop must stay a declaration");
+    }
+    return new CountedForStatement(statement.position(), counter, statement.comparison(), bound, statement.step(), body);
+  }
+
+  @Override
+  public Statement visitDeclaration(DeclarationStatement statement) {
+    Statement value = transform(statement.value());
+    if (value == statement.value()) {
+      return statement;
+    }
+    return new DeclarationStatement(statement.name(), value, statement.type(), statement.isConst(), statement.position());
+  }
+
+  @Override
+  public Statement visitDoWhile(DoWhileStatement statement) {
+    Statement body = transform(statement.body());
+    Statement condition = transform(statement.condition());
+    if (condition == statement.condition() && body == statement.body()) {
+      return statement;
+    }
+    return new DoWhileStatement(statement.position(), condition, body);
+  }
+
+  @Override
+  public Statement visitExport(ExportStatement statement) {
+    Statement declaration = transform(statement.declaration());
+    if (declaration == statement.declaration()) {
+      return statement;
+    }
+    return new ExportStatement(statement.position(), declaration);
+  }
+
+  @Override
+  public Statement visitFor(ForStatement statement) {
+    Statement initializer = transform(statement.initializer());
+    Statement condition = transform(statement.condition());
+    Statement body = transform(statement.body());
+    Statement increment = transform(statement.increment());
+    if (initializer == statement.initializer() && condition == statement.condition() && increment == statement.increment() && body == statement.body()) {
+      return statement;
+    }
+    return new ForStatement(statement.position(), initializer, condition, increment, body);
+  }
+
+  @Override
+  public Statement visitFunctionCall(FunctionCallStatement statement) {
+    List<Statement> arguments = transform(statement.arguments());
+    Statement callable = transform(statement.callable());
+    if (callable == statement.callable() && arguments == statement.arguments()) {
+      return statement;
+    }
+    return new FunctionCallStatement(statement.position(), callable, arguments);
+  }
+
+  @Override
+  public Statement visitIf(IfStatement statement) {
+    Statement condition = transform(statement.condition());
+    Statement thenBranch = transform(statement.thenBranch());
+    Statement elseBranch = transform(statement.elseBranch());
+    if (condition == statement.condition() && thenBranch == statement.thenBranch() && elseBranch == statement.elseBranch()) {
+      return statement;
+    }
+    return new IfStatement(statement.position(), condition, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Statement visitImport(ImportStatement statement) {
+    return statement;
+  }
+
+  @Override
+  public Statement visitLiterallyDontCare(LiterallyDontCareStatement statement) {
+    return statement;
+  }
+
+  @Override
+  public Statement visitLoop(LoopStatement statement) {
+    Statement body = transform(statement.body());
+    if (body == statement.body()) {
+      return statement;
+    }
+    return new LoopStatement(statement.position(), body);
+  }
+
+  @Override
+  public Statement visitNumber(NumberStatement statement) {
+    return statement;
+  }
+
+  @Override
+  public Statement visitPropertyAccess(PropertyAccessStatement statement) {
+    Statement parent = transform(statement.parent());
+    if (parent == statement.parent()) {
+      return statement;
+    }
+    return new PropertyAccessStatement(statement.position(), parent, statement.property());
+  }
+
+  @Override
+  public Statement visitString(StringStatement statement) {
+    return statement;
+  }
+
+  @Override
+  public Statement visitTernary(TernaryExpression expression) {
+    Statement condition = transform(expression.condition());
+    Statement trueValue = transform(expression.trueValue());
+    Statement falseValue = transform(expression.falseValue());
+    if (condition == expression.condition() && trueValue == expression.trueValue() && falseValue == expression.falseValue()) {
+      return expression;
+    }
+    return new TernaryExpression(expression.position(), condition, trueValue, falseValue);
+  }
+
+  @Override
+  public Statement visitUnary(UnaryExpression expression) {
+    Statement value = transform(expression.value());
+    if (value == expression.value()) {
+      return expression;
+    }
+    return new UnaryExpression(value, expression.operator(), expression.position());
+  }
+
+  @Override
+  public Statement visitUncheckedArrayAccess(UncheckedArrayAccessStatement statement) {
+    return statement;
+  }
+
+  @Override
+  public Statement visitUnrolledLoop(UnrolledLoopStatement statement) {
+    List<Statement> iterations = transform(statement.iterations());
+    if (iterations == statement.iterations()) {
+      return statement;
+    }
+    return new UnrolledLoopStatement(statement.position(), iterations, statement.counter(), statement.step());
+  }
+
+  @Override
+  public Statement visitVariable(VariableStatement statement) {
+    return statement;
+  }
+
+  @Override
+  public Statement visitWhile(WhileStatement statement) {
+    Statement condition = transform(statement.condition());
+    Statement body = transform(statement.body());
+    if (condition == statement.condition() && body == statement.body()) {
+      return statement;
+    }
+    return new WhileStatement(statement.position(), condition, body);
+  }
+}
@@ -0,0 +1,59 @@
+package dev.cernavskis.moose.parser;
+
+import dev.cernavskis.moose.parser.statement.*;
+
+public interface StatementVisitor<R> {
+  R visitArrayAccess(ArrayAccessStatement statement);
+
+  R visitArray(ArrayStatement statement);
+
+  R visitAssignment(AssignmentStatement statement);
+
+  R visitBinary(BinaryExpression expression);
+
+  R visitBlock(BlockStatement statement);
+
+  R visitBoolean(BooleanStatement statement);
+
+  R visitBreak(BreakStatement statement);
+
+  R visitContinue(ContinueStatement statement);
+
+  R visitCountedFor(CountedForStatement statement);
+
+  R visitDeclaration(DeclarationStatement statement);
+
+  R visitDoWhile(DoWhileStatement statement);
+
+  R visitExport(ExportStatement statement);
+
+  R visitFor(ForStatement statement);
+
+  R visitFunctionCall(FunctionCallStatement statement);
+
+  R visitIf(IfStatement statement);
+
+  R visitImport(ImportStatement statement);
+
+  R visitLiterallyDontCare(LiterallyDontCareStatement statement);
+
+  R visitLoop(LoopStatement statement);
+
+  R visitNumber(NumberStatement statement);
+
+  R visitPropertyAccess(PropertyAccessStatement statement);
+
+  R visitString(StringStatement statement);
+
+  R visitTernary(TernaryExpression expression);
+
+  R visitUnary(UnaryExpression expression);
+
+  R visitUncheckedArrayAccess(UncheckedArrayAccessStatement statement);
+
+  R visitUnrolledLoop(UnrolledLoopStatement statement);
+
+  R visitVariable(VariableStatement statement);
+
+  R visitWhile(WhileStatement statement);
+}
@@ -1,7 +1,11 @@
 package dev.cernavskis.moose.parser.statement;
 
-import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.parser.StatementVisitor;
 import dev.cernavskis.moose.parser.Statement;
 
-public record ArrayAccessStatement(DebugInfo debugInfo, Statement parent, Statement index) implements QualifiedNameStatement {
+public record ArrayAccessStatement(long position, Statement parent, Statement index) implements QualifiedNameStatement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitArrayAccess(this);
+  }
 }
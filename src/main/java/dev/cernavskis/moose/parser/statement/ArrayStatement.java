@@ -1,9 +1,13 @@
 package dev.cernavskis.moose.parser.statement;
 
-import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.parser.StatementVisitor;
 import dev.cernavskis.moose.parser.Statement;
 
 import java.util.List;
 
-public record ArrayStatement(DebugInfo debugInfo, List<Statement> elements) implements Statement {
+public record ArrayStatement(long position, List<Statement> elements) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitArray(this);
+  }
 }
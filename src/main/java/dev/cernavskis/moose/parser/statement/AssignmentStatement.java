@@ -1,7 +1,11 @@
 package dev.cernavskis.moose.parser.statement;
 
 import dev.cernavskis.moose.parser.Statement;
-import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.parser.StatementVisitor;
 
-public record AssignmentStatement(DebugInfo debugInfo, Statement qualifiedName, Statement value) implements Statement {
+public record AssignmentStatement(long position, Statement qualifiedName, Statement value) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitAssignment(this);
+  }
 }
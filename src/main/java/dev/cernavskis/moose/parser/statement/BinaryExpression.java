@@ -2,8 +2,12 @@ package dev.cernavskis.moose.parser.statement;
 
 import dev.cernavskis.moose.parser.Expression;
 import dev.cernavskis.moose.parser.Statement;
-import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.parser.StatementVisitor;
 
-public record BinaryExpression(DebugInfo debugInfo, Statement left, String operator,
+public record BinaryExpression(long position, Statement left, String operator,
                                Statement right) implements Expression {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitBinary(this);
+  }
 }
@@ -1,8 +1,13 @@
 package dev.cernavskis.moose.parser.statement;
 
+import dev.cernavskis.moose.parser.StatementVisitor;
 import dev.cernavskis.moose.parser.Statement;
-import dev.cernavskis.moose.util.DebugInfo;
 
 import java.util.List;
 
-public record BlockStatement(DebugInfo debugInfo, List<Statement> statements) implements Statement { }
+public record BlockStatement(long position, List<Statement> statements) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitBlock(this);
+  }
+}
@@ -0,0 +1,11 @@
+package dev.cernavskis.moose.parser.statement;
+
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementVisitor;
+
+public record BooleanStatement(long position, boolean value) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitBoolean(this);
+  }
+}
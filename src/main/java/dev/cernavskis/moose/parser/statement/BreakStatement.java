@@ -1,8 +1,12 @@
 package dev.cernavskis.moose.parser.statement;
 
 import dev.cernavskis.moose.parser.Statement;
-import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.parser.StatementVisitor;
 import dev.cernavskis.moose.util.Nullable;
 
-public record BreakStatement(DebugInfo debugInfo, @Nullable String label) implements Statement {
+public record BreakStatement(long position, @Nullable String label) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitBreak(this);
+  }
 }
@@ -0,0 +1,13 @@
+package dev.cernavskis.moose.parser.statement;
+
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementVisitor;
+
+// A for loop over an int counter, created by the compiler: initializer declares the counter, which is compared with
+// bound (a number or a variable) before every iteration and moved by step after it.
+public record CountedForStatement(long position, DeclarationStatement initializer, String comparison, Statement bound, int step, Statement body) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitCountedFor(this);
+  }
+}
@@ -1,8 +1,13 @@
 package dev.cernavskis.moose.parser.statement;
 
 import dev.cernavskis.moose.parser.Statement;
-import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.parser.StatementVisitor;
+import dev.cernavskis.moose.util.Nullable;
 
-public record DeclarationStatement(String name, Statement value, String type, boolean isConst,
-                                   DebugInfo debugInfo) implements Statement {
+public record DeclarationStatement(String name, @Nullable Statement value, @Nullable String type, boolean isConst,
+                                   long position) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitDeclaration(this);
+  }
 }
@@ -1,7 +1,11 @@
 package dev.cernavskis.moose.parser.statement;
 
+import dev.cernavskis.moose.parser.StatementVisitor;
 import dev.cernavskis.moose.parser.Statement;
-import dev.cernavskis.moose.util.DebugInfo;
 
-public record DoWhileStatement(DebugInfo debugInfo, Statement condition, Statement body) implements Statement {
+public record DoWhileStatement(long position, Statement condition, Statement body) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitDoWhile(this);
+  }
 }
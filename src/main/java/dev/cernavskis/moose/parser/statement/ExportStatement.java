@@ -0,0 +1,12 @@
+package dev.cernavskis.moose.parser.statement;
+
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementVisitor;
+
+// A top-level declaration that files importing this one can use. Exported variables are not cleared at the end of the file.
+public record ExportStatement(long position, Statement declaration) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitExport(this);
+  }
+}
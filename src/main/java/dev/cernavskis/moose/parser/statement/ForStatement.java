@@ -1,8 +1,12 @@
 package dev.cernavskis.moose.parser.statement;
 
+import dev.cernavskis.moose.parser.StatementVisitor;
 import dev.cernavskis.moose.parser.Statement;
-import dev.cernavskis.moose.util.DebugInfo;
 import dev.cernavskis.moose.util.Nullable;
 
-public record ForStatement(DebugInfo debugInfo, @Nullable Statement initializer, @Nullable Statement condition, @Nullable Statement increment, Statement body) implements Statement {
+public record ForStatement(long position, @Nullable Statement initializer, @Nullable Statement condition, @Nullable Statement increment, Statement body) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitFor(this);
+  }
 }
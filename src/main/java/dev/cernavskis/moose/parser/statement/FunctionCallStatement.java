@@ -1,10 +1,14 @@
 package dev.cernavskis.moose.parser.statement;
 
-import dev.cernavskis.moose.util.DebugInfo;
 import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementVisitor;
 
 import java.util.List;
 
-public record FunctionCallStatement(DebugInfo debugInfo, Statement callable,
+public record FunctionCallStatement(long position, Statement callable,
                                     List<Statement> arguments) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitFunctionCall(this);
+  }
 }
@@ -1,8 +1,12 @@
 package dev.cernavskis.moose.parser.statement;
 
+import dev.cernavskis.moose.parser.StatementVisitor;
 import dev.cernavskis.moose.parser.Statement;
-import dev.cernavskis.moose.util.DebugInfo;
 import dev.cernavskis.moose.util.Nullable;
 
-public record IfStatement(DebugInfo debugInfo, Statement condition, Statement thenBranch, @Nullable Statement elseBranch) implements Statement {
+public record IfStatement(long position, Statement condition, Statement thenBranch, @Nullable Statement elseBranch) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitIf(this);
+  }
 }
@@ -0,0 +1,12 @@
+package dev.cernavskis.moose.parser.statement;
+
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementVisitor;
+
+// The path is relative to the file the import is in.
+public record ImportStatement(long position, String path) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitImport(this);
+  }
+}
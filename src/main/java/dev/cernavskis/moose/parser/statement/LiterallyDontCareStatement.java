@@ -1,7 +1,11 @@
 package dev.cernavskis.moose.parser.statement;
 
 import dev.cernavskis.moose.parser.Statement;
-import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.parser.StatementVisitor;
 
-public record LiterallyDontCareStatement(DebugInfo debugInfo, String code) implements Statement {
+public record LiterallyDontCareStatement(long position, String code) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitLiterallyDontCare(this);
+  }
 }
@@ -1,7 +1,11 @@
 package dev.cernavskis.moose.parser.statement;
 
+import dev.cernavskis.moose.parser.StatementVisitor;
 import dev.cernavskis.moose.parser.Statement;
-import dev.cernavskis.moose.util.DebugInfo;
 
-public record LoopStatement(DebugInfo debugInfo, Statement body) implements Statement {
+public record LoopStatement(long position, Statement body) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitLoop(this);
+  }
 }
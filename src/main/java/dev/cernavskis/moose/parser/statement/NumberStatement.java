@@ -1,7 +1,11 @@
 package dev.cernavskis.moose.parser.statement;
 
-import dev.cernavskis.moose.util.DebugInfo;
 import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementVisitor;
 
-public record NumberStatement(DebugInfo debugInfo, String value) implements Statement {
+public record NumberStatement(long position, String value) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitNumber(this);
+  }
 }
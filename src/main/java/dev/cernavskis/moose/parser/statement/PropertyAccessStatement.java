@@ -1,7 +1,11 @@
 package dev.cernavskis.moose.parser.statement;
 
 import dev.cernavskis.moose.parser.Statement;
-import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.parser.StatementVisitor;
 
-public record PropertyAccessStatement(DebugInfo debugInfo, Statement parent, String property) implements QualifiedNameStatement {
+public record PropertyAccessStatement(long position, Statement parent, String property) implements QualifiedNameStatement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitPropertyAccess(this);
+  }
 }
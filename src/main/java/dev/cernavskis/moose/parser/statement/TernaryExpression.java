@@ -2,7 +2,11 @@ package dev.cernavskis.moose.parser.statement;
 
 import dev.cernavskis.moose.parser.Expression;
 import dev.cernavskis.moose.parser.Statement;
-import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.parser.StatementVisitor;
 
-public record TernaryExpression(DebugInfo debugInfo, Statement condition, Statement trueValue, Statement falseValue) implements Expression {
+public record TernaryExpression(long position, Statement condition, Statement trueValue, Statement falseValue) implements Expression {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitTernary(this);
+  }
 }
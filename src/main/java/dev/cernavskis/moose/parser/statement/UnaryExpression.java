@@ -3,7 +3,11 @@ package dev.cernavskis.moose.parser.statement;
 import dev.cernavskis.moose.lexer.TokenType;
 import dev.cernavskis.moose.parser.Expression;
 import dev.cernavskis.moose.parser.Statement;
-import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.parser.StatementVisitor;
 
-public record UnaryExpression(Statement value, TokenType operator, DebugInfo debugInfo) implements Expression {
+public record UnaryExpression(Statement value, TokenType operator, long position) implements Expression {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitUnary(this);
+  }
 }
@@ -0,0 +1,12 @@
+package dev.cernavskis.moose.parser.statement;
+
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementVisitor;
+
+// array[index] where the compiler has proven the index is always in bounds.
+public record UncheckedArrayAccessStatement(long position, String array, String index) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitUncheckedArrayAccess(this);
+  }
+}
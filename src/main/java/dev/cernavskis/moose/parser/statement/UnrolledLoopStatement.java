@@ -0,0 +1,17 @@
+package dev.cernavskis.moose.parser.statement;
+
+import dev.cernavskis.moose.parser.Statement;
+import dev.cernavskis.moose.parser.StatementVisitor;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.util.List;
+
+// Copies of a loop body created by the compiler, run once each in order. A continue in one of them moves on to the next.
+// With a counter, this is the body of the counted loop over it: the counter is moved by step between the copies and
+// break leaves that loop. Without one, this is the whole loop and break leaves it.
+public record UnrolledLoopStatement(long position, List<Statement> iterations, @Nullable String counter, int step) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitUnrolledLoop(this);
+  }
+}
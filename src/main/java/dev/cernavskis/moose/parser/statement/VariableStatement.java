@@ -1,6 +1,10 @@
 package dev.cernavskis.moose.parser.statement;
 
-import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.parser.StatementVisitor;
 
-public record VariableStatement(DebugInfo debugInfo, String value) implements QualifiedNameStatement {
+public record VariableStatement(long position, String value) implements QualifiedNameStatement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitVariable(this);
+  }
 }
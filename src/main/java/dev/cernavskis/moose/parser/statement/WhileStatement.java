@@ -1,7 +1,11 @@
 package dev.cernavskis.moose.parser.statement;
 
 import dev.cernavskis.moose.parser.Statement;
-import dev.cernavskis.moose.util.DebugInfo;
+import dev.cernavskis.moose.parser.StatementVisitor;
 
-public record WhileStatement(DebugInfo debugInfo, Statement condition, Statement body) implements Statement {
+public record WhileStatement(long position, Statement condition, Statement body) implements Statement {
+  @Override
+  public <R> R accept(StatementVisitor<R> visitor) {
+    return visitor.visitWhile(this);
+  }
 }
@@ -1,15 +1,15 @@
 package dev.cernavskis.moose.util;
 
-import dev.cernavskis.moose.lexer.Token;
-
-public record DebugInfo(int line, int column, String file, Token token) {
+/**
+ * Where something is in the source, as it is reported. Positions are kept as a {@link SourcePosition} until then.
+ */
+public record DebugInfo(int line, int column, String file) {
   @Override
   public String toString() {
     return "DebugInfo{" +
       "line=" + line +
       ", column=" + column +
       ", file='" + file + '\'' +
-//      ", token=" + token +
       '}';
   }
 }
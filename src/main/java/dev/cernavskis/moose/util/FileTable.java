@@ -0,0 +1,46 @@
+package dev.cernavskis.moose.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Numbers the source files, so a position in one fits in a {@link SourcePosition}. The table is shared by everything
+ * compiled in the same process, a file keeps its number once it has one.
+ */
+public final class FileTable {
+  // The number of files a SourcePosition has room for.
+  public static final int MAX_FILES = 1 << 16;
+
+  private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+  // Grown to twice its size when full. A name is set before its id is published, so names are looked up without a lock.
+  private static volatile String[] names = new String[16];
+  private static int count = 0;
+
+  private FileTable() {}
+
+  public static int id(String file) {
+    Integer id = ids.get(file);
+    return id != null ? id : add(file);
+  }
+
+  private static synchronized int add(String file) {
+    Integer id = ids.get(file);
+    if (id != null) {
+      return id;
+    }
+    if (count == MAX_FILES) {
+      throw new IllegalStateException("More than " + MAX_FILES + " source files");
+    }
+    if (count == names.length) {
+      names = Arrays.copyOf(names, Math.min(names.length * 2, MAX_FILES));
+    }
+    names[count] = file;
+    ids.put(file, count);
+    return count++;
+  }
+
+  public static String name(int id) {
+    return names[id];
+  }
+}
@@ -0,0 +1,45 @@
+package dev.cernavskis.moose.util;
+
+/**
+ * A position in a source file packed into a long: the file number from {@link FileTable} in the upper 16 bits, then 24
+ * bits each for the line and the column. Tokens and trees keep their positions like this, and only make a
+ * {@link DebugInfo} out of one when it is reported. Lines and columns past 16777215 are clamped to it, so positions
+ * further into a file all report that line or column. File numbers have to fit, see {@link FileTable#MAX_FILES}.
+ */
+public final class SourcePosition {
+  private static final int BITS = 24;
+  private static final int MAX = (1 << BITS) - 1;
+
+  private SourcePosition() {}
+
+  public static long of(int file, int line, int column) {
+    if (file < 0 || file >= FileTable.MAX_FILES) {
+      throw new IllegalArgumentException("File number out of range: " + file);
+    }
+    return (long) file << (2 * BITS) | (long) Math.min(line, MAX) << BITS | Math.min(column, MAX);
+  }
+
+  public static long of(String file, int line, int column) {
+    return of(FileTable.id(file), line, column);
+  }
+
+  public static int file(long position) {
+    return (int) (position >>> (2 * BITS));
+  }
+
+  public static int line(long position) {
+    return (int) (position >>> BITS) & MAX;
+  }
+
+  public static int column(long position) {
+    return (int) position & MAX;
+  }
+
+  public static String fileName(long position) {
+    return FileTable.name(file(position));
+  }
+
+  public static DebugInfo debugInfo(long position) {
+    return new DebugInfo(line(position), column(position), fileName(position));
+  }
+}
@@ -0,0 +1,143 @@
+package dev.cernavskis.moose;
+
+import dev.cernavskis.moose.bytecode.Program;
+import dev.cernavskis.moose.compiler.CompilationCache;
+import dev.cernavskis.moose.compiler.CompilerOptions;
+import dev.cernavskis.moose.compiler.ModuleCompiler;
+import dev.cernavskis.moose.compiler.Passes;
+import dev.cernavskis.moose.compiler.optimizer.OptimizationLevel;
+import dev.cernavskis.moose.interpreter.BytecodeInterpreter;
+import dev.cernavskis.moose.interpreter.types.RuntimeFunction;
+import dev.cernavskis.moose.util.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Compiles and runs every program in a directory and compares what it prints with the .out file next to it. A program
+ * of several files is a directory with a main.mse and a main.out in it.
+ * Each program is run at every optimization level, with every pass left out of -O2, and with every pass on its own, so
+ * a pass that changes what a program does fails on its own name. It is then compiled into an empty cache and again
+ * from it. A runtime error is one more line of output, "error: " and the line and message.
+ */
+public final class GoldenTest {
+  private GoldenTest() {}
+
+  public static void main(String[] args) throws IOException {
+    List<Path> programs;
+    try (Stream<Path> files = Files.list(Path.of(args[0]))) {
+      programs = files
+        .map(path -> Files.isDirectory(path) ? path.resolve("main.mse") : path)
+        .filter(path -> path.toString().endsWith(".mse") && Files.isRegularFile(path))
+        .sorted()
+        .toList();
+    }
+
+    int runs = 0;
+    int failures = 0;
+    for (Path program : programs) {
+      String file = program.getParent().getFileName() + "/" + program.getFileName();
+      String expected = Files.readString(program.resolveSibling(program.getFileName().toString().replace(".mse", ".out")));
+      Map<String, String> results = new LinkedHashMap<>();
+      for (Map.Entry<String, CompilerOptions> configuration : configurations().entrySet()) {
+        results.put(configuration.getKey(), run(program, configuration.getValue(), null, false));
+      }
+      Path cacheDirectory = Files.createTempDirectory("moose-golden");
+      try {
+        CompilationCache cache = new CompilationCache(cacheDirectory, Long.MAX_VALUE);
+        results.put("O2 cache miss", run(program, new CompilerOptions(), cache, false));
+        results.put("O2 cache hit", run(program, new CompilerOptions(), cache, true));
+      } finally {
+        try (Stream<Path> entries = Files.walk(cacheDirectory)) {
+          for (Path entry : entries.sorted(Comparator.reverseOrder()).toList()) {
+            Files.delete(entry);
+          }
+        }
+      }
+
+      for (Map.Entry<String, String> result : results.entrySet()) {
+        runs++;
+        if (!result.getValue().equals(expected)) {
+          failures++;
+          System.out.println("FAILED " + file + " " + result.getKey());
+          System.out.println("expected:\n" + expected + "actual:\n" + result.getValue());
+        }
+      }
+    }
+
+    System.out.println((runs - failures) + " of " + runs + " golden runs passed, " + programs.size() + " programs");
+    if (failures > 0) {
+      System.exit(1);
+    }
+  }
+
+  private static Map<String, CompilerOptions> configurations() {
+    Map<String, CompilerOptions> configurations = new LinkedHashMap<>();
+    for (OptimizationLevel level : OptimizationLevel.values()) {
+      configurations.put(level.toString(), new CompilerOptions().setLevel(level));
+    }
+    configurations.put("O0 flat tree", new CompilerOptions().setLevel(OptimizationLevel.O0).setFlatTree(true));
+    List<String> passes = Passes.names();
+    for (String pass : passes) {
+      configurations.put("O2 without " + pass, new CompilerOptions().setLevel(OptimizationLevel.O2).disablePass(pass));
+      CompilerOptions only = new CompilerOptions().setLevel(OptimizationLevel.O2);
+      for (String other : passes) {
+        if (!other.equals(pass)) {
+          only.disablePass(other);
+        }
+      }
+      configurations.put("only " + pass, only);
+    }
+    return configurations;
+  }
+
+  // Returns what the program prints, or the error it failed to compile with. When cached, no file may be compiled.
+  private static String run(Path file, CompilerOptions options, @Nullable CompilationCache cache, boolean cached) {
+    ModuleCompiler.Result result;
+    try {
+      result = new ModuleCompiler(options, cache).compile(file.toString());
+    } catch (Exception e) {
+      return "compile error: " + e + "\n";
+    }
+    if (cached && !result.compiled().isEmpty()) {
+      return "compiled " + result.compiled().size() + " files instead of taking them from the cache\n";
+    }
+    Program program = result.program();
+    StringBuilder output = new StringBuilder();
+    BytecodeInterpreter interpreter = new BytecodeInterpreter(program);
+    interpreter.setVariable("print", new RuntimeFunction((args) -> {
+      for (int i = 0; i < args.length; i++) {
+        output.append(args[i].toString());
+        if (i != args.length - 1) {
+          output.append(" ");
+        }
+      }
+      output.append("\n");
+      return null;
+    }));
+
+    // executeAll reports an error on System.err and stops. The last line it prints has the message, the instruction it
+    // names depends on the optimizations and is left out.
+    PrintStream err = System.err;
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    System.setErr(new PrintStream(errors, true));
+    try {
+      interpreter.executeAll();
+    } finally {
+      System.setErr(err);
+    }
+    String[] lines = errors.toString().trim().split("\n");
+    if (!lines[lines.length - 1].isEmpty()) {
+      output.append("error: ").append(lines[lines.length - 1].replaceAll(" \\(instruction .*\\)$", "")).append("\n");
+    }
+    return output.toString();
+  }
+}
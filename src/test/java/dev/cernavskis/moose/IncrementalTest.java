@@ -0,0 +1,108 @@
+package dev.cernavskis.moose;
+
+import dev.cernavskis.moose.bytecode.TextWriter;
+import dev.cernavskis.moose.compiler.CompilerOptions;
+import dev.cernavskis.moose.compiler.IncrementalCompiler;
+import dev.cernavskis.moose.compiler.optimizer.InstructionList;
+import dev.cernavskis.moose.compiler.optimizer.OptimizationLevel;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Edits every single-file program in a directory at random and compiles each version with the same
+ * {@link IncrementalCompiler}, the way --watch does, and with a new one. The code has to be the same, or the same error.
+ * The edits are lines added, removed and indented, which move the statements after them, an else added to an if, and
+ * lines that do not parse, which are taken out again on the next edit. The seed is fixed, so a failure can be repeated.
+ */
+public final class IncrementalTest {
+  private static final int EDITS = 40;
+  // A line that does not parse.
+  private static final String BROKEN = "let = ;";
+
+  private IncrementalTest() {}
+
+  public static void main(String[] args) throws IOException {
+    List<Path> programs;
+    try (Stream<Path> files = Files.list(Path.of(args[0]))) {
+      programs = files.filter(path -> path.toString().endsWith(".mse")).sorted().toList();
+    }
+
+    Random random = new Random(7);
+    int checks = 0;
+    int failures = 0;
+    for (Path program : programs) {
+      for (OptimizationLevel level : List.of(OptimizationLevel.O0, OptimizationLevel.O2)) {
+        CompilerOptions options = new CompilerOptions().setLevel(level);
+        String file = program.toString();
+        IncrementalCompiler compiler = new IncrementalCompiler(file, options);
+        List<String> lines = Files.readAllLines(program);
+        compile(compiler, lines);
+        for (int edit = 0; edit < EDITS; edit++) {
+          List<String> edited = edit(lines, edit, random);
+          checks++;
+          String incremental = compile(compiler, edited);
+          String expected = compile(new IncrementalCompiler(file, options), edited);
+          if (!incremental.equals(expected)) {
+            failures++;
+            System.out.println("FAILED " + program.getFileName() + " " + level + " edit " + edit);
+            System.out.println("source:\n" + String.join("\n", edited));
+          }
+          if (!edited.contains(BROKEN)) {
+            lines = edited;
+          }
+        }
+      }
+    }
+
+    System.out.println((checks - failures) + " of " + checks + " incremental compiles matched, " + programs.size() + " programs");
+    if (failures > 0) {
+      System.exit(1);
+    }
+  }
+
+  private static List<String> edit(List<String> lines, int edit, Random random) {
+    List<String> edited = new ArrayList<>(lines);
+    int line = random.nextInt(edited.size());
+    switch (random.nextInt(6)) {
+      case 0 -> edited.add(line, "");
+      case 1 -> edited.add(line, "print(" + edit + ");");
+      case 2 -> {
+        if (edited.get(line).trim().startsWith("print(")) {
+          edited.remove(line);
+        } else {
+          edited.add(line, "  ");
+        }
+      }
+      case 3 -> edited.set(line, "  " + edited.get(line));
+      case 4 -> {
+        // An else after an if that had none, the if has to be parsed again with it.
+        for (int i = 0; i < edited.size(); i++) {
+          String text = edited.get((line + i) % edited.size());
+          if (text.trim().startsWith("if (") && text.endsWith("}") && !text.contains("else")) {
+            edited.set((line + i) % edited.size(), text + " else { print(" + edit + "); }");
+            break;
+          }
+        }
+      }
+      default -> edited.add(line, BROKEN);
+    }
+    return edited;
+  }
+
+  private static String compile(IncrementalCompiler compiler, List<String> lines) {
+    try {
+      InstructionList code = compiler.compile(String.join("\n", lines) + "\n");
+      StringBuilder text = new StringBuilder();
+      code.replay(new TextWriter(text));
+      return text.toString();
+    } catch (RuntimeException e) {
+      return "error: " + e.getMessage();
+    }
+  }
+}